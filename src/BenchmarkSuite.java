@@ -0,0 +1,357 @@
+package src;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// 热点路径基准测试套件: 走法规则、将军检测、棋盘编码/解析和数据库读写
+// 测量方式仿照 JMH 的 avgt 模式: 每个基准先跑若干轮预热, 再跑若干轮测量, 每轮持续固定时长,
+//   报告平均 ns/op 和 99.9% 置信区间 (t 分布), 结果写成 JMH 的 JSON 格式, --baseline 指定上次的结果时逐项对比
+// 仓库没有构建文件, 无法引入 JMH 依赖, 因此以独立主类实现; 每个操作的返回值累加到 sink, 防止被 JIT 消除
+// 数据库基准使用单独的 SQLite 文件, 不存在时先按 --db-players / --db-games 生成; 找不到 SQLite 驱动时跳过
+// 写入基准在该文件的临时副本上运行, 结束后删除, 种子文件的数据量不随运行次数增长
+// 用法: java -cp "build:lib/*" src.BenchmarkSuite [--filter=正则] [--warmup=3] [--iterations=5] [--time-ms=1000]
+//           [--output=benchmark.json] [--baseline=上次.json] [--db=benchmark.db] [--db-players=1000] [--db-games=5000]
+public class BenchmarkSuite {
+    // 每批调用次数的上限, 批与批之间才读一次时钟
+    private static final int MAX_BATCH = 256;
+    private static final String[] DB_BENCHMARKS = {"db.saveGameRecord", "db.getLeaderboard", "db.getGameHistory"};
+
+    @FunctionalInterface
+    interface Op {
+        long run(int i);
+    }
+
+    record Result(String name, double score, double error, double[] raw) {}
+
+    private final int warmup;
+    private final int iterations;
+    private final long timeNanos;
+    private final Pattern filter;
+    private final LinkedHashMap<String, Op> benchmarks = new LinkedHashMap<>();
+    private long sink = 0;
+
+    public BenchmarkSuite(int warmup, int iterations, long timeMillis, String filter) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.timeNanos = timeMillis * 1_000_000;
+        this.filter = Pattern.compile(filter);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var options = new LinkedHashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--")) continue;
+            var eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        var suite = new BenchmarkSuite(
+                Integer.parseInt(options.getOrDefault("warmup", "3")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                Long.parseLong(options.getOrDefault("time-ms", "1000")),
+                options.getOrDefault("filter", ".*"));
+
+        suite.addRules(MoveValidationBenchmark.samplePositions(64, new Random(1)));
+        suite.addProtocol(MoveValidationBenchmark.samplePositions(64, new Random(2)));
+        ChessDatabase database = null;
+        ChessDatabase scratch = null;
+        Path scratchFile = null;
+        if (suite.wantsDatabase()) {
+            var file = options.getOrDefault("db", "benchmark.db");
+            var players = Integer.parseInt(options.getOrDefault("db-players", "1000"));
+            database = openDatabase(file, players, Integer.parseInt(options.getOrDefault("db-games", "5000")));
+            if (database != null) {
+                // 写入基准在种子文件的副本上进行, 种子文件保持不变, 读取基准每次面对同样的数据
+                // 刚生成的数据可能还在 -wal 中未检查点, 一并复制
+                scratchFile = Files.createTempFile(Path.of(file).toAbsolutePath().getParent(), "benchmark-write", ".db");
+                Files.copy(Path.of(file), scratchFile, StandardCopyOption.REPLACE_EXISTING);
+                if (Files.exists(Path.of(file + "-wal"))) {
+                    Files.copy(Path.of(file + "-wal"), Path.of(scratchFile + "-wal"), StandardCopyOption.REPLACE_EXISTING);
+                }
+                scratch = new ChessDatabase("jdbc:sqlite:" + scratchFile);
+                suite.addDatabase(database, scratch, players);
+            }
+        }
+
+        List<Result> results;
+        try {
+            results = suite.runAll();
+        } finally {
+            if (database != null) database.closeConnection();
+            if (scratch != null) scratch.closeConnection();
+            if (scratchFile != null) {
+                for (var suffix : new String[]{"", "-wal", "-shm"}) {
+                    Files.deleteIfExists(Path.of(scratchFile + suffix));
+                }
+            }
+        }
+
+        var output = Path.of(options.getOrDefault("output", "benchmark.json"));
+        Files.writeString(output, toJson(results, suite.warmup, suite.iterations, suite.timeNanos / 1_000_000));
+        System.out.println("结果已写入 " + output.toAbsolutePath());
+        if (options.containsKey("baseline")) {
+            compare(parseJson(Files.readString(Path.of(options.get("baseline")))), results);
+        }
+    }
+
+    // 过滤条件一个数据库基准都不选时不必打开 (和生成) 数据库
+    boolean wantsDatabase() {
+        return Stream.of(DB_BENCHMARKS).anyMatch(name -> filter.matcher(name).find());
+    }
+
+    void add(String name, Op op) {
+        if (filter.matcher(name).find()) benchmarks.put(name, op);
+    }
+
+    /* ==================== benchmarks ==================== */
+
+    // 走法规则: 每次操作为一次 isValidMove, 起点为回合方棋子、终点遍历全部格子; 另按棋子类型分别统计
+    private void addRules(List<Position> positions) {
+        var all = new ArrayList<int[]>();
+        var byType = new ArrayList<List<int[]>>();
+        for (var type = 0; type <= Position.PAWN; type++) byType.add(new ArrayList<>());
+        for (var p = 0; p < positions.size(); p++) {
+            var position = positions.get(p);
+            for (var from = 0; from < Position.SQUARES; from++) {
+                var piece = position.pieceAt(from);
+                if (piece == Position.EMPTY || Position.colorOf(piece) != position.sideToMove()) continue;
+                for (var to = 0; to < Position.SQUARES; to++) {
+                    var check = new int[]{p, from, to};
+                    all.add(check);
+                    byType.get(Position.typeOf(piece)).add(check);
+                }
+            }
+        }
+        var board = positions.toArray(new Position[0]);
+        add("rules.isValidMove", validMoves(board, all));
+        String[] names = {null, "rook", "knight", "elephant", "advisor", "king", "cannon", "pawn"};
+        for (var type = Position.ROOK; type <= Position.PAWN; type++) {
+            add("rules.isValidMove." + names[type], validMoves(board, byType.get(type)));
+        }
+        add("rules.isInCheck", i -> {
+            var position = board[i % board.length];
+            return MoveGenerator.isInCheck(position, position.sideToMove()) ? 1 : 0;
+        });
+    }
+
+    private static Op validMoves(Position[] board, List<int[]> checks) {
+        var n = checks.size();
+        var index = new int[n];
+        var from = new int[n];
+        var to = new int[n];
+        for (var i = 0; i < n; i++) {
+            index[i] = checks.get(i)[0];
+            from[i] = checks.get(i)[1];
+            to[i] = checks.get(i)[2];
+        }
+        return i -> {
+            var k = i % n;
+            return board[index[k]].isValidMove(from[k], to[k]) ? 1 : 0;
+        };
+    }
+
+    // 棋盘编码 (局面变化后 sendBoardToAll 生成的 BOARD 快照) 和客户端 updateBoard 的解析
+    private void addProtocol(List<Position> positions) {
+        var board = positions.toArray(new Position[0]);
+        add("protocol.boardEncode", i -> BoardSnapshot.encode(i, board[i % board.length]).getMessage().length());
+        var messages = new String[board.length];
+        for (var i = 0; i < board.length; i++) {
+            messages[i] = BoardSnapshot.encode(i, board[i]).getMessage().substring(6);
+        }
+        var cells = new String[10][9];
+        add("protocol.boardParse", i -> ChessClient.parseBoard(messages[i % messages.length], cells).length);
+    }
+
+    // 读取基准用种子数据库, 写入基准用它的副本 scratch
+    private void addDatabase(ChessDatabase database, ChessDatabase scratch, int players) {
+        var random = new Random(3);
+        add(DB_BENCHMARKS[0], i -> {
+            var red = 1 + random.nextInt(players);
+            var black = 1 + random.nextInt(players);
+            scratch.saveGameRecord(sampleRecord(red, black, red, "7174 0122", random));
+            return red;
+        });
+        add(DB_BENCHMARKS[1], i -> database.getLeaderboard(20).size());
+        add(DB_BENCHMARKS[2], i -> database.getGameHistory(1 + random.nextInt(players), 10).size());
+    }
+
+    private static ChessDatabase openDatabase(String file, int players, int games) {
+        var fresh = !Files.exists(Path.of(file));
+        var database = new ChessDatabase("jdbc:sqlite:" + file);
+        if (!database.isConnected()) {
+            System.out.println("无法打开 SQLite 数据库 (缺少驱动?), 跳过 db.* 基准");
+            return null;
+        }
+        if (fresh) {
+            System.out.println("生成基准数据库 " + file + ": " + players + " 名玩家, " + games + " 局对局...");
+            var random = new Random(4);
+            quietly(() -> {
+                for (var i = 1; i <= players; i++) {
+                    database.registerPlayer("bench" + i, "pw");
+                }
+                for (var i = 0; i < games; i++) {
+                    var red = 1 + random.nextInt(players);
+                    var black = 1 + random.nextInt(players);
+                    var winner = random.nextBoolean() ? red : black;
+                    database.saveGameRecord(sampleRecord(red, black, winner, "7174 0122 7774 2924", random));
+                    database.updatePlayerStats(winner, true);
+                    database.updatePlayerStats(winner == red ? black : red, false);
+                }
+            });
+        }
+        return database;
+    }
+
+    static GameRecord sampleRecord(int red, int black, int winner, String moves, Random random) {
+        var record = new GameRecord(red, "bench" + red, black, "bench" + black);
+        var start = LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(random.nextInt(1_000_000));
+        record.setStartTime(start);
+        record.setEndTime(start.plusMinutes(30));
+        record.setGameDurationSeconds(1800);
+        record.setWinnerId(winner);
+        record.setWinnerName("bench" + winner);
+        record.setMoves(moves);
+        return record;
+    }
+
+    // 数据库方法会逐条打印日志, 测量时丢弃, 只计数据库本身的开销
+    static void quietly(Runnable action) {
+        var out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /* ==================== measurement ==================== */
+
+    List<Result> runAll() {
+        var results = new ArrayList<Result>();
+        System.out.printf("%-32s %14s %12s%n", "Benchmark", "ns/op", "±99.9%");
+        for (var entry : benchmarks.entrySet()) {
+            var name = entry.getKey();
+            var op = entry.getValue();
+            var raw = new double[iterations];
+            Runnable run = () -> {
+                for (var i = 0; i < warmup; i++) iteration(op);
+                for (var i = 0; i < iterations; i++) raw[i] = iteration(op);
+            };
+            if (name.startsWith("db.")) quietly(run);
+            else run.run();
+            var result = summarize(name, raw);
+            results.add(result);
+            System.out.printf("%-32s %14.3f %12.3f%n", name, result.score(), result.error());
+        }
+        if (sink == 42) System.out.print("");
+        return results;
+    }
+
+    // 一轮: 按批调用直到到达时长, 返回 ns/op; 批大小从 1 起倍增, 毫秒级的数据库操作也不会超时太多
+    private double iteration(Op op) {
+        long ops = 0;
+        var counter = 0;
+        var batch = 1;
+        var start = System.nanoTime();
+        long elapsed;
+        do {
+            for (var i = 0; i < batch; i++) {
+                sink += op.run(counter++);
+            }
+            ops += batch;
+            batch = Math.min(batch * 2, MAX_BATCH);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < timeNanos);
+        return (double) elapsed / ops;
+    }
+
+    private static Result summarize(String name, double[] raw) {
+        var mean = 0.0;
+        for (var x : raw) mean += x;
+        mean /= raw.length;
+        if (raw.length < 2) return new Result(name, mean, Double.NaN, raw);
+        var variance = 0.0;
+        for (var x : raw) variance += (x - mean) * (x - mean);
+        variance /= raw.length - 1;
+        return new Result(name, mean, studentT999(raw.length - 1) * Math.sqrt(variance / raw.length), raw);
+    }
+
+    // 双侧 99.9% 的 t 分布临界值
+    private static double studentT999(int df) {
+        double[] table = {0, 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+        if (df < table.length) return table[df];
+        if (df <= 15) return 4.07;
+        if (df <= 20) return 3.85;
+        if (df <= 30) return 3.65;
+        return 3.29;
+    }
+
+    /* ==================== JSON ==================== */
+
+    // JMH -rf json 的子集: 每个基准一项, 含 primaryMetric 的 score / scoreError / scoreUnit / rawData
+    static String toJson(List<Result> results, int warmup, int iterations, long timeMillis) {
+        var sb = new StringBuilder("[\n");
+        for (var i = 0; i < results.size(); i++) {
+            var r = results.get(i);
+            sb.append("    {\n")
+              .append("        \"benchmark\" : \"src.BenchmarkSuite.").append(r.name()).append("\",\n")
+              .append("        \"mode\" : \"avgt\",\n")
+              .append("        \"threads\" : 1,\n")
+              .append("        \"warmupIterations\" : ").append(warmup).append(",\n")
+              .append("        \"warmupTime\" : \"").append(timeMillis).append(" ms\",\n")
+              .append("        \"measurementIterations\" : ").append(iterations).append(",\n")
+              .append("        \"measurementTime\" : \"").append(timeMillis).append(" ms\",\n")
+              .append("        \"primaryMetric\" : {\n")
+              .append("            \"score\" : ").append(number(r.score())).append(",\n")
+              .append("            \"scoreError\" : ").append(number(r.error())).append(",\n")
+              .append("            \"scoreUnit\" : \"ns/op\",\n")
+              .append("            \"rawData\" : [\n                [\n");
+            for (var j = 0; j < r.raw().length; j++) {
+                sb.append("                    ").append(number(r.raw()[j])).append(j + 1 < r.raw().length ? ",\n" : "\n");
+            }
+            sb.append("                ]\n            ]\n        }\n    }").append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("]\n").toString();
+    }
+
+    private static String number(double x) {
+        return Double.isNaN(x) ? "\"NaN\"" : String.valueOf(x);
+    }
+
+    // 只取比较需要的字段: 基准名 -> {score, scoreError}
+    static LinkedHashMap<String, double[]> parseJson(String json) {
+        var result = new LinkedHashMap<String, double[]>();
+        var matcher = Pattern.compile("\"benchmark\"\\s*:\\s*\"[^\"]*?BenchmarkSuite\\.([^\"]+)\"" +
+                ".*?\"score\"\\s*:\\s*([-0-9.Ee]+).*?\"scoreError\"\\s*:\\s*\"?([-0-9.EeNa]+)", Pattern.DOTALL).matcher(json);
+        while (matcher.find()) {
+            var error = matcher.group(3).equals("NaN") ? 0 : Double.parseDouble(matcher.group(3));
+            result.put(matcher.group(1), new double[]{Double.parseDouble(matcher.group(2)), error});
+        }
+        return result;
+    }
+
+    // 变化超出两次结果的置信区间之和才算显著
+    private static void compare(LinkedHashMap<String, double[]> baseline, List<Result> results) {
+        System.out.println("==== 与基线对比 (ns/op, 正数为变慢) ====");
+        System.out.printf("%-32s %12s %12s %9s  %s%n", "Benchmark", "基线", "本次", "变化", "");
+        for (var r : results) {
+            var base = baseline.get(r.name());
+            if (base == null) continue;
+            var change = (r.score() - base[0]) / base[0] * 100;
+            var error = (Double.isNaN(r.error()) ? 0 : r.error()) + base[1];
+            var verdict = Math.abs(r.score() - base[0]) <= error ? "" : change > 0 ? "退化" : "改进";
+            System.out.printf("%-32s %12.3f %12.3f %8.1f%%  %s%n", r.name(), base[0], r.score(), change, verdict);
+        }
+    }
+}
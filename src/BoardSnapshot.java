@@ -0,0 +1,51 @@
+package src;
+
+// 某一时刻棋盘的不可变编码结果: 每次局面变化只生成一次, 广播和 GET_BOARD 共用同一份字节
+public final class BoardSnapshot {
+    private final long version;
+    private final String message;
+    private final OutboundQueue.Frame frame;
+
+    private BoardSnapshot(long version, String message) {
+        this.version = version;
+        this.message = message;
+        this.frame = OutboundQueue.Frame.of(message);
+    }
+
+    // BOARD:90个格子逗号分隔,当前回合方,版本号 (版本号供增量协议对齐, 旧客户端会忽略)
+    public static BoardSnapshot encode(long version, Position position) {
+        var sb = new StringBuilder(6 + 90 * 3 + 2);
+        sb.append("BOARD:");
+        for (var sq = 0; sq < Position.SQUARES; sq++) {
+            sb.append(Position.pieceName(position.pieceAt(sq))).append(',');
+        }
+        sb.append(Position.colorName(position.sideToMove())).append(',').append(version);
+        return new BoardSnapshot(version, sb.toString());
+    }
+
+    // encode 的逆过程, 供只能看到协议消息的参与者 (如 EnginePlayer) 还原局面
+    public static Position decode(String message) {
+        var fields = message.substring(message.indexOf(':') + 1).split(",");
+        var position = new Position();
+        position.clear();
+        for (var sq = 0; sq < Position.SQUARES; sq++) {
+            position.put(sq, Position.pieceCode(fields[sq]));
+        }
+        position.setSideToMove(Position.colorOf(fields[Position.SQUARES]));
+        return position;
+    }
+
+    // BOARD 消息末尾的版本号, 没有时返回 -1
+    public static long versionOf(String message) {
+        var comma = message.lastIndexOf(',');
+        try {
+            return Long.parseLong(message.substring(comma + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public long getVersion() { return version; }
+    public String getMessage() { return message; }
+    public OutboundQueue.Frame getFrame() { return frame; }
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.Charset;
 import java.util.*;
 
 public class ChessClient extends JFrame {
@@ -14,7 +15,14 @@ public class ChessClient extends JFrame {
     
     private Socket socket;
     private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream rawOut;
+    private InputStream in;
+    
+    // 线路协议: 默认协商为二进制, -Dchess.protocol=text 时保持文本协议便于调试
+    private final boolean binaryProtocol = !"text".equals(System.getProperty("chess.protocol"));
+    private boolean binaryOut = false;
+    private boolean binaryIn = false;
+    private final Object sendLock = new Object();
     
     private ChessBoardPanel boardPanel;
     private JTextArea chatArea;
@@ -25,8 +33,19 @@ public class ChessClient extends JFrame {
     private String[][] board = new String[BOARD_HEIGHT][BOARD_WIDTH];
     private String playerColor;
     private String currentPlayer = "红";
+    private int roomId = -1;
+    
+    // 增量协议: 本地棋盘对应的服务器版本号, 发现缺号时请求完整棋盘
+    private long boardSeq = -1;
+    private boolean resyncRequested = false;
     private Point selectedPiece = null;
     private Point possibleMove = null;
+    
+    // 合法走法: LEGAL 推送的回合方全部走法 (起点格子 -> 目标格子), 只对版本号为 legalSeq 的局面有效
+    // 只在 EDT 上读写; 选中棋子的目标格子放在 legalTargets 中用于高亮
+    private final Map<Integer, java.util.List<Integer>> legalMoves = new HashMap<>();
+    private long legalSeq = -1;
+    private final java.util.List<Point> legalTargets = new ArrayList<>();
 
     // === 新增语音管理器和按钮 ===
     private VoiceManager voiceManager;
@@ -41,6 +60,14 @@ public class ChessClient extends JFrame {
     
     // Game timer
     private String currentTime = "00:00";
+    // CLOCK: 开局时刻折算到本地 nanoTime, 由 clockTimer 在本地走表; 服务器只定期发送校正
+    private long clockStartNanos;
+    private final javax.swing.Timer clockTimer = new javax.swing.Timer(250, e -> renderClock());
+    // CLOCKS: 双方棋钟, 收到时的剩余时间加上收到的时刻, 走钟方在本地倒数; sideClocks 为 null 表示不计时
+    private long[] sideClocks;
+    private int[] sidePeriods;
+    private String clockRunning = "none";
+    private long sideClocksNanos;
     
     // Database related
     private ChessDatabase database;
@@ -49,6 +76,10 @@ public class ChessClient extends JFrame {
     private JMenuBar menuBar;
     private JLabel playerInfoLabel;
     
+    // 观战分析: 勾选后订阅服务器的 EVAL 推送, 只有观战时可用
+    private JCheckBoxMenuItem analysisItem;
+    private JLabel analysisLabel;
+    
     public ChessClient() {
         setTitle("Chinese Chess Online");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -201,7 +232,7 @@ public class ChessClient extends JFrame {
     }
     
     private JPanel createGameInfoPanel() {
-        var infoPanel = new JPanel(new GridLayout(3, 1, 5, 5));
+        var infoPanel = new JPanel(new GridLayout(4, 1, 5, 5));
         infoPanel.setBackground(new Color(222, 184, 135));
         infoPanel.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(new Color(139, 69, 19), 2),
@@ -211,8 +242,8 @@ public class ChessClient extends JFrame {
             new Font("宋体", Font.BOLD, 14),
             new Color(139, 69, 19)
         ));
-        infoPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 90));
-        infoPanel.setPreferredSize(new Dimension(0, 90));
+        infoPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 115));
+        infoPanel.setPreferredSize(new Dimension(0, 115));
         
         var playerLabel = new JLabel("Waiting for assignment...", JLabel.CENTER);
         playerLabel.setFont(new Font("宋体", Font.PLAIN, 14));
@@ -225,9 +256,13 @@ public class ChessClient extends JFrame {
         var timeLabel = new JLabel("Game time: 00:00", JLabel.CENTER);
         timeLabel.setFont(new Font("宋体", Font.PLAIN, 14));
         
+        analysisLabel = new JLabel("Analysis: off", JLabel.CENTER);
+        analysisLabel.setFont(new Font("宋体", Font.PLAIN, 12));
+        
         infoPanel.add(playerLabel);
         infoPanel.add(turnLabel);
         infoPanel.add(timeLabel);
+        infoPanel.add(analysisLabel);
         
         return infoPanel;
     }
@@ -291,9 +326,9 @@ public class ChessClient extends JFrame {
                 if (voiceButton.isEnabled()) {
                     voiceButton.setText("正在录音...");
                     voiceButton.setBackground(Color.RED);
-                    // 开始录音，数据通过 out.println 发送
+                    // 开始录音，数据通过 sendToServer 发送
                     voiceManager.startRecording(msg -> {
-                        if(out != null) out.println(msg);
+                        if(out != null) sendToServer(msg);
                     });
                 }
             }
@@ -362,6 +397,27 @@ public class ChessClient extends JFrame {
         leaderboardItem.addActionListener(e -> showLeaderboard());
         gameMenu.add(leaderboardItem);
         
+        var roomsItem = new JMenuItem("Rooms");
+        roomsItem.addActionListener(e -> {
+            if (out != null) sendToServer("LIST_ROOMS");
+        });
+        gameMenu.add(roomsItem);
+        
+        // 让服务器的电脑棋手坐到当前房间的空座位上
+        var engineItem = new JMenuItem("Play vs Computer");
+        engineItem.addActionListener(e -> {
+            if (out != null) sendToServer("PLAY_ENGINE");
+        });
+        gameMenu.add(engineItem);
+        
+        analysisItem = new JCheckBoxMenuItem("Engine Analysis");
+        analysisItem.setEnabled(false);
+        analysisItem.addActionListener(e -> {
+            if (out != null) sendToServer(analysisItem.isSelected() ? "ANALYZE" : "ANALYZE_OFF");
+            analysisLabel.setText(analysisItem.isSelected() ? "Analysis: waiting..." : "Analysis: off");
+        });
+        gameMenu.add(analysisItem);
+        
         gameMenu.addSeparator();
         
         var exitItem = new JMenuItem("Exit");
@@ -655,6 +711,15 @@ public class ChessClient extends JFrame {
                 g2d.setColor(new Color(0, 255, 0, 128));
                 g2d.fillOval(x - dotSize/2, y - dotSize/2, dotSize, dotSize);
             }
+            
+            var targetSize = Math.max(10, currentCellSize / 4);
+            g2d.setColor(new Color(30, 144, 255, 160));
+            for (var target : legalTargets) {
+                var displayCoords = convertToDisplayCoordinates(target.x, target.y);
+                var x = currentBoardMargin + displayCoords[1] * currentCellSize;
+                var y = currentBoardMargin + displayCoords[0] * currentCellSize;
+                g2d.fillOval(x - targetSize/2, y - targetSize/2, targetSize, targetSize);
+            }
         }
     }
     
@@ -696,14 +761,14 @@ public class ChessClient extends JFrame {
                 
                 if ((playerColor.equals("红") && isRed) || 
                     (playerColor.equals("黑") && !isRed)) {
-                    selectedPiece = new Point(row, col);
-                    boardPanel.repaint();
+                    selectPiece(row, col);
                 }
             }
         } else {
             if (selectedPiece.x == row && selectedPiece.y == col) {
                 selectedPiece = null;
                 possibleMove = null;
+                legalTargets.clear();
                 boardPanel.repaint();
                 return;
             }
@@ -714,19 +779,77 @@ public class ChessClient extends JFrame {
                 var selectedIsRed = "车马相仕帅砲兵".contains(board[selectedPiece.x][selectedPiece.y]);
                 
                 if (targetIsRed == selectedIsRed) {
-                    selectedPiece = new Point(row, col);
-                    boardPanel.repaint();
+                    selectPiece(row, col);
                     return;
                 }
             }
             
-            out.println("MOVE:" + selectedPiece.x + "," + selectedPiece.y + "," + row + "," + col);
+            // 已有当前局面的合法走法时在本地拒绝非法走法, 不必等服务器回 ERROR
+            var from = selectedPiece.x * BOARD_WIDTH + selectedPiece.y;
+            if (legalSeq == boardSeq && !legalMoves.getOrDefault(from, java.util.List.of()).contains(row * BOARD_WIDTH + col)) {
+                statusLabel.setText("无效的移动! | 当前回合: " + currentPlayer);
+            } else {
+                sendToServer("MOVE:" + selectedPiece.x + "," + selectedPiece.y + "," + row + "," + col);
+            }
             selectedPiece = null;
             possibleMove = null;
+            legalTargets.clear();
             boardPanel.repaint();
         }
     }
     
+    // 选中棋子并高亮可走位置: 已预取当前局面的合法走法时直接查表, 否则轮到自己时向服务器查询该棋子
+    private void selectPiece(int row, int col) {
+        selectedPiece = new Point(row, col);
+        legalTargets.clear();
+        if (legalSeq == boardSeq) {
+            for (var to : legalMoves.getOrDefault(row * BOARD_WIDTH + col, java.util.List.of())) {
+                legalTargets.add(new Point(to / BOARD_WIDTH, to % BOARD_WIDTH));
+            }
+        } else if (currentPlayer.equals(playerColor)) {
+            sendToServer("LEGAL_MOVES:" + row + "," + col);
+        }
+        boardPanel.repaint();
+    }
+    
+    // LEGAL:版本号,着法... (着法为 4 位数字 行列行列)
+    private void updateLegalMoves(String data) {
+        var comma = data.indexOf(',');
+        var version = Long.parseLong(data.substring(0, comma));
+        var moves = new HashMap<Integer, java.util.List<Integer>>();
+        for (var move : data.substring(comma + 1).split(" ")) {
+            if (move.length() != 4) continue;
+            var from = (move.charAt(0) - '0') * BOARD_WIDTH + (move.charAt(1) - '0');
+            var to = (move.charAt(2) - '0') * BOARD_WIDTH + (move.charAt(3) - '0');
+            moves.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
+        }
+        SwingUtilities.invokeLater(() -> {
+            legalMoves.clear();
+            legalMoves.putAll(moves);
+            legalSeq = version;
+            // 预取到达前已选中的棋子补上高亮
+            if (selectedPiece != null && version == boardSeq) {
+                selectPiece(selectedPiece.x, selectedPiece.y);
+            }
+        });
+    }
+    
+    // LEGAL_MOVES:版本号,行,列,目标... (目标为 2 位数字 行列)
+    private void showLegalTargets(String data) {
+        var parts = data.split(",", -1);
+        var version = Long.parseLong(parts[0]);
+        var row = Integer.parseInt(parts[1]);
+        var col = Integer.parseInt(parts[2]);
+        SwingUtilities.invokeLater(() -> {
+            if (version != boardSeq || selectedPiece == null || selectedPiece.x != row || selectedPiece.y != col) return;
+            legalTargets.clear();
+            for (var target : parts[3].split(" ")) {
+                if (target.length() == 2) legalTargets.add(new Point(target.charAt(0) - '0', target.charAt(1) - '0'));
+            }
+            boardPanel.repaint();
+        });
+    }
+    
     private void handleMouseMove(MouseEvent e) {
         var panel = (ChessBoardPanel) e.getSource();
         var displayRow = (e.getY() - panel.currentBoardMargin + panel.currentCellSize / 2) / panel.currentCellSize;
@@ -755,15 +878,32 @@ public class ChessClient extends JFrame {
         
         try {
             socket = new Socket(host, 8888);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            rawOut = socket.getOutputStream();
+            out = new PrintWriter(rawOut, true);
+            in = new BufferedInputStream(socket.getInputStream());
             
-            out.println("LOGIN:" + playerName);
+            synchronized (sendLock) {
+                if (binaryProtocol) {
+                    // 这一行之后本端改用二进制发送
+                    out.println("LOGIN:" + playerName + "|" + WireCodec.BINARY);
+                    binaryOut = true;
+                } else {
+                    out.println("LOGIN:" + playerName);
+                }
+            }
+            sendToServer("DELTA_ON");
+            sendToServer("CLOCK_ON");
+            sendToServer("LEGAL_ON");
             
             new Thread(() -> {
                 try {
                     String message;
-                    while ((message = in.readLine()) != null) {
+                    while ((message = binaryIn ? WireCodec.readFrame(in) : WireCodec.readLine(in, Charset.defaultCharset())) != null) {
+                        if (message.equals(WireCodec.PROTO_BINARY)) {
+                            // 服务器在这一行之后改用二进制发送
+                            binaryIn = true;
+                            continue;
+                        }
                         handleServerMessage(message);
                     }
                 } catch (IOException e) {
@@ -773,7 +913,7 @@ public class ChessClient extends JFrame {
                 }
             }).start();
             
-            out.println("GET_BOARD");
+            sendToServer("GET_BOARD");
             
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Unable to connect to the server!");
@@ -784,13 +924,33 @@ public class ChessClient extends JFrame {
         }
     }
     
+    private void sendToServer(String message) {
+        synchronized (sendLock) {
+            if (!binaryOut) {
+                out.println(message);
+                return;
+            }
+            try {
+                rawOut.write(WireCodec.encode(message));
+                rawOut.flush();
+            } catch (IOException e) {
+                appendChat("System", "Disconnected from server");
+            }
+        }
+    }
+    
     private void handleServerMessage(String message) {
-        if (message.startsWith("COLOR:")) {
+        if (message.startsWith("ROOM:")) {
+            roomId = Integer.parseInt(message.substring(5));
+        } else if (message.startsWith("ROOMS:")) {
+            var rooms = message.substring(6);
+            SwingUtilities.invokeLater(() -> showRoomList(rooms));
+        } else if (message.startsWith("COLOR:")) {
             playerColor = message.substring(6);
             shouldRotateBoard = playerColor.equals("黑");
             
             SwingUtilities.invokeLater(() -> {
-                setTitle("中国象棋在线 - 当前玩家: " + playerName + " 【" + playerColor + "方】");
+                setTitle("中国象棋在线 - 当前玩家: " + playerName + " 【" + playerColor + "方】 房间 " + roomId);
                 titleLabel.setText("中国象棋 - " + playerColor + "方");
                 
                 if (playerColor.equals("红")) {
@@ -812,6 +972,16 @@ public class ChessClient extends JFrame {
 
                 statusLabel.setText("您的身份: " + playerColor + "方 | 当前回合: " + currentPlayer);
                 
+                // 换房间后服务器端的订阅已随之取消, 仍是观战者时重新订阅
+                var spectator = playerColor.equals("观战");
+                analysisItem.setEnabled(spectator);
+                if (!spectator) {
+                    analysisItem.setSelected(false);
+                    analysisLabel.setText("Analysis: off");
+                } else if (analysisItem.isSelected()) {
+                    sendToServer("ANALYZE");
+                }
+                
                 String roleMsg = "您已成功加入游戏！\n\n当前身份：【" + playerColor + "方】";
                 if (playerColor.equals("观战")) {
                     roleMsg += "\n由于房间已满，您目前处于观战模式。";
@@ -830,11 +1000,13 @@ public class ChessClient extends JFrame {
         }
         else if (message.startsWith("BOARD:")) {
             updateBoard(message.substring(6));
+        } else if (message.startsWith("DELTA:")) {
+            applyDelta(message.substring(6));
         } else if (message.startsWith("CHAT:")) {
             var chatMsg = message.substring(5);
             appendChat("", chatMsg);
             
-            if (chatMsg.contains("获胜") || chatMsg.contains("吃掉了")) {
+            if (chatMsg.contains("获胜") || chatMsg.contains("吃掉了") || chatMsg.equals("系统: 和棋!")) {
                 SwingUtilities.invokeLater(() -> {
                     JOptionPane.showMessageDialog(this, chatMsg, "Game Over", JOptionPane.INFORMATION_MESSAGE);
                     resetGame();
@@ -842,9 +1014,40 @@ public class ChessClient extends JFrame {
             } else if (chatMsg.contains("新游戏开始")) {
                 resetGame();
             }
+        } else if (message.startsWith("CLOCK:")) {
+            var parts = message.substring(6).split(",");
+            var elapsedMillis = Long.parseLong(parts[0]);
+            var running = parts.length < 2 || parts[1].equals("running");
+            var received = System.nanoTime();
+            SwingUtilities.invokeLater(() -> {
+                clockStartNanos = received - elapsedMillis * 1_000_000;
+                renderClock();
+                if (running) {
+                    clockTimer.start();
+                } else {
+                    clockTimer.stop();
+                }
+            });
+        } else if (message.startsWith("CLOCKS:")) {
+            var parts = message.substring(7).split(",");
+            var received = System.nanoTime();
+            SwingUtilities.invokeLater(() -> {
+                sideClocks = new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+                sidePeriods = new int[]{Integer.parseInt(parts[2]), Integer.parseInt(parts[3])};
+                clockRunning = parts[4];
+                sideClocksNanos = received;
+                currentTime = "";
+                renderClock();
+            });
         } else if (message.startsWith("TIME:")) {
             currentTime = message.substring(5);
             SwingUtilities.invokeLater(() -> updateTimeDisplay());
+        } else if (message.startsWith("LEGAL:")) {
+            updateLegalMoves(message.substring(6));
+        } else if (message.startsWith("LEGAL_MOVES:")) {
+            showLegalTargets(message.substring(12));
+        } else if (message.startsWith("EVAL:")) {
+            showAnalysis(message.substring(5));
         } else if (message.startsWith("ERROR:")) {
             var error = message.substring(6);
             SwingUtilities.invokeLater(() -> {
@@ -853,20 +1056,102 @@ public class ChessClient extends JFrame {
         }
     }
     
+    // EVAL 格式: 版本号,深度,分数 (红方视角, 杀棋为 M+n / M-n, 残局库胜负为 TB+n / TB-n),主要变例
+    private void showAnalysis(String data) {
+        var parts = data.split(",", -1);
+        if (parts.length < 4) return;
+        var version = Long.parseLong(parts[0]);
+        SwingUtilities.invokeLater(() -> {
+            // 已经走过的局面的分析直接丢弃
+            if (version < boardSeq || !analysisItem.isSelected()) return;
+            var score = parts[2].startsWith("M") || parts[2].startsWith("TB") || parts[2].startsWith("-") ? parts[2] : "+" + parts[2];
+            var pv = parts[3].length() > 24 ? parts[3].substring(0, 24) + "..." : parts[3];
+            analysisLabel.setText("Analysis d" + parts[1] + ": " + score + "  " + pv);
+        });
+    }
+    
+    // ROOMS 格式: 房间号|红方|黑方|观战人数|状态;...
+    private void showRoomList(String data) {
+        var options = new ArrayList<String>();
+        var ids = new ArrayList<String>();
+        if (!data.isEmpty()) {
+            for (var entry : data.split(";")) {
+                var fields = entry.split("\\|");
+                if (fields.length < 5) continue;
+                ids.add(fields[0]);
+                options.add("房间 " + fields[0] + "  红: " + fields[1] + "  黑: " + fields[2] +
+                        "  观战: " + fields[3] + "  [" + fields[4] + "]");
+            }
+        }
+        ids.add("new");
+        options.add("创建新房间");
+        
+        var choice = (String) JOptionPane.showInputDialog(this, "当前房间: " + roomId, "房间列表",
+                JOptionPane.PLAIN_MESSAGE, null, options.toArray(), options.get(0));
+        if (choice != null) {
+            sendToServer("JOIN_ROOM:" + ids.get(options.indexOf(choice)));
+        }
+    }
+    
     private void updateBoard(String data) {
+        var parts = parseBoard(data, board);
+        var idx = BOARD_HEIGHT * BOARD_WIDTH;
+        
+        if (idx < parts.length) {
+            currentPlayer = parts[idx++];
+        }
+        if (idx < parts.length) {
+            boardSeq = Long.parseLong(parts[idx]);
+        }
+        resyncRequested = false;
+        
+        SwingUtilities.invokeLater(() -> {
+            boardPanel.repaint();
+            statusLabel.setText("You are " + playerColor + " | Current turn: " + currentPlayer);
+            updateGameInfo();
+        });
+    }
+    
+    // 把 BOARD 消息的 90 个格子填入 board, 返回切分后的全部字段 (之后依次为回合方和版本号); BenchmarkSuite 也调用它
+    static String[] parseBoard(String data, String[][] board) {
         var parts = data.split(",");
         var idx = 0;
-        
         for (var i = 0; i < BOARD_HEIGHT; i++) {
             for (var j = 0; j < BOARD_WIDTH; j++) {
                 board[i][j] = parts[idx++];
             }
         }
-        
-        if (idx < parts.length) {
-            currentPlayer = parts[idx];
+        return parts;
+    }
+    
+    // DELTA:版本号,起点,终点,被吃棋子,当前回合方 (格子编号 = 行*9+列)
+    private void applyDelta(String data) {
+        var parts = data.split(",", -1);
+        var seq = Long.parseLong(parts[0]);
+        if (seq <= boardSeq) return;
+        
+        var from = Integer.parseInt(parts[1]);
+        var to = Integer.parseInt(parts[2]);
+        var captured = parts[3].isEmpty() ? "  " : parts[3];
+        var fromRow = from / BOARD_WIDTH;
+        var fromCol = from % BOARD_WIDTH;
+        var toRow = to / BOARD_WIDTH;
+        var toCol = to % BOARD_WIDTH;
+        
+        // 缺号或本地棋盘与服务器不一致时丢弃增量, 等待完整棋盘
+        if (seq != boardSeq + 1 || !board[toRow][toCol].equals(captured) || board[fromRow][fromCol].equals("  ")) {
+            if (!resyncRequested) {
+                resyncRequested = true;
+                sendToServer("GET_BOARD");
+            }
+            return;
         }
         
+        board[toRow][toCol] = board[fromRow][fromCol];
+        board[fromRow][fromCol] = "  ";
+        currentPlayer = parts[4];
+        boardSeq = seq;
+        
         SwingUtilities.invokeLater(() -> {
             boardPanel.repaint();
             statusLabel.setText("You are " + playerColor + " | Current turn: " + currentPlayer);
@@ -900,7 +1185,7 @@ public class ChessClient extends JFrame {
     private void sendChatMessage() {
         var message = chatInput.getText().trim();
         if (!message.isEmpty()) {
-            out.println("CHAT:" + message);
+            sendToServer("CHAT:" + message);
             chatInput.setText("");
         }
     }
@@ -912,6 +1197,31 @@ public class ChessClient extends JFrame {
         });
     }
     
+    private void renderClock() {
+        var elapsedSeconds = Math.max(0, (System.nanoTime() - clockStartNanos) / 1_000_000_000);
+        var minutes = elapsedSeconds / 60;
+        var seconds = elapsedSeconds % 60;
+        var time = (minutes < 10 ? "0" : "") + minutes + (seconds < 10 ? ":0" : ":") + seconds;
+        if (sideClocks != null) {
+            time += "  红 " + formatSideClock(0) + "  黑 " + formatSideClock(1);
+        }
+        if (!time.equals(currentTime)) {
+            currentTime = time;
+            updateTimeDisplay();
+        }
+    }
+
+    // 基本时间用完后显示剩余读秒次数
+    private String formatSideClock(int side) {
+        var left = sideClocks[side];
+        if (clockRunning.equals(side == 0 ? "红" : "黑")) {
+            left = Math.max(0, left - (System.nanoTime() - sideClocksNanos) / 1_000_000);
+        }
+        var seconds = (left + 999) / 1000;
+        var text = seconds / 60 + (seconds % 60 < 10 ? ":0" : ":") + seconds % 60;
+        return left == 0 && sidePeriods[side] > 0 ? "读秒×" + sidePeriods[side] : text;
+    }
+
     private void updateTimeDisplay() {
         var timeString = "Game time: " + currentTime;
         for (var comp : getContentPane().getComponents()) {
@@ -938,6 +1248,7 @@ public class ChessClient extends JFrame {
         currentTime = "00:00";
         selectedPiece = null;
         possibleMove = null;
+        legalTargets.clear();
         updateTimeDisplay();
         boardPanel.repaint();
     }
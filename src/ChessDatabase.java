@@ -3,22 +3,91 @@ package src;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+// 写操作 (注册、战绩、对局记录) 排队使用连接池唯一的写连接, 查询从只读连接中借一个, 彼此不再互相阻塞
+// 每条 SQL 在每个连接上只 prepare 一次, 见 ConnectionPool
 public class ChessDatabase {
-    private static final String DB_URL = "jdbc:sqlite:chinesechess.db";
-    private Connection connection;
+    public static final String DB_URL = "jdbc:sqlite:chinesechess.db";
+    private static final int DEFAULT_READERS = 2;
+
+    // 排行榜的排序键; 查询和 idx_players_rank 必须使用同一个表达式, SQLite 才会走表达式索引
+    private static final String WIN_RATE = "CASE WHEN total_games > 0 THEN CAST(wins AS FLOAT) / total_games ELSE 0 END";
+
+    // 数据库结构的升级步骤, 版本号记在 PRAGMA user_version: 第 i 项把版本 i 升到 i + 1
+    // 启动时依次执行尚未做过的步骤, 每步一个事务; 已有大量对局的库第一次建索引可能要几十秒
+    private static final String[][] MIGRATIONS = {
+        {
+            // 对局记录: 红黑双方各一个 (玩家, 开始时间) 索引, getGameHistory 的两路查询各自沿索引倒序取前 limit 局
+            "CREATE INDEX IF NOT EXISTS idx_records_red_time ON game_records(red_player_id, start_time)",
+            "CREATE INDEX IF NOT EXISTS idx_records_black_time ON game_records(black_player_id, start_time)",
+            // 排行榜: 按排序键建索引并带上显示的列, 查询只读索引前 limit 项, 不排序也不回表
+            "CREATE INDEX IF NOT EXISTS idx_players_rank ON players((" + WIN_RATE + ") DESC, wins DESC, " +
+                    "id, name, total_games, losses)",
+        },
+        {
+            // 等级分历史: 实时更新时每局每方一条 (game_id 为该局), RatingRecompute 重算时每个评级周期每人一条
+            """
+            CREATE TABLE IF NOT EXISTS rating_history (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                player_id INTEGER NOT NULL,
+                game_id INTEGER,
+                rating REAL NOT NULL,
+                rating_deviation REAL NOT NULL,
+                volatility REAL NOT NULL,
+                rated_at TIMESTAMP,
+                FOREIGN KEY(player_id) REFERENCES players(id),
+                FOREIGN KEY(game_id) REFERENCES game_records(id)
+            )""",
+            "CREATE INDEX IF NOT EXISTS idx_rating_history_player ON rating_history(player_id, id)",
+            // 等级分排行榜: 与 idx_players_rank 一样带上显示的列, 按等级分倒序读索引, 跳过 RD 过大的玩家
+            "CREATE INDEX IF NOT EXISTS idx_players_rating ON players(rating DESC, id, rating_deviation, name, " +
+                    "total_games, wins, losses)",
+        },
+    };
+
+    private ConnectionPool pool;
+    private final Leaderboard leaderboard = new Leaderboard();
+    // 以下各项由 leaderboardLock 保护: 本进程的增量更新与整表重新加载互斥, 读排行榜不需要它
+    private final Object leaderboardLock = new Object();
+    private long localUpdates;  // 本进程写入的代数, 每次写入在提交前和更新内存排行榜后各加一
+    private int writesInFlight;  // 已开始但还没有更新内存排行榜的写入
+    private boolean leaderboardStale;  // 内存排行榜可能与库不一致, 下次检查时整表重新加载
+    private int ambiguousChecks;  // 上次整表重新加载以来, 检查时库变了而本进程也写过、无法判断来源的次数
+    // 每个只读连接上次检查时的 {data_version, localUpdates}; data_version 只能和同一连接上次的值比较
+    private final IdentityHashMap<ConnectionPool.Handle, long[]> checkedVersions = new IdentityHashMap<>();
+    private final AtomicLong nextExternalCheck = new AtomicLong();
+    private static final long EXTERNAL_CHECK_MILLIS = 2000;
+    private volatile long externalCheckMillis = EXTERNAL_CHECK_MILLIS;
+    private static final int MAX_AMBIGUOUS_CHECKS = 15;  // 约 30 秒
     
     public ChessDatabase() {
-        initializeDatabase();
+        this(DB_URL);
+    }
+    
+    // 指定数据库文件, 供基准测试等工具使用独立的库
+    public ChessDatabase(String url) {
+        this(url, DEFAULT_READERS);
     }
     
-    private void initializeDatabase() {
+    // readers 为只读连接数, 0 表示读写都走同一个连接
+    public ChessDatabase(String url, int readers) {
+        initializeDatabase(url, readers);
+    }
+    
+    private void initializeDatabase(String url, int readers) {
         try {
             Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(DB_URL);
+            pool = new ConnectionPool(url, readers);
             createTables();
-            System.out.println("Database initialized successfully!");
+            try (var db = pool.reader()) {
+                reloadLeaderboard(db, dataVersion(db));
+            }
+            System.out.println("Database initialized successfully! 只读连接数: " + pool.readerCount() +
+                    ", 排行榜玩家数: " + leaderboard.size());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -34,7 +103,10 @@ public class ChessDatabase {
                 wins INTEGER DEFAULT 0,
                 losses INTEGER DEFAULT 0,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                last_played_at TIMESTAMP
+                last_played_at TIMESTAMP,
+                rating REAL DEFAULT 1500,
+                rating_deviation REAL DEFAULT 350,
+                volatility REAL DEFAULT 0.06
             )""";
         
         String recordTable = """
@@ -49,25 +121,72 @@ public class ChessDatabase {
                 game_duration INTEGER,
                 start_time TIMESTAMP,
                 end_time TIMESTAMP,
+                moves TEXT,
+                time_control TEXT,
                 FOREIGN KEY(red_player_id) REFERENCES players(id),
                 FOREIGN KEY(black_player_id) REFERENCES players(id)
             )""";
         
-        try (Statement stmt = connection.createStatement()) {
+        try (var db = pool.writer(); Statement stmt = db.connection().createStatement()) {
             stmt.execute(playerTable);
             stmt.execute(recordTable);
+            addColumnIfMissing(stmt, "game_records", "moves", "TEXT");
+            addColumnIfMissing(stmt, "game_records", "time_control", "TEXT");
+            addColumnIfMissing(stmt, "players", "rating", "REAL DEFAULT 1500");
+            addColumnIfMissing(stmt, "players", "rating_deviation", "REAL DEFAULT 350");
+            addColumnIfMissing(stmt, "players", "volatility", "REAL DEFAULT 0.06");
+            migrateSchema(db.connection(), stmt);
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    private void migrateSchema(Connection connection, Statement stmt) throws SQLException {
+        var version = 0;
+        try (var rs = stmt.executeQuery("PRAGMA user_version")) {
+            if (rs.next()) version = rs.getInt(1);
+        }
+        if (version >= MIGRATIONS.length) return;
+        var autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (; version < MIGRATIONS.length; version++) {
+                System.out.println("升级数据库结构: 版本 " + version + " -> " + (version + 1));
+                var start = System.nanoTime();
+                for (var sql : MIGRATIONS[version]) {
+                    stmt.execute(sql);
+                }
+                stmt.execute("PRAGMA user_version = " + (version + 1));
+                connection.commit();
+                System.out.println("升级完成，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // 旧版本创建的表缺少后来新增的列, 启动时原地补上
+    private void addColumnIfMissing(Statement stmt, String table, String column, String type) throws SQLException {
+        try (var rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) return;
+            }
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        System.out.println("已为 " + table + " 表添加列 " + column);
+    }
     
     // Player operations
     public boolean registerPlayer(String name, String password) {
         var sql = "INSERT INTO players(name, password) VALUES(?, ?)";
-        try (var pstmt = connection.prepareStatement(sql)) {
+        try (var db = pool.writer()) {
+            var pstmt = db.prepare(sql);
             pstmt.setString(1, name);
             pstmt.setString(2, password);
-            pstmt.executeUpdate();
+            writeThenUpdate(pstmt::executeUpdate, () -> leaderboard.addPlayer(lastInsertId(db), name));
             return true;
         } catch (SQLException e) {
             System.out.println("Player already exists or error: " + e.getMessage());
@@ -77,11 +196,12 @@ public class ChessDatabase {
     
     public PlayerInfo loginPlayer(String name, String password) {
         var sql = "SELECT * FROM players WHERE name = ? AND password = ?";
-        try (var pstmt = connection.prepareStatement(sql)) {
+        try (var db = pool.reader()) {
+            var pstmt = db.prepare(sql);
             pstmt.setString(1, name);
             pstmt.setString(2, password);
-            var rs = pstmt.executeQuery();
-            if (rs.next()) {
+            try (var rs = pstmt.executeQuery()) {
+                if (!rs.next()) return null;
                 var player = new PlayerInfo();
                 player.setPlayerId(rs.getInt("id"));
                 player.setPlayerName(rs.getString("name"));
@@ -89,6 +209,8 @@ public class ChessDatabase {
                 player.setTotalGames(rs.getInt("total_games"));
                 player.setWins(rs.getInt("wins"));
                 player.setLosses(rs.getInt("losses"));
+                player.setRating(rs.getDouble("rating"));
+                player.setRatingDeviation(rs.getDouble("rating_deviation"));
                 return player;
             }
         } catch (SQLException e) {
@@ -99,16 +221,19 @@ public class ChessDatabase {
     
     public PlayerInfo getPlayerByName(String name) {
         var sql = "SELECT * FROM players WHERE name = ?";
-        try (var pstmt = connection.prepareStatement(sql)) {
+        try (var db = pool.reader()) {
+            var pstmt = db.prepare(sql);
             pstmt.setString(1, name);
-            var rs = pstmt.executeQuery();
-            if (rs.next()) {
+            try (var rs = pstmt.executeQuery()) {
+                if (!rs.next()) return null;
                 var player = new PlayerInfo();
                 player.setPlayerId(rs.getInt("id"));
                 player.setPlayerName(rs.getString("name"));
                 player.setTotalGames(rs.getInt("total_games"));
                 player.setWins(rs.getInt("wins"));
                 player.setLosses(rs.getInt("losses"));
+                player.setRating(rs.getDouble("rating"));
+                player.setRatingDeviation(rs.getDouble("rating_deviation"));
                 return player;
             }
         } catch (SQLException e) {
@@ -117,13 +242,32 @@ public class ChessDatabase {
         return null;
     }
     
+    private static final String WIN_SQL = "UPDATE players SET total_games = total_games + 1, wins = wins + 1, " +
+            "last_played_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String LOSS_SQL = "UPDATE players SET total_games = total_games + 1, losses = losses + 1, " +
+            "last_played_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String DRAW_SQL = "UPDATE players SET total_games = total_games + 1, " +
+            "last_played_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final java.time.format.DateTimeFormatter TIME_FORMAT =
+            java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String INSERT_GAME_SQL = "INSERT INTO game_records(red_player_id, red_player_name, " +
+            "black_player_id, black_player_name, winner_id, winner_name, " +
+            "game_duration, start_time, end_time, moves, time_control) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     public void updatePlayerStats(int playerId, boolean isWinner) {
-        var sql = "UPDATE players SET total_games = total_games + 1, " +
-                (isWinner ? "wins = wins + 1" : "losses = losses + 1") +
-                ", last_played_at = CURRENT_TIMESTAMP WHERE id = ?";
-        try (var pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, playerId);
-            pstmt.executeUpdate();
+        try (var db = pool.writer()) {
+            writeThenUpdate(() -> executeForPlayer(db.prepare(isWinner ? WIN_SQL : LOSS_SQL), playerId),
+                    () -> recordResult(db, playerId, isWinner, !isWinner));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    // 和棋只计入总局数
+    public void updatePlayerDraw(int playerId) {
+        try (var db = pool.writer()) {
+            writeThenUpdate(() -> executeForPlayer(db.prepare(DRAW_SQL), playerId),
+                    () -> recordResult(db, playerId, false, false));
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -131,76 +275,221 @@ public class ChessDatabase {
     
     // Game record operations
     public void saveGameRecord(GameRecord record) {
-        var sql = "INSERT INTO game_records(red_player_id, red_player_name, " +
-                "black_player_id, black_player_name, winner_id, winner_name, " +
-                "game_duration, start_time, end_time) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (var pstmt = connection.prepareStatement(sql)) {
-            var formatter = 
-                java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            
-            pstmt.setInt(1, record.getRedPlayerId());
-            pstmt.setString(2, record.getRedPlayerName());
-            pstmt.setInt(3, record.getBlackPlayerId());
-            pstmt.setString(4, record.getBlackPlayerName());
-            pstmt.setInt(5, record.getWinnerId());
-            pstmt.setString(6, record.getWinnerName());
-            pstmt.setLong(7, record.getGameDurationSeconds());
-            pstmt.setString(8, record.getStartTime().format(formatter));
-            pstmt.setString(9, record.getEndTime().format(formatter));
+        try (var db = pool.writer()) {
+            var pstmt = db.prepare(INSERT_GAME_SQL);
+            bindGameRecord(pstmt, record);
             pstmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    private static void bindGameRecord(PreparedStatement pstmt, GameRecord record) throws SQLException {
+        var formatter = 
+            java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        
+        pstmt.setInt(1, record.getRedPlayerId());
+        pstmt.setString(2, record.getRedPlayerName());
+        pstmt.setInt(3, record.getBlackPlayerId());
+        pstmt.setString(4, record.getBlackPlayerName());
+        pstmt.setInt(5, record.getWinnerId());
+        pstmt.setString(6, record.getWinnerName());
+        pstmt.setLong(7, record.getGameDurationSeconds());
+        pstmt.setString(8, record.getStartTime().format(formatter));
+        pstmt.setString(9, record.getEndTime().format(formatter));
+        pstmt.setString(10, record.getMoves());
+        pstmt.setString(11, record.getTimeControl());
+    }
+
+    // 一批终局结果在同一个事务中写入: 每局一条对局记录、双方战绩 (winner_id 为 -1 时双方记和棋) 和双方等级分,
+    // 整批一起提交, 只有一次 fsync; 出错时整批回滚并抛出异常, 由调用方 (PersistenceQueue) 决定如何重试
+    // 提交之后更新内存排行榜失败不再抛出, 否则调用方会把已提交的整批再写一遍
+    public void saveFinishedGames(List<GameRecord> games) throws SQLException {
+        try (var db = pool.writer()) {
+            writeThenUpdate(() -> inTransaction(db, () -> writeFinishedGames(db, games)), () -> {
+                // 内存中没有的玩家不逐局累加, 最后直接读入提交后的战绩
+                var missing = new HashSet<Integer>();
+                for (var record : games) {
+                    if (record.getWinnerId() == -1) {
+                        if (!leaderboard.recordResult(record.getRedPlayerId(), false, false)) {
+                            missing.add(record.getRedPlayerId());
+                        }
+                        if (!leaderboard.recordResult(record.getBlackPlayerId(), false, false)) {
+                            missing.add(record.getBlackPlayerId());
+                        }
+                    } else {
+                        var loser = record.getWinnerId() == record.getRedPlayerId()
+                                ? record.getBlackPlayerId() : record.getRedPlayerId();
+                        if (!leaderboard.recordResult(record.getWinnerId(), true, false)) {
+                            missing.add(record.getWinnerId());
+                        }
+                        if (!leaderboard.recordResult(loser, false, true)) missing.add(loser);
+                    }
+                }
+                for (var playerId : missing) {
+                    loadPlayer(db, playerId);
+                }
+            });
+        }
+    }
+
+    // 调用方持有写连接. 提交前先把写入登记为进行中, 与之重叠的整表重新加载一律丢弃:
+    // 否则重新加载可能读到已提交的结果, 随后 update 又在内存中累加一次
+    // write 失败时照常抛出; update 在提交之后执行, 失败只记录日志并标记排行榜待重新加载
+    private void writeThenUpdate(Transaction write, Transaction update) throws SQLException {
+        synchronized (leaderboardLock) {
+            writesInFlight++;
+            localUpdates++;
+        }
+        var committed = false;
+        try {
+            write.run();
+            committed = true;
+        } finally {
+            synchronized (leaderboardLock) {
+                try {
+                    if (committed) update.run();
+                } catch (SQLException | RuntimeException e) {
+                    System.err.println("更新内存排行榜失败, 下次检查时整表重新加载: " + e.getMessage());
+                    e.printStackTrace();
+                    leaderboardStale = true;
+                } finally {
+                    writesInFlight--;
+                    localUpdates++;
+                }
+            }
+        }
+    }
+
+    private static void writeFinishedGames(ConnectionPool.Handle db, List<GameRecord> games) throws SQLException {
+        var insert = db.prepare(INSERT_GAME_SQL);
+        var win = db.prepare(WIN_SQL);
+        var loss = db.prepare(LOSS_SQL);
+        var draw = db.prepare(DRAW_SQL);
+        for (var record : games) {
+            bindGameRecord(insert, record);
+            insert.executeUpdate();
+            var gameId = lastInsertId(db);
+            if (record.getWinnerId() == -1) {
+                executeForPlayer(draw, record.getRedPlayerId());
+                executeForPlayer(draw, record.getBlackPlayerId());
+            } else {
+                var loser = record.getWinnerId() == record.getRedPlayerId()
+                        ? record.getBlackPlayerId() : record.getRedPlayerId();
+                executeForPlayer(win, record.getWinnerId());
+                executeForPlayer(loss, loser);
+            }
+            rateGame(db, record, gameId);
+        }
+    }
+
+    // 实时等级分: 每局当作一个评级周期, 双方都用赛前的等级分计算; 自己对自己的对局不计
+    private static void rateGame(ConnectionPool.Handle db, GameRecord record, int gameId) throws SQLException {
+        var red = record.getRedPlayerId();
+        var black = record.getBlackPlayerId();
+        if (red == black) return;
+        var redScore = record.getWinnerId() == -1 ? 0.5 : record.getWinnerId() == red ? 1.0 : 0.0;
+        var redBefore = readRating(db, red);
+        var blackBefore = readRating(db, black);
+        var ratedAt = record.getEndTime().format(TIME_FORMAT);
+        writeRating(db, new RatingChange(red, gameId, Glicko2.rate(redBefore, blackBefore, redScore), ratedAt));
+        writeRating(db, new RatingChange(black, gameId, Glicko2.rate(blackBefore, redBefore, 1 - redScore), ratedAt));
+    }
+
+    private static void executeForPlayer(PreparedStatement pstmt, int playerId) throws SQLException {
+        pstmt.setInt(1, playerId);
+        pstmt.executeUpdate();
+    }
+
+    private static int lastInsertId(ConnectionPool.Handle db) throws SQLException {
+        try (var rs = db.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    // 在已借出的写连接上执行一个事务, 出错时回滚并抛出异常
+    private static void inTransaction(ConnectionPool.Handle db, Transaction work) throws SQLException {
+        var connection = db.connection();
+        var autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            work.run();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Transaction {
+        void run() throws SQLException;
+    }
     
+    // 执红和执黑分成两路, 每路沿 (玩家, 开始时间) 索引倒序只取 limit 局, 合并后再取前 limit 局;
+    // 写成 red_player_id = ? OR black_player_id = ? 时要先取出该玩家的全部对局再排序, 对局多的玩家会很慢
+    // 第二路排除自己对自己的对局, 以免重复
+    private static final String HISTORY_SQL =
+            "SELECT * FROM (SELECT * FROM game_records WHERE red_player_id = ? ORDER BY start_time DESC LIMIT ?) " +
+            "UNION ALL " +
+            "SELECT * FROM (SELECT * FROM game_records WHERE black_player_id = ? AND red_player_id <> ? " +
+            "ORDER BY start_time DESC LIMIT ?) " +
+            "ORDER BY start_time DESC LIMIT ?";
+
     public List<GameRecord> getGameHistory(int playerId, int limit) {
         var records = new ArrayList<GameRecord>();
-        var sql = "SELECT * FROM game_records WHERE red_player_id = ? OR black_player_id = ? " +
-                "ORDER BY start_time DESC LIMIT ?";
-        try (var pstmt = connection.prepareStatement(sql)) {
+        try (var db = pool.reader()) {
+            var pstmt = db.prepare(HISTORY_SQL);
             pstmt.setInt(1, playerId);
-            pstmt.setInt(2, playerId);
-            pstmt.setInt(3, limit);
-            var rs = pstmt.executeQuery();
-            System.out.println("查询玩家 " + playerId + " 的对局记录");
+            pstmt.setInt(2, limit);
+            pstmt.setInt(3, playerId);
+            pstmt.setInt(4, playerId);
+            pstmt.setInt(5, limit);
+            pstmt.setInt(6, limit);
+            try (var rs = pstmt.executeQuery()) {
+                System.out.println("查询玩家 " + playerId + " 的对局记录");
             
-            while (rs.next()) {
-                var record = new GameRecord();
-                record.setRecordId(rs.getInt("id"));
-                record.setRedPlayerId(rs.getInt("red_player_id"));
-                record.setRedPlayerName(rs.getString("red_player_name"));
-                record.setBlackPlayerId(rs.getInt("black_player_id"));
-                record.setBlackPlayerName(rs.getString("black_player_name"));
-                record.setWinnerId(rs.getInt("winner_id"));
-                record.setWinnerName(rs.getString("winner_name"));
-                record.setGameDurationSeconds(rs.getLong("game_duration"));
+                while (rs.next()) {
+                    var record = new GameRecord();
+                    record.setRecordId(rs.getInt("id"));
+                    record.setRedPlayerId(rs.getInt("red_player_id"));
+                    record.setRedPlayerName(rs.getString("red_player_name"));
+                    record.setBlackPlayerId(rs.getInt("black_player_id"));
+                    record.setBlackPlayerName(rs.getString("black_player_name"));
+                    record.setWinnerId(rs.getInt("winner_id"));
+                    record.setWinnerName(rs.getString("winner_name"));
+                    record.setGameDurationSeconds(rs.getLong("game_duration"));
+                    record.setTimeControl(rs.getString("time_control"));
                 
-                // Parse timestamps with error handling
-                var startTimeStr = rs.getString("start_time");
-                var endTimeStr = rs.getString("end_time");
+                    // Parse timestamps with error handling
+                    var startTimeStr = rs.getString("start_time");
+                    var endTimeStr = rs.getString("end_time");
                 
-                try {
-                    if (startTimeStr != null && !startTimeStr.isEmpty()) {
-                        record.setStartTime(LocalDateTime.parse(startTimeStr, 
-                            java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                    try {
+                        if (startTimeStr != null && !startTimeStr.isEmpty()) {
+                            record.setStartTime(LocalDateTime.parse(startTimeStr, 
+                                java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                        }
+                    } catch (Exception e) {
+                        System.err.println("解析开始时间失败: " + startTimeStr);
                     }
-                } catch (Exception e) {
-                    System.err.println("解析开始时间失败: " + startTimeStr);
-                }
                 
-                try {
-                    if (endTimeStr != null && !endTimeStr.isEmpty()) {
-                        record.setEndTime(LocalDateTime.parse(endTimeStr, 
-                            java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                    try {
+                        if (endTimeStr != null && !endTimeStr.isEmpty()) {
+                            record.setEndTime(LocalDateTime.parse(endTimeStr, 
+                                java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                        }
+                    } catch (Exception e) {
+                        System.err.println("解析结束时间失败: " + endTimeStr);
                     }
-                } catch (Exception e) {
-                    System.err.println("解析结束时间失败: " + endTimeStr);
-                }
                 
-                records.add(record);
-                System.out.println("对局: " + record.getRedPlayerName() + " vs " + record.getBlackPlayerName());
+                    records.add(record);
+                    System.out.println("对局: " + record.getRedPlayerName() + " vs " + record.getBlackPlayerName());
+                }
+                System.out.println("对局记录加载完成，共 " + records.size() + " 条记录");
             }
-            System.out.println("对局记录加载完成，共 " + records.size() + " 条记录");
         } catch (SQLException e) {
             System.err.println("查询对局记录失败: " + e.getMessage());
             e.printStackTrace();
@@ -208,15 +497,152 @@ public class ChessDatabase {
         return records;
     }
     
+    // 逐条读取记录了着法的对局 (只含双方、胜者和着法), 供开局库生成等离线工具使用
+    public void forEachGameWithMoves(java.util.function.Consumer<GameRecord> action) {
+        var sql = "SELECT id, red_player_id, black_player_id, winner_id, moves FROM game_records " +
+                "WHERE moves IS NOT NULL AND moves <> ''";
+        try (var db = pool.reader(); var rs = db.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                var record = new GameRecord();
+                record.setRecordId(rs.getInt("id"));
+                record.setRedPlayerId(rs.getInt("red_player_id"));
+                record.setBlackPlayerId(rs.getInt("black_player_id"));
+                record.setWinnerId(rs.getInt("winner_id"));
+                record.setMoves(rs.getString("moves"));
+                action.accept(record);
+            }
+        } catch (SQLException e) {
+            System.err.println("读取对局着法失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /* ==================== leaderboard ==================== */
+
+    // 与 Leaderboard 的顺序一致: 胜率、胜场降序, 同分按编号; limit 为 -1 时返回全部玩家
+    private static final String RANKING_SQL = "SELECT id, name, total_games, wins, losses FROM players ORDER BY " +
+            WIN_RATE + " DESC, wins DESC, id LIMIT ?";
+
+    // 排行榜由内存中的 Leaderboard 提供, 启动时整表读入一次, 之后随本进程的写入增量更新, 查询不访问数据库
     public List<PlayerInfo> getLeaderboard(int limit) {
-        var leaderboard = new ArrayList<PlayerInfo>();
-        var sql = "SELECT * FROM players ORDER BY " +
-                "CASE WHEN total_games > 0 THEN (CAST(wins AS FLOAT) / total_games) ELSE 0 END DESC, " +
-                "wins DESC LIMIT ?";
-        try (var pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, limit);
-            var rs = pstmt.executeQuery();
-            System.out.println("查询排行榜数据，共找到 " + limit + " 个玩家");
+        checkExternalWrites();
+        var top = leaderboard.top(limit);
+        System.out.println("排行榜数据加载完成，共 " + top.size() + " 个玩家");
+        return top;
+    }
+
+    // 玩家在排行榜上的名次, 从 1 开始; 找不到该玩家时为 -1
+    public int getPlayerRank(int playerId) {
+        checkExternalWrites();
+        return leaderboard.rankOf(playerId);
+    }
+
+    // 直接用 SQL 排序查询排行榜, 供 LeaderboardVerifier 与内存排行榜对照
+    List<PlayerInfo> queryLeaderboard(int limit) {
+        try (var db = pool.reader()) {
+            return readRanking(db, limit);
+        } catch (SQLException e) {
+            System.err.println("查询排行榜失败: " + e.getMessage());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // 别的进程 (例如 RatingRecompute 或手工修改) 的写入不经过本进程的内存排行榜, 查询排行榜时顺带检查:
+    // 至多每 EXTERNAL_CHECK_MILLIS 在一个只读连接上看一次 PRAGMA data_version, 与该连接上次的值相比变了
+    // 而本进程期间没有写入, 说明是别的进程提交的, 整表重新加载; 本进程也有写入时无法区分,
+    // 累计 MAX_AMBIGUOUS_CHECKS 次无法区分后照样整表重新加载. 因此别的进程的修改在有人查询排行榜时,
+    // 空闲的服务器上约 EXTERNAL_CHECK_MILLIS 内、繁忙的服务器上约 MAX_AMBIGUOUS_CHECKS 次检查内反映出来;
+    // 重新加载与本进程的写入重叠时丢弃结果, 之后每次检查都重试, 直到有一次读取落在两次写入之间
+    // 别的进程注册的新玩家第一次出现在本进程的写入中时由 loadPlayer 立即补上
+    // 始终不占用写连接, 查询不会排在批量写入后面; 没有只读连接 (内存库) 时不会有别的进程
+    private void checkExternalWrites() {
+        if (pool.readerCount() == 0) return;
+        var due = nextExternalCheck.get();
+        var now = System.currentTimeMillis();
+        if (now < due || !nextExternalCheck.compareAndSet(due, now + externalCheckMillis)) return;
+        try (var db = pool.reader()) {
+            long updates;
+            synchronized (leaderboardLock) {
+                updates = localUpdates;
+            }
+            var version = dataVersion(db);
+            synchronized (leaderboardLock) {
+                var last = checkedVersions.put(db, new long[]{version, updates});
+                if (last != null && last[0] != version) {
+                    if (last[1] == updates || ++ambiguousChecks >= MAX_AMBIGUOUS_CHECKS) leaderboardStale = true;
+                }
+                if (!leaderboardStale) return;
+            }
+            reloadLeaderboard(db, version);
+        } catch (SQLException e) {
+            System.err.println("检查排行榜更新失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // 整表读入后替换内存排行榜; 读取开始时有写入在进行, 或读取期间本进程开始过写入时放弃这次结果,
+    // 排行榜保持待重新加载, 下次检查再试
+    private void reloadLeaderboard(ConnectionPool.Handle db, long version) throws SQLException {
+        long before;
+        synchronized (leaderboardLock) {
+            if (writesInFlight > 0) {
+                leaderboardStale = true;
+                return;
+            }
+            before = localUpdates;
+        }
+        var ranking = readRanking(db, -1);
+        synchronized (leaderboardLock) {
+            if (localUpdates == before) {
+                leaderboard.load(ranking);
+                checkedVersions.put(db, new long[]{version, before});
+                leaderboardStale = false;
+                ambiguousChecks = 0;
+            } else {
+                leaderboardStale = true;
+            }
+        }
+    }
+
+    // LeaderboardVerifier 把间隔调成 0, 让每次查询都检查, 以便在并发写入下反复触发重新加载
+    void setExternalCheckMillis(long millis) {
+        externalCheckMillis = millis;
+        nextExternalCheck.set(0);
+    }
+
+    private static long dataVersion(ConnectionPool.Handle db) throws SQLException {
+        try (var rs = db.prepare("PRAGMA data_version").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // 调用方持有写连接和 leaderboardLock; 内存中没有这名玩家 (别的进程注册的) 时读入它提交后的战绩
+    private void recordResult(ConnectionPool.Handle db, int playerId, boolean won, boolean lost)
+            throws SQLException {
+        if (!leaderboard.recordResult(playerId, won, lost)) loadPlayer(db, playerId);
+    }
+
+    private void loadPlayer(ConnectionPool.Handle db, int playerId) throws SQLException {
+        var pstmt = db.prepare("SELECT id, name, total_games, wins, losses FROM players WHERE id = ?");
+        pstmt.setInt(1, playerId);
+        try (var rs = pstmt.executeQuery()) {
+            if (!rs.next()) return;
+            var player = new PlayerInfo();
+            player.setPlayerId(rs.getInt("id"));
+            player.setPlayerName(rs.getString("name"));
+            player.setTotalGames(rs.getInt("total_games"));
+            player.setWins(rs.getInt("wins"));
+            player.setLosses(rs.getInt("losses"));
+            leaderboard.putPlayer(player);
+        }
+    }
+
+    private static List<PlayerInfo> readRanking(ConnectionPool.Handle db, int limit) throws SQLException {
+        var players = new ArrayList<PlayerInfo>();
+        var pstmt = db.prepare(RANKING_SQL);
+        pstmt.setInt(1, limit);
+        try (var rs = pstmt.executeQuery()) {
             while (rs.next()) {
                 var player = new PlayerInfo();
                 player.setPlayerId(rs.getInt("id"));
@@ -224,25 +650,183 @@ public class ChessDatabase {
                 player.setTotalGames(rs.getInt("total_games"));
                 player.setWins(rs.getInt("wins"));
                 player.setLosses(rs.getInt("losses"));
-                leaderboard.add(player);
-                System.out.println("玩家: " + player.getPlayerName() + " 胜场: " + player.getWins());
+                players.add(player);
+            }
+        }
+        return players;
+    }
+
+    /* ==================== rating ==================== */
+
+    // 一名玩家在某个时刻的等级分; gameId 为 0 表示不是某一局带来的变化 (RatingRecompute 按周期重算)
+    record RatingChange(int playerId, int gameId, Glicko2.Rating rating, String ratedAt) {}
+
+    // RatingRecompute 逐局读取结果用, 避免为几百万局各建一个对象
+    @FunctionalInterface
+    interface GameResultVisitor {
+        // winnerId 为 -1 表示和棋; endedAt 为结束时间的 Unix 秒数 (按 UTC 解释库中的时间字符串)
+        void visit(int redId, int blackId, int winnerId, long endedAt);
+    }
+
+    private static final String RATING_LEADERBOARD_SQL = "SELECT id, name, total_games, wins, losses, rating, " +
+            "rating_deviation FROM players WHERE rating_deviation <= ? ORDER BY rating DESC, id LIMIT ?";
+    private static final String UPDATE_RATING_SQL =
+            "UPDATE players SET rating = ?, rating_deviation = ?, volatility = ? WHERE id = ?";
+    private static final String INSERT_RATING_HISTORY_SQL = "INSERT INTO rating_history(player_id, game_id, " +
+            "rating, rating_deviation, volatility, rated_at) VALUES(?, ?, ?, ?, ?, ?)";
+
+    // 按等级分排名, 只列出 RD 不超过 Glicko2.PROVISIONAL_DEVIATION 的玩家; 沿 idx_players_rating 读前 limit 项
+    public List<PlayerInfo> getRatingLeaderboard(int limit) {
+        var players = new ArrayList<PlayerInfo>();
+        try (var db = pool.reader()) {
+            var pstmt = db.prepare(RATING_LEADERBOARD_SQL);
+            pstmt.setDouble(1, Glicko2.PROVISIONAL_DEVIATION);
+            pstmt.setInt(2, limit);
+            try (var rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    var player = new PlayerInfo();
+                    player.setPlayerId(rs.getInt("id"));
+                    player.setPlayerName(rs.getString("name"));
+                    player.setTotalGames(rs.getInt("total_games"));
+                    player.setWins(rs.getInt("wins"));
+                    player.setLosses(rs.getInt("losses"));
+                    player.setRating(rs.getDouble("rating"));
+                    player.setRatingDeviation(rs.getDouble("rating_deviation"));
+                    players.add(player);
+                }
             }
-            System.out.println("排行榜数据加载完成，共 " + leaderboard.size() + " 个玩家");
         } catch (SQLException e) {
-            System.err.println("查询排行榜失败: " + e.getMessage());
+            System.err.println("查询等级分排行榜失败: " + e.getMessage());
             e.printStackTrace();
         }
-        return leaderboard;
+        return players;
     }
-    
-    
-    public void closeConnection() {
-        try {
-            if (connection != null) {
-                connection.close();
+
+    // 玩家的等级分变化, 最新的在前
+    List<RatingChange> getRatingHistory(int playerId, int limit) {
+        var sql = "SELECT game_id, rating, rating_deviation, volatility, rated_at FROM rating_history " +
+                "WHERE player_id = ? ORDER BY id DESC LIMIT ?";
+        var history = new ArrayList<RatingChange>();
+        try (var db = pool.reader()) {
+            var pstmt = db.prepare(sql);
+            pstmt.setInt(1, playerId);
+            pstmt.setInt(2, limit);
+            try (var rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    var rating = new Glicko2.Rating(rs.getDouble("rating"), rs.getDouble("rating_deviation"),
+                            rs.getDouble("volatility"));
+                    history.add(new RatingChange(playerId, rs.getInt("game_id"), rating, rs.getString("rated_at")));
+                }
             }
         } catch (SQLException e) {
+            System.err.println("查询等级分历史失败: " + e.getMessage());
             e.printStackTrace();
         }
+        return history;
+    }
+
+    private static Glicko2.Rating readRating(ConnectionPool.Handle db, int playerId) throws SQLException {
+        var pstmt = db.prepare("SELECT rating, rating_deviation, volatility FROM players WHERE id = ?");
+        pstmt.setInt(1, playerId);
+        try (var rs = pstmt.executeQuery()) {
+            if (!rs.next()) return Glicko2.INITIAL;
+            return new Glicko2.Rating(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3));
+        }
+    }
+
+    // 更新玩家当前的等级分并记一条历史
+    private static void writeRating(ConnectionPool.Handle db, RatingChange change) throws SQLException {
+        updateRating(db.prepare(UPDATE_RATING_SQL), change.playerId(), change.rating());
+        insertRatingHistory(db.prepare(INSERT_RATING_HISTORY_SQL), change);
+    }
+
+    private static void updateRating(PreparedStatement pstmt, int playerId, Glicko2.Rating rating)
+            throws SQLException {
+        pstmt.setDouble(1, rating.rating());
+        pstmt.setDouble(2, rating.deviation());
+        pstmt.setDouble(3, rating.volatility());
+        pstmt.setInt(4, playerId);
+        pstmt.executeUpdate();
+    }
+
+    private static void insertRatingHistory(PreparedStatement pstmt, RatingChange change) throws SQLException {
+        pstmt.setInt(1, change.playerId());
+        if (change.gameId() > 0) {
+            pstmt.setInt(2, change.gameId());
+        } else {
+            pstmt.setNull(2, Types.INTEGER);
+        }
+        pstmt.setDouble(3, change.rating().rating());
+        pstmt.setDouble(4, change.rating().deviation());
+        pstmt.setDouble(5, change.rating().volatility());
+        pstmt.setString(6, change.ratedAt());
+        pstmt.executeUpdate();
+    }
+
+    /* ---------- RatingRecompute 使用的批量操作, 只应在服务器停止时执行 ---------- */
+
+    // 逐局读出全部已结束、双方不同的对局; 不排序, 由调用方按评级周期分桶
+    void forEachRatedGame(GameResultVisitor visitor) throws SQLException {
+        var sql = "SELECT red_player_id, black_player_id, winner_id, CAST(strftime('%s', end_time) AS INTEGER) " +
+                "FROM game_records WHERE end_time IS NOT NULL AND red_player_id <> black_player_id";
+        try (var db = pool.reader(); var rs = db.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                visitor.visit(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getLong(4));
+            }
+        }
+    }
+
+    int maxPlayerId() throws SQLException {
+        try (var db = pool.reader(); var rs = db.prepare("SELECT MAX(id) FROM players").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    void clearRatingHistory() throws SQLException {
+        try (var db = pool.writer(); var stmt = db.connection().createStatement()) {
+            stmt.execute("DELETE FROM rating_history");
+        }
+    }
+
+    // 一批历史记录在一个事务中写入
+    void appendRatingHistory(List<RatingChange> changes) throws SQLException {
+        try (var db = pool.writer()) {
+            inTransaction(db, () -> {
+                var insert = db.prepare(INSERT_RATING_HISTORY_SQL);
+                for (var change : changes) {
+                    insertRatingHistory(insert, change);
+                }
+            });
+        }
+    }
+
+    // 用重算结果替换全部玩家的当前等级分: ratings 以玩家编号为下标, null 表示没有计分对局, 回到初始值
+    void replaceRatings(Glicko2.Rating[] ratings) throws SQLException {
+        try (var db = pool.writer()) {
+            inTransaction(db, () -> {
+                try (var reset = db.connection().prepareStatement(
+                        "UPDATE players SET rating = ?, rating_deviation = ?, volatility = ?")) {
+                    reset.setDouble(1, Glicko2.INITIAL.rating());
+                    reset.setDouble(2, Glicko2.INITIAL.deviation());
+                    reset.setDouble(3, Glicko2.INITIAL.volatility());
+                    reset.executeUpdate();
+                }
+                var update = db.prepare(UPDATE_RATING_SQL);
+                for (var id = 0; id < ratings.length; id++) {
+                    if (ratings[id] != null) updateRating(update, id, ratings[id]);
+                }
+            });
+        }
+    }
+
+    // 驱动缺失或文件无法打开时为 false
+    public boolean isConnected() {
+        return pool != null;
+    }
+    
+    public void closeConnection() {
+        if (pool != null) {
+            pool.close();
+        }
     }
 }
@@ -1,173 +1,284 @@
 package src;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.time.LocalDateTime;
 
 public class ChessServer {
     private static final int PORT = 8888;
-    private static List<ClientHandler> clients = new ArrayList<>();
-    private static String[][] board = new String[10][9];
-    private static String currentPlayer = "红";
-    private static long gameStartTime = System.currentTimeMillis();
-    private static boolean gameEnded = false;
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final ClientRegistry clients = new ClientRegistry();
     private static ScheduledExecutorService timerExecutor;
     private static ChessDatabase database;
-    
-    // record player info
-    private static String redPlayerName = null;
-    private static String blackPlayerName = null;
-    private static int redPlayerId = -1;
-    private static int blackPlayerId = -1;
-    
-    // record exact game start time
-    private static LocalDateTime gameStartTimeExact = null;
+    private static PersistenceQueue persistence;
+    private static RoomManager roomManager;
+    private static int outboundCapacity = 256;
+    private static OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.COALESCE;
+    // NIO 模式下会阻塞的请求 (登录时查数据库) 在这里执行, 不占用 I/O 线程
+    private static final Executor blockingExecutor = blockingExecutor();
     
     public static void main(String[] args) {
-        database = new ChessDatabase();
-        initBoard();
+        var options = parseOptions(args);
+        database = new ChessDatabase(ChessDatabase.DB_URL, Integer.parseInt(options.getOrDefault("db-readers", "4")));
+        var roomWorkers = Integer.parseInt(options.getOrDefault("room-workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        var clockSync = Integer.parseInt(options.getOrDefault("clock-sync", "30"));
+        persistence = new PersistenceQueue(database,
+                Integer.parseInt(options.getOrDefault("persist-queue", "1024")),
+                Integer.parseInt(options.getOrDefault("persist-batch", "256")));
+        // Ctrl+C 等信号不会走到 finally, 在关闭钩子里把未写完的对局落盘
+        Runtime.getRuntime().addShutdownHook(new Thread(persistence::close, "persistence-flush"));
+        roomManager = new RoomManager(roomWorkers, persistence, clients, clockSync);
+        var engineSettings = new EnginePlayer.Settings(
+                Long.parseLong(options.getOrDefault("engine-time-ms", "1000")),
+                Integer.parseInt(options.getOrDefault("engine-depth", "32")),
+                Integer.parseInt(options.getOrDefault("engine-hash-mb", "16")),
+                Integer.parseInt(options.getOrDefault("engine-smp", "1")));
+        var engineThreads = Integer.parseInt(options.getOrDefault("engine-threads",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        if (options.containsKey("tablebase")) {
+            try {
+                var tablebase = Tablebase.open(Path.of(options.get("tablebase")));
+                roomManager.setTablebase(tablebase);
+                System.out.println("残局库已映射，子力组合数: " + tablebase.size());
+            } catch (IOException e) {
+                System.out.println("残局库打开失败: " + e.getMessage());
+            }
+        }
+        OpeningBook book = null;
+        if (options.containsKey("engine-book")) {
+            try {
+                book = OpeningBook.open(Path.of(options.get("engine-book")));
+                System.out.println("开局库已映射，表项数: " + book.size());
+            } catch (IOException e) {
+                System.out.println("开局库打开失败，电脑将只靠搜索: " + e.getMessage());
+            }
+        }
+        roomManager.configureEngine(engineSettings, engineThreads,
+                Integer.parseInt(options.getOrDefault("engine-wait", "-1")), book);
+        roomManager.configureAnalysis(new EnginePlayer.Settings(
+                Long.parseLong(options.getOrDefault("analysis-time-ms", "10000")),
+                engineSettings.maxDepth(), engineSettings.hashMegabytes(), 1),
+                Integer.parseInt(options.getOrDefault("analysis-threads",
+                        String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)))));
+        roomManager.configureClock(TimeControl.parse(options.getOrDefault("time-control", "none")));
+        outboundCapacity = Integer.parseInt(options.getOrDefault("outbound-capacity", "256"));
+        overflowPolicy = OutboundQueue.OverflowPolicy.parse(options.getOrDefault("outbound-policy", "coalesce"));
         System.out.println("象棋服务器启动，端口: " + PORT);
-        System.out.println("数据库已初始化");
+        System.out.println("数据库已初始化，房间工作线程数: " + roomWorkers);
         
         timerExecutor = Executors.newSingleThreadScheduledExecutor();
-        timerExecutor.scheduleAtFixedRate(() -> {
-            if (!gameEnded) {
-                var elapsedSeconds = (System.currentTimeMillis() - gameStartTime) / 1000;
-                var minutes = (int) (elapsedSeconds / 60);
-                var seconds = (int) (elapsedSeconds % 60);
-                var timeMessage = "TIME:" + String.format("%02d:%02d", minutes, seconds);
-                
-                for (var client : clients) {
-                    client.out.println(timeMessage);
-                }
-            }
-        }, 0, 1, TimeUnit.SECONDS);
+        timerExecutor.scheduleAtFixedRate(roomManager::tickAll, 0, 1, TimeUnit.SECONDS);
         
-        try (var serverSocket = new ServerSocket(PORT)) {
-            while (true) {
-                var socket = serverSocket.accept();
-                var client = new ClientHandler(socket);
-                clients.add(client);
-                new Thread(client).start();
-                System.out.println("新玩家连接，当前玩家数: " + clients.size());
+        try {
+            var ioMode = options.getOrDefault("io", "thread");
+            if (ioMode.equals("nio")) {
+                var ioThreads = Integer.parseInt(options.getOrDefault("io-threads",
+                        String.valueOf(Math.min(4, Runtime.getRuntime().availableProcessors()))));
+                System.out.println("I/O 模式: NIO Selector, I/O 线程数: " + ioThreads);
+                runNioServer(ioThreads);
+            } else {
+                var executor = connectionExecutor(options.getOrDefault("threads", "platform"));
+                runThreadServer(executor);
             }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            persistence.close();
             if (database != null) {
                 database.closeConnection();
             }
             if (timerExecutor != null) {
                 timerExecutor.shutdown();
             }
+            roomManager.shutdown();
+        }
+    }
+    
+    // 启动参数格式: --key=value, 例如 --io=nio --io-threads=4 或 --threads=virtual
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--")) continue;
+            var eq = arg.indexOf('=');
+            if (eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                options.put(arg.substring(2), "true");
+            }
         }
+        return options;
     }
     
-    private static void initBoard() {
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 9; j++) {
-                board[i][j] = "  ";
+    // 每连接一个线程模式下 ClientHandler 的执行方式: platform 为系统线程, virtual 为虚拟线程
+    private static Executor connectionExecutor(String threads) {
+        if (threads.equals("virtual")) {
+            try {
+                // 通过反射调用, 保证在 Java 21 之前的 JVM 上也能编译和运行
+                var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println("I/O 模式: 每连接一个虚拟线程");
+                return (Executor) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("当前 JVM 不支持虚拟线程 (需要 Java 21+)，改用系统线程");
+            }
+        }
+        System.out.println("I/O 模式: 每连接一个系统线程");
+        return command -> new Thread(command).start();
+    }
+    
+    // 有虚拟线程时每个任务一个虚拟线程, 否则用按需增减的守护线程池
+    private static Executor blockingExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                var thread = new Thread(task, "blocking-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    private static void runThreadServer(Executor executor) throws IOException {
+        try (var serverSocket = new ServerSocket(PORT)) {
+            while (true) {
+                var socket = serverSocket.accept();
+                var client = new ClientHandler(socket);
+                clients.register(client);
+                executor.execute(client);
+                executor.execute(client::writeLoop);
+                System.out.println("新玩家连接，当前玩家数: " + clients.size());
             }
         }
-        
-        // black pieces
-        board[0][0] = "車"; board[0][8] = "車";
-        board[0][1] = "馬"; board[0][7] = "馬";
-        board[0][2] = "象"; board[0][6] = "象";
-        board[0][3] = "士"; board[0][5] = "士";
-        board[0][4] = "將";
-        board[2][1] = "炮"; board[2][7] = "炮";
-        board[3][0] = "卒"; board[3][2] = "卒"; board[3][4] = "卒";
-        board[3][6] = "卒"; board[3][8] = "卒";
-        
-        // red pieces
-        board[9][0] = "车"; board[9][8] = "车";
-        board[9][1] = "马"; board[9][7] = "马";
-        board[9][2] = "相"; board[9][6] = "相";
-        board[9][3] = "仕"; board[9][5] = "仕";
-        board[9][4] = "帅";
-        board[7][1] = "砲"; board[7][7] = "砲";
-        board[6][0] = "兵"; board[6][2] = "兵"; board[6][4] = "兵";
-        board[6][6] = "兵"; board[6][8] = "兵";
     }
     
-    static class ClientHandler implements Runnable {
+    private static void runNioServer(int ioThreads) throws IOException {
+        var server = new NioServer(PORT, ioThreads, connection -> {
+            var client = new ClientHandler(connection);
+            clients.register(client);
+            System.out.println("新玩家连接，当前玩家数: " + clients.size());
+            return client;
+        });
+        server.run();
+    }
+    
+    static class ClientHandler implements Seat, Runnable, NioServer.Handler {
         private Socket socket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private String playerColor;
+        private NioServer.Connection connection;
+        private OutputStream out;
+        private InputStream in;
+        private volatile GameRoom room;
+        private volatile String playerColor;
+        private volatile String playerName;
+        private volatile int playerId = -1;
+        private volatile boolean deltaEnabled = false;
+        private volatile boolean clockEnabled = false;
+        private volatile boolean legalMovesEnabled = false;
+        // 二进制协议: binaryIn 只在读线程上使用, binaryOut 在 send 的锁内切换
+        private boolean binaryIn = false;
+        private boolean binaryOut = false;
+        private volatile boolean loggedIn = false;
+        // NIO 模式下登录查询进行期间收到的消息, 登录完成后按原顺序处理; 为 null 表示没有进行中的登录 (this 保护)
+        private ArrayDeque<String> deferred;
+        private final OutboundQueue outbound = new OutboundQueue(outboundCapacity, overflowPolicy);
         
         public ClientHandler(Socket socket) {
             this.socket = socket;
             try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                if (clients.size() == 1) {
-                    playerColor = "红";
-                    out.println("COLOR:红");
-                } else if (clients.size() == 2) {
-                    playerColor = "黑";
-                    out.println("COLOR:黑");
-                } else {
-                    playerColor = "观战";
-                    out.println("COLOR:观战");
+                out = new BufferedOutputStream(socket.getOutputStream());
+                in = new BufferedInputStream(socket.getInputStream());
+                roomManager.matchmake(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        // NIO 模式: 由 I/O 线程分帧后回调 onLine, 输出写入连接的发送缓冲区
+        public ClientHandler(NioServer.Connection connection) {
+            this.connection = connection;
+            roomManager.matchmake(this);
+        }
+        
+        @Override
+        public void send(String message) {
+            send(OutboundQueue.Frame.of(message));
+        }
+        
+        // 只入队, 不在调用线程上写 socket; 队列按溢出策略仍放不下时断开该连接
+        @Override
+        public synchronized void send(OutboundQueue.Frame frame) {
+            if (!outbound.offer(binaryOut ? frame.binary() : frame)) {
+                System.out.println("发送队列溢出，断开慢速连接");
+                close();
+                return;
+            }
+            if (connection != null) {
+                connection.requestFlush();
+            }
+        }
+        
+        // 每连接一个线程模式下的写线程: 批量取出排队消息, 写完后统一 flush
+        void writeLoop() {
+            try {
+                while (true) {
+                    var batch = outbound.takeBatch();
+                    if (batch.isEmpty()) return;
+                    for (var frame : batch) {
+                        out.write(frame.bytes());
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void close() {
+            outbound.close();
+            try {
+                if (socket != null) {
+                    socket.close();
+                } else if (connection != null) {
+                    connection.close();
                 }
-                
-                sendBoardToAll();
-                broadcastMessage("系统", playerColor + "方玩家已加入");
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
         
+        @Override public GameRoom getRoom() { return room; }
+        @Override public String getPlayerColor() { return playerColor; }
+        @Override public String getPlayerName() { return playerName; }
+        @Override public int getPlayerId() { return playerId; }
+        @Override public boolean isDeltaEnabled() { return deltaEnabled; }
+        @Override public boolean isClockEnabled() { return clockEnabled; }
+        @Override public boolean isLegalMovesEnabled() { return legalMovesEnabled; }
+        
+        @Override
+        public void setRoom(GameRoom room, String playerColor) {
+            this.room = room;
+            this.playerColor = playerColor;
+        }
+        
         @Override
         public void run() {
             try {
                 String message;
-                boolean loggedIn = false;
-                while ((message = in.readLine()) != null) {
-                    if (message.startsWith("LOGIN:")) {
-                        var username = message.substring(6);
-                        var player = database.getPlayerByName(username);
-                        if (player != null) {
-                            loggedIn = true;
-                            if (playerColor.equals("红")) {
-                                redPlayerName = username;
-                                redPlayerId = player.getPlayerId();
-                            } else if (playerColor.equals("黑")) {
-                                blackPlayerName = username;
-                                blackPlayerId = player.getPlayerId();
-                            }
-                            out.println("LOGIN_OK");
-                            System.out.println(username + " 已登录");
-                        } else {
-                            out.println("LOGIN_FAILED");
-                        }
-                    } else if (message.startsWith("MOVE:")) {
-                        handleMove(message.substring(5));
-                    } else if (message.startsWith("CHAT:")) {
-                        var chatMsg = message.substring(5);
-                        broadcastMessage(playerColor, chatMsg);
-                    } 
-                    // === 新增：处理语音转发 ===
-                    else if (message.startsWith("VOICE:")) {
-                        // 仅允许红黑双方发送语音
-                        if (playerColor.equals("红") || playerColor.equals("黑")) {
-                            forwardVoice(message);
-                        }
-                    }
-                    else if (message.equals("GET_BOARD")) {
-                        sendBoardToClient();
-                    }
+                while ((message = binaryIn ? WireCodec.readFrame(in) : WireCodec.readLine(in, CHARSET)) != null) {
+                    handleMessage(message);
                 }
             } catch (IOException e) {
                 System.out.println("玩家断开连接");
             } finally {
-                clients.remove(this);
+                disconnect();
                 try {
                     socket.close();
                 } catch (IOException e) {
@@ -176,369 +287,211 @@ public class ChessServer {
             }
         }
         
-        // === 新增：定向转发语音 ===
-        private void forwardVoice(String msg) {
-            String targetColor = playerColor.equals("红") ? "黑" : "红";
-            for (ClientHandler client : clients) {
-                if (client.playerColor.equals(targetColor)) {
-                    client.out.println(msg);
-                    break; // 找到对手即发送并退出
-                }
-            }
-        }
-        
-        private void sendBoardToClient() {
-            StringBuilder sb = new StringBuilder("BOARD:");
-            for (int i = 0; i < 10; i++) {
-                for (int j = 0; j < 9; j++) {
-                    sb.append(board[i][j]).append(",");
-                }
-            }
-            sb.append(currentPlayer);
-            out.println(sb.toString());
-        }
-        
-        private void handleMove(String moveData) {
-            if (gameEnded) {
-                out.println("ERROR:游戏已结束，请等待重新开始!");
-                return;
-            }
-            
-            if (!playerColor.equals(currentPlayer)) {
-                out.println("ERROR:不是你的回合!");
-                return;
+        @Override
+        public void onLine(String line) {
+            // 输入的分帧方式必须在 I/O 线程读下一帧之前切换, 不能等排队的消息处理到这一行
+            if (line.startsWith("LOGIN:") && line.endsWith("|" + WireCodec.BINARY)) {
+                connection.switchToBinary();
             }
-            
-            var parts = moveData.split(",");
-            var fromRow = Integer.parseInt(parts[0]);
-            var fromCol = Integer.parseInt(parts[1]);
-            var toRow = Integer.parseInt(parts[2]);
-            var toCol = Integer.parseInt(parts[3]);
-            
-            if (isValidMove(fromRow, fromCol, toRow, toCol)) {
-                var capturedPiece = board[toRow][toCol];
-                board[toRow][toCol] = board[fromRow][fromCol];
-                board[fromRow][fromCol] = "  ";
-                
-                // check if eat
-                if (capturedPiece.equals("帅") || capturedPiece.equals("將")) {
-                    gameEnded = true;
-                    var gameTime = (System.currentTimeMillis() - gameStartTime) / 1000;
-                    sendBoardToAll();
-                    broadcastMessage("系统", playerColor + "方获胜!");
-                    broadcastMessage("游戏结束", playerColor + "方吃掉了对方的" + 
-                                   (capturedPiece.equals("帅") ? "帅" : "将") + 
-                                   "，用时" + gameTime + "秒");
-                    
-                    // save the record to database
-                    if (redPlayerId > 0 && blackPlayerId > 0) {
-                        try {
-                            var record = new GameRecord(redPlayerId, redPlayerName, 
-                                                              blackPlayerId, blackPlayerName);
-                            var winnerId = playerColor.equals("红") ? redPlayerId : blackPlayerId;
-                            var winnerName = playerColor.equals("红") ? redPlayerName : blackPlayerName;
-                            record.setWinnerId(winnerId);
-                            record.setWinnerName(winnerName);
-                            record.setGameDurationSeconds((int) gameTime);
-                            
-                            // start with exact time
-                            if (gameStartTimeExact != null) {
-                                record.setStartTime(gameStartTimeExact);
-                            } else {
-                                // if no exact time, estimate based on duration
-                                record.setStartTime(LocalDateTime.now().minusSeconds(gameTime));
-                            }
-                            record.setEndTime(LocalDateTime.now());
-                            
-                            database.saveGameRecord(record);
-                            database.updatePlayerStats(winnerId, true);
-                            
-                            // update loser stats
-                            var loserId = playerColor.equals("红") ? blackPlayerId : redPlayerId;
-                            database.updatePlayerStats(loserId, false);
-                            
-                            System.out.println("对局已保存到数据库");
-                        } catch (Exception e) {
-                            System.out.println("保存对局记录失败: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }
-                    
-                    // restart game after 3s delay
-                    new Thread(() -> {
-                        try {
-                            Thread.sleep(3000);
-                            resetGame();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }).start();
+            synchronized (this) {
+                if (deferred != null) {
+                    deferred.add(line);
                     return;
                 }
-                
-                // check for check
-                
-                currentPlayer = currentPlayer.equals("红") ? "黑" : "红";
-                sendBoardToAll();
-                broadcastMessage("系统", playerColor + "方移动了棋子");
-            } else {
-                out.println("ERROR:无效的移动!");
             }
+            handleMessage(line);
         }
         
-        private boolean isInCheck(String color) {
-                // find where is the king
-                var kingRow = -1;
-                var kingCol = -1;
-                var kingChar = color.equals("红") ? "帅" : "將";
-                
-                for (var i = 0; i < 10; i++) {
-                    for (var j = 0; j < 9; j++) {
-                        if (board[i][j].equals(kingChar)) {
-                            kingRow = i;
-                            kingCol = j;
-                            break;
-                        }
-                    }
-                    if (kingRow != -1) break;
-                }
-                
-                if (kingRow == -1) return false;
-                
-                //check if any opponent piece can move to king's position
-                for (var i = 0; i < 10; i++) {
-                    for (var j = 0; j < 9; j++) {
-                        var piece = board[i][j];
-                                            if (!piece.equals("  ")) {
-                                                var pieceIsRed = "车马相仕帅砲兵".contains(piece);
-                                                var kingIsRed = color.equals("红");
-                                                
-                                                if (pieceIsRed != kingIsRed) {
-                                                    if (isValidMove(i, j, kingRow, kingCol)) {
-                                                        return true;
-                                                    }
-                                                }
-                        }
+        // 在 blockingExecutor 上依次处理登录期间排队的消息, 处理完后恢复由 I/O 线程直接处理
+        private void drainDeferred() {
+            while (true) {
+                String line;
+                synchronized (this) {
+                    line = deferred.poll();
+                    if (line == null) {
+                        deferred = null;
+                        return;
                     }
                 }
-                
-                return false;
-            }        
-
-        private boolean isValidMove(int fromRow, int fromCol, int toRow, int toCol) {
-            if (fromRow < 0 || fromRow >= 10 || fromCol < 0 || fromCol >= 9) return false;
-            if (toRow < 0 || toRow >= 10 || toCol < 0 || toCol >= 9) return false;
-            if (board[fromRow][fromCol].equals("  ")) return false;
-            
-            String piece = board[fromRow][fromCol];
-            String targetPiece = board[toRow][toCol];
-            
-            if (!targetPiece.equals("  ")) {
-                boolean fromIsRed = "车马相仕帅砲兵".contains(piece);
-                boolean toIsRed = "车马相仕帅砲兵".contains(targetPiece);
-                if (fromIsRed == toIsRed) return false;
+                handleMessage(line);
             }
-            
-            // Validate move based on piece type
-            return switch (piece) {
-                case "车", "車" -> isValidRookMove(fromRow, fromCol, toRow, toCol);
-                case "马", "馬" -> isValidKnightMove(fromRow, fromCol, toRow, toCol);
-                case "相", "象" -> isValidElephantMove(fromRow, fromCol, toRow, toCol, piece.equals("相"));
-                case "仕", "士" -> isValidAdvisorMove(fromRow, fromCol, toRow, toCol, piece.equals("仕"));
-                case "帅", "將" -> isValidKingMove(fromRow, fromCol, toRow, toCol, piece.equals("帅"));
-                case "炮", "砲" -> isValidCannonMove(fromRow, fromCol, toRow, toCol);
-                case "兵", "卒" -> isValidPawnMove(fromRow, fromCol, toRow, toCol, piece.equals("兵"));
-                default -> false;
-            };
         }
         
-        private boolean isValidRookMove(int fromRow, int fromCol, int toRow, int toCol) {
-            if (fromRow != toRow && fromCol != toCol) return false;
-            
-            if (fromRow == toRow) {
-                var start = Math.min(fromCol, toCol) + 1;
-                var end = Math.max(fromCol, toCol);
-                for (var col = start; col < end; col++) {
-                    if (!board[fromRow][col].equals("  ")) return false;
-                }
-            } else {
-                var start = Math.min(fromRow, toRow) + 1;
-                var end = Math.max(fromRow, toRow);
-                for (var row = start; row < end; row++) {
-                    if (!board[row][fromCol].equals("  ")) return false;
-                }
-            }
-            return true;
+        @Override
+        public void onClose() {
+            System.out.println("玩家断开连接");
+            disconnect();
         }
         
-        private boolean isValidKnightMove(int fromRow, int fromCol, int toRow, int toCol) {
-            var rowDiff = Math.abs(toRow - fromRow);
-            var colDiff = Math.abs(toCol - fromCol);
-            
-            if (!((rowDiff == 2 && colDiff == 1) || (rowDiff == 1 && colDiff == 2))) {
-                return false;
-            }
-            
-            if (rowDiff == 2) {
-                var blockRow = fromRow + (toRow - fromRow) / 2;
-                if (!board[blockRow][fromCol].equals("  ")) return false;
-            } else {
-                var blockCol = fromCol + (toCol - fromCol) / 2;
-                if (!board[fromRow][blockCol].equals("  ")) return false;
+        @Override
+        public boolean onWritable() {
+            var batch = outbound.pollBatch();
+            if (batch.isEmpty()) return false;
+            for (var frame : batch) {
+                connection.send(frame.bytes());
             }
             return true;
         }
         
-        private boolean isValidElephantMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
-            var rowDiff = Math.abs(toRow - fromRow);
-            var colDiff = Math.abs(toCol - fromCol);
-            
-            if (rowDiff != 2 || colDiff != 2) return false;
-            
-            if (isRed && toRow < 5) return false;
-            if (!isRed && toRow > 4) return false;
-            
-            var midRow = (fromRow + toRow) / 2;
-            var midCol = (fromCol + toCol) / 2;
-            if (!board[midRow][midCol].equals("  ")) return false;
-            
-            return true;
+        @Override
+        public boolean hasPendingOutput() {
+            return !outbound.isEmpty();
         }
         
-        private boolean isValidAdvisorMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
-            var rowDiff = Math.abs(toRow - fromRow);
-            var colDiff = Math.abs(toCol - fromCol);
-            
-            if (rowDiff != 1 || colDiff != 1) return false;
-            
-            if (isRed) {
-                if (toRow < 7 || toCol < 3 || toCol > 5) return false;
-            } else {
-                if (toRow > 2 || toCol < 3 || toCol > 5) return false;
-            }
-            
-            return true;
+        private void disconnect() {
+            outbound.close();
+            clients.unregister(this);
+            roomManager.leave(this);
         }
         
-        private boolean isValidKingMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
-            var rowDiff = Math.abs(toRow - fromRow);
-            var colDiff = Math.abs(toCol - fromCol);
-            
-            if (rowDiff + colDiff != 1) return false;
-            
-            if (isRed) {
-                if (toRow < 7 || toCol < 3 || toCol > 5) return false;
+        // 回复经发送队列送回; binary 时紧接着发送 PROTO:binary, 之后的输出改为二进制
+        private void login(String username, boolean binary) {
+            var player = database.getPlayerByName(username);
+            String reply;
+            if (player != null) {
+                loggedIn = true;
+                playerName = username;
+                playerId = player.getPlayerId();
+                reply = "LOGIN_OK";
+                System.out.println(username + " 已登录");
             } else {
-                if (toRow > 2 || toCol < 3 || toCol > 5) return false;
+                reply = "LOGIN_FAILED";
             }
-            
-            var targetPiece = board[toRow][toCol];
-            if ((targetPiece.equals("帅") && !isRed) || (targetPiece.equals("將") && isRed)) {
-                if (fromCol == toCol) {
-                    var start = Math.min(fromRow, toRow) + 1;
-                    var end = Math.max(fromRow, toRow);
-                    for (var row = start; row < end; row++) {
-                        if (!board[row][fromCol].equals("  ")) return false;
-                    }
-                    return true;
+            synchronized (this) {
+                send(reply);
+                if (binary) {
+                    send(WireCodec.PROTO_BINARY);
+                    binaryOut = true;
                 }
             }
-            
-            return true;
         }
         
-        private boolean isValidCannonMove(int fromRow, int fromCol, int toRow, int toCol) {
-            if (fromRow != toRow && fromCol != toCol) return false;
-            
-            var pieceCount = 0;
-            
-            if (fromRow == toRow) {
-                var start = Math.min(fromCol, toCol) + 1;
-                var end = Math.max(fromCol, toCol);
-                for (var col = start; col < end; col++) {
-                    if (!board[fromRow][col].equals("  ")) pieceCount++;
+        private void handleMessage(String message) {
+            var room = this.room;
+            if (message.startsWith("LOGIN:")) {
+                var username = message.substring(6);
+                var binary = username.endsWith("|" + WireCodec.BINARY);
+                if (binary) {
+                    // 客户端在这一行之后已改用二进制发送 (NIO 模式已在 onLine 中切换)
+                    username = username.substring(0, username.length() - WireCodec.BINARY.length() - 1);
+                    binaryIn = true;
                 }
-            } else {
-                var start = Math.min(fromRow, toRow) + 1;
-                var end = Math.max(fromRow, toRow);
-                for (var row = start; row < end; row++) {
-                    if (!board[row][fromCol].equals("  ")) pieceCount++;
+                // 查数据库可能要等连接池: NIO 模式下交给 blockingExecutor, 之后到达的消息排队等登录完成
+                boolean async;
+                synchronized (this) {
+                    async = connection != null && deferred == null;
+                    if (async) deferred = new ArrayDeque<>();
                 }
-            }
-            
-            if (!board[toRow][toCol].equals("  ")) {
-                return pieceCount == 1;
-            } else {
-                return pieceCount == 0;
-            }
-        }
-        
-        private boolean isValidPawnMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
-            var rowDiff = toRow - fromRow;
-            var colDiff = Math.abs(toCol - fromCol);
-            
-            if (isRed) {
-                if (fromRow > 4) {
-                    return rowDiff == -1 && colDiff == 0;
+                if (async) {
+                    var name = username;
+                    blockingExecutor.execute(() -> {
+                        try {
+                            login(name, binary);
+                        } finally {
+                            drainDeferred();
+                        }
+                    });
                 } else {
-                    return (rowDiff == -1 && colDiff == 0) || 
-                           (rowDiff == 0 && colDiff == 1);
+                    login(username, binary);
                 }
-            } else {
-                if (fromRow < 5) {
-                    return rowDiff == 1 && colDiff == 0;
+            } else if (message.equals("DELTA_ON")) {
+                // 之后的走棋以 DELTA 推送; 先补发一份带版本号的完整棋盘作为基准
+                deltaEnabled = true;
+                if (room != null) {
+                    room.execute(() -> room.sendBoardTo(this));
+                }
+            } else if (message.equals("CLOCK_ON")) {
+                // 之后不再每秒推送 TIME, 改为发送开局时间并定期校正, 由客户端本地走表
+                clockEnabled = true;
+                if (room != null) {
+                    room.execute(() -> room.sendClockTo(this));
+                }
+            } else if (message.equals("LEGAL_ON")) {
+                // 之后轮到自己走时随局面收到 LEGAL, 客户端本地判断走法, 非法走法不必再发到服务器
+                legalMovesEnabled = true;
+                if (room != null) {
+                    room.execute(() -> room.sendLegalMovesTo(this));
+                }
+            } else if (message.equals("LIST_ROOMS")) {
+                var sb = new StringBuilder("ROOMS:");
+                for (var r : roomManager.listRooms()) {
+                    if (sb.length() > 6) sb.append(";");
+                    sb.append(r.describe());
+                }
+                send(sb.toString());
+            } else if (message.startsWith("JOIN_ROOM:")) {
+                var target = message.substring(10).trim();
+                if (target.equals("new")) {
+                    roomManager.joinNewRoom(this);
                 } else {
-                    return (rowDiff == 1 && colDiff == 0) || 
-                           (rowDiff == 0 && colDiff == 1);
+                    try {
+                        if (roomManager.joinRoom(this, Integer.parseInt(target)) == null) {
+                            send("ERROR:房间不存在!");
+                        }
+                    } catch (NumberFormatException e) {
+                        send("ERROR:房间号无效!");
+                    }
                 }
-            }
-        }
-
-        private void sendBoardToAll() {
-            StringBuilder sb = new StringBuilder("BOARD:");
-            for (int i = 0; i < 10; i++) {
-                for (int j = 0; j < 9; j++) {
-                    sb.append(board[i][j]).append(",");
+            } else if (room == null) {
+                send("ERROR:尚未进入房间!");
+            } else if (message.startsWith("MOVE:")) {
+                var moveData = message.substring(5);
+                room.execute(() -> room.handleMove(this, moveData));
+            } else if (message.startsWith("CHAT:")) {
+                var chatMsg = message.substring(5);
+                var color = playerColor;
+                room.execute(() -> room.broadcastMessage(color, chatMsg));
+            } 
+            // === 新增：处理语音转发 ===
+            else if (message.startsWith("VOICE:")) {
+                // 仅允许红黑双方发送语音
+                if (playerColor.equals("红") || playerColor.equals("黑")) {
+                    forwardVoice(room, message);
                 }
             }
-            sb.append(currentPlayer);
-            
-            for (ClientHandler client : clients) {
-                client.out.println(sb.toString());
+            else if (message.startsWith("LEGAL_MOVES:")) {
+                var parts = message.substring(12).split(",");
+                try {
+                    var row = Integer.parseInt(parts[0].trim());
+                    var col = Integer.parseInt(parts[1].trim());
+                    room.execute(() -> room.sendLegalTargets(this, row, col));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    send("ERROR:无效的位置!");
+                }
             }
-        }
-        
-        private void broadcastMessage(String sender, String msg) {
-            String chatMessage = "CHAT:" + sender + ": " + msg;
-            for (ClientHandler client : clients) {
-                client.out.println(chatMessage);
+            else if (message.equals("GET_BOARD")) {
+                room.execute(() -> room.sendBoardTo(this));
+            } else if (message.equals("PLAY_ENGINE") || message.startsWith("PLAY_ENGINE:")) {
+                // 可选参数为该房间电脑的搜索线程数
+                boolean seated;
+                try {
+                    seated = message.length() > 12
+                            ? roomManager.seatEngine(room, Integer.parseInt(message.substring(12).trim()))
+                            : roomManager.seatEngine(room);
+                } catch (NumberFormatException e) {
+                    send("ERROR:线程数无效!");
+                    return;
+                }
+                if (!seated) {
+                    send("ERROR:房间没有空座位!");
+                }
+            } else if (message.equals("ANALYZE") || message.equals("ANALYZE_OFF")) {
+                // 订阅房间的引擎分析; 对弈双方看分析等于作弊, 只对观战者开放
+                if (!playerColor.equals("观战")) {
+                    send("ERROR:只有观战者可以查看分析!");
+                    return;
+                }
+                var subscribe = message.equals("ANALYZE");
+                room.execute(() -> room.setAnalysisSubscriber(this, subscribe));
             }
         }
-    }
-    
-    private static void resetGame() {
-        initBoard();
-        currentPlayer = "红";
-        gameStartTime = System.currentTimeMillis();
-        gameStartTimeExact = LocalDateTime.now(); 
-        gameEnded = false;
-        System.out.println("新游戏开始，红方先走");
         
-        StringBuilder sb = new StringBuilder("BOARD:");
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 9; j++) {
-                sb.append(board[i][j]).append(",");
+        // === 新增：定向转发语音 ===
+        private void forwardVoice(GameRoom room, String msg) {
+            var opponent = room.getOpponent(this);
+            if (opponent != null) {
+                opponent.send(msg);
             }
         }
-        sb.append(currentPlayer);
-        
-        for (ClientHandler client : clients) {
-            client.out.println(sb.toString());
-        }
-        
-        String chatMessage = "CHAT:系统: 新游戏开始！红方先走。";
-        for (ClientHandler client : clients) {
-            client.out.println(chatMessage);
-        }
     }
-}
\ No newline at end of file
+}
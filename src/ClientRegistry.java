@@ -0,0 +1,125 @@
+package src;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// 在线连接注册表: 按房间和身份 (红/黑/观战) 建立索引
+// 广播遍历不加锁 (弱一致迭代), 增删为 O(1); 座位分配这类先查后改的操作按房间号分段加锁
+public class ClientRegistry {
+    private static final int STRIPES = 64;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final Set<Seat> all = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Integer, RoomIndex> rooms = new ConcurrentHashMap<>();
+
+    private static final class RoomIndex {
+        volatile Seat red;
+        volatile Seat black;
+        final Set<Seat> spectators = ConcurrentHashMap.newKeySet();
+    }
+
+    public ClientRegistry() {
+        for (var i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(int roomId) {
+        return locks[Math.floorMod(roomId, STRIPES)];
+    }
+
+    /* ==================== connections ==================== */
+
+    public void register(Seat client) {
+        all.add(client);
+    }
+
+    public void unregister(Seat client) {
+        all.remove(client);
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    /* ==================== rooms ==================== */
+
+    // 分配座位: 红方空则坐红方, 其次黑方, 否则观战; 返回身份
+    public String seat(int roomId, Seat client) {
+        synchronized (lockFor(roomId)) {
+            var index = rooms.computeIfAbsent(roomId, id -> new RoomIndex());
+            if (index.red == null) {
+                index.red = client;
+                return "红";
+            }
+            if (index.black == null) {
+                index.black = client;
+                return "黑";
+            }
+            index.spectators.add(client);
+            return "观战";
+        }
+    }
+
+    // 返回该连接原本是否在房间中
+    public boolean unseat(int roomId, Seat client) {
+        synchronized (lockFor(roomId)) {
+            var index = rooms.get(roomId);
+            if (index == null) return false;
+            var removed = false;
+            if (index.red == client) {
+                index.red = null;
+                removed = true;
+            } else if (index.black == client) {
+                index.black = null;
+                removed = true;
+            } else {
+                removed = index.spectators.remove(client);
+            }
+            if (index.red == null && index.black == null && index.spectators.isEmpty()) {
+                rooms.remove(roomId);
+            }
+            return removed;
+        }
+    }
+
+    public Seat getRed(int roomId) {
+        var index = rooms.get(roomId);
+        return index != null ? index.red : null;
+    }
+
+    public Seat getBlack(int roomId) {
+        var index = rooms.get(roomId);
+        return index != null ? index.black : null;
+    }
+
+    public Seat getOpponent(int roomId, Seat client) {
+        var index = rooms.get(roomId);
+        if (index == null) return null;
+        if (client == index.red) return index.black;
+        if (client == index.black) return index.red;
+        return null;
+    }
+
+    public int spectatorCount(int roomId) {
+        var index = rooms.get(roomId);
+        return index != null ? index.spectators.size() : 0;
+    }
+
+    public boolean isEmpty(int roomId) {
+        return !rooms.containsKey(roomId);
+    }
+
+    public void forEachInRoom(int roomId, Consumer<Seat> action) {
+        var index = rooms.get(roomId);
+        if (index == null) return;
+        var red = index.red;
+        var black = index.black;
+        if (red != null) action.accept(red);
+        if (black != null) action.accept(black);
+        for (var spectator : index.spectators) {
+            action.accept(spectator);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package src;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// SQLite 连接池: 一个写连接加 N 个只读连接, 每个连接缓存自己用过的 PreparedStatement
+// SQLite 同一时刻只允许一个写事务, 多开写连接只会互相等锁, 因此所有写操作排队使用同一个写连接;
+// 读连接各自独立, 排行榜、对局记录等查询彼此并行, 不再和写操作抢同一个 Connection
+// 读连接设置 PRAGMA query_only, 误用来写会直接报错; 所有连接设置 busy_timeout, 碰上别的连接持锁时等待而不是立即失败
+// 一个连接同一时刻只借给一个线程, 语句缓存跟着连接走, 不需要加锁; 借到的 Handle 必须用 try-with-resources 归还
+// 内存库 (:memory:) 的每个连接都是各自独立的库, 这时不开读连接, 读操作也走写连接
+// 写连接打开时把库切换到 WAL 日志模式 (记录在库文件中, 之后一直有效): 读不阻塞写, 写也不阻塞读,
+//   提交只追加写 WAL 文件; 配合 synchronous = NORMAL, 只在检查点时 fsync, 进程崩溃不丢数据, 断电可能丢最近几个事务
+final class ConnectionPool implements AutoCloseable {
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final int CACHE_KIB = 32 * 1024;  // 每个连接的页缓存
+
+    // 借出的连接; close 即归还, 缓存的语句不要关闭
+    static final class Handle implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+
+        private Handle(ConnectionPool pool, Connection connection) {
+            this.pool = pool;
+            this.connection = connection;
+        }
+
+        Connection connection() {
+            return connection;
+        }
+
+        // 同一条 SQL 在这个连接上只解析一次, 之后复用并清空上次绑定的参数
+        PreparedStatement prepare(String sql) throws SQLException {
+            var pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = connection.prepareStatement(sql);
+                statements.put(sql, pstmt);
+            } else {
+                pstmt.clearParameters();
+            }
+            return pstmt;
+        }
+
+        @Override
+        public void close() {
+            pool.release(this);
+        }
+
+        private void closeConnection() {
+            for (var pstmt : statements.values()) {
+                try {
+                    pstmt.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final Handle writer;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final ArrayBlockingQueue<Handle> idleReaders;
+    private final List<Handle> readers = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    ConnectionPool(String url, int readerCount) throws SQLException {
+        if (url.contains(":memory:") || url.contains("mode=memory")) readerCount = 0;
+        writer = new Handle(this, open(url, false));
+        idleReaders = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+        try {
+            for (var i = 0; i < readerCount; i++) {
+                var reader = new Handle(this, open(url, true));
+                readers.add(reader);
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    int readerCount() {
+        return readers.size();
+    }
+
+    // 独占写连接, 其他写操作在此排队 (公平锁, 先到先得)
+    Handle writer() throws SQLException {
+        writeLock.lock();
+        if (closed) {
+            writeLock.unlock();
+            throw new SQLException("数据库连接池已关闭");
+        }
+        return writer;
+    }
+
+    // 借一个读连接, 全部借出时等待; 没有读连接时退回到写连接
+    Handle reader() throws SQLException {
+        if (readers.isEmpty()) return writer();
+        if (closed) throw new SQLException("数据库连接池已关闭");
+        try {
+            return idleReaders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库连接时被中断", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        writeLock.lock();
+        try {
+            writer.closeConnection();
+        } finally {
+            writeLock.unlock();
+        }
+        // 仍被借出的读连接在归还时关闭
+        closeIdleReaders();
+    }
+
+    private void release(Handle handle) {
+        if (handle == writer) {
+            writeLock.unlock();
+            return;
+        }
+        idleReaders.add(handle);
+        // 与 close 并发时, 归还的连接可能错过 close 的清理, 这里再收一次
+        if (closed) closeIdleReaders();
+    }
+
+    private void closeIdleReaders() {
+        Handle reader;
+        while ((reader = idleReaders.poll()) != null) {
+            reader.closeConnection();
+        }
+    }
+
+    private static Connection open(String url, boolean readOnly) throws SQLException {
+        var connection = DriverManager.getConnection(url);
+        try (var stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+            stmt.execute("PRAGMA cache_size = -" + CACHE_KIB);
+            stmt.execute("PRAGMA temp_store = MEMORY");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = ON");
+            } else {
+                stmt.execute("PRAGMA journal_mode = WAL");
+                stmt.execute("PRAGMA synchronous = NORMAL");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+}
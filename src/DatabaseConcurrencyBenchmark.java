@@ -0,0 +1,156 @@
+package src;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 数据库读写混合并发基准: 若干读线程交替查询排行榜和对局记录, 同时一个写线程按批写入终局结果 (与 PersistenceQueue 的写法相同)
+// 依次以不同的只读连接数运行, 报告读吞吐、读延迟分位数和写入速度; 只读连接数 0 即所有线程共用一个连接 (连接池之前的做法)
+// 数据库文件不存在时先按 --players / --games 生成; 每轮都会继续写入, 多次运行时库会逐渐变大
+// 用法: java -cp "build:lib/*" src.DatabaseConcurrencyBenchmark [--db=concurrency.db] [--players=1000] [--games=20000]
+//           [--readers=0,1,2,4] [--threads=4] [--seconds=5] [--write-batch=16]
+public class DatabaseConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var file = "concurrency.db";
+        var players = 1000;
+        var games = 20000;
+        var readerCounts = new int[]{0, 1, 2, 4};
+        var threads = 4;
+        var seconds = 5;
+        var writeBatch = 16;
+        for (var arg : args) {
+            if (arg.startsWith("--db=")) file = arg.substring(5);
+            else if (arg.startsWith("--players=")) players = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--games=")) games = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--readers=")) readerCounts = Arrays.stream(arg.substring(10).split(","))
+                    .mapToInt(Integer::parseInt).toArray();
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seconds=")) seconds = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--write-batch=")) writeBatch = Integer.parseInt(arg.substring(14));
+        }
+
+        var url = "jdbc:sqlite:" + file;
+        if (!Files.exists(Path.of(file)) && !populate(url, players, games)) {
+            System.out.println("无法打开 SQLite 数据库 (缺少驱动?)");
+            return;
+        }
+
+        var results = new ArrayList<String>();
+        for (var readers : readerCounts) {
+            System.out.println("运行: 只读连接数 " + readers + ", 读线程 " + threads + ", " + seconds + " 秒");
+            results.add(run(url, readers, threads, seconds, writeBatch, players));
+        }
+
+        System.out.println();
+        System.out.println("==== 并发结果 (" + threads + " 个读线程 + 1 个写线程, 每批写 " + writeBatch + " 局) ====");
+        System.out.printf("%-10s %12s %12s %12s %12s%n", "只读连接", "读 ops/s", "p50(ms)", "p99(ms)", "写 局/s");
+        results.forEach(System.out::println);
+    }
+
+    private static boolean populate(String url, int players, int games) throws SQLException {
+        var database = new ChessDatabase(url, 0);
+        if (!database.isConnected()) return false;
+        System.out.println("生成数据库: " + players + " 名玩家, " + games + " 局对局...");
+        var random = new Random(5);
+        BenchmarkSuite.quietly(() -> {
+            for (var i = 1; i <= players; i++) {
+                database.registerPlayer("bench" + i, "pw");
+            }
+        });
+        for (var done = 0; done < games; done += 1000) {
+            database.saveFinishedGames(randomGames(Math.min(1000, games - done), players, random));
+        }
+        database.closeConnection();
+        return true;
+    }
+
+    private static String run(String url, int readers, int threads, int seconds, int writeBatch, int players)
+            throws InterruptedException {
+        var database = new ChessDatabase(url, readers);
+        var deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        var latencies = new long[threads][];
+        var written = new AtomicLong();
+        var workers = new ArrayList<Thread>();
+        for (var t = 0; t < threads; t++) {
+            var index = t;
+            workers.add(new Thread(() -> latencies[index] = readLoop(database, players, deadline, index),
+                    "bench-reader-" + t));
+        }
+        workers.add(new Thread(() -> written.set(writeLoop(database, players, deadline, writeBatch)), "bench-writer"));
+
+        // 查询方法逐行打印日志, 测量期间丢弃标准输出, 以免 System.out 的锁成为瓶颈
+        BenchmarkSuite.quietly(() -> {
+            workers.forEach(Thread::start);
+            for (var worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        database.closeConnection();
+
+        var all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        return String.format("%-10d %12.0f %12.3f %12.3f %12.0f",
+                readers, all.length / (double) seconds,
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6,
+                written.get() / (double) seconds);
+    }
+
+    // 交替查询排行榜和随机玩家的对局记录, 返回每次查询的耗时 (纳秒)
+    private static long[] readLoop(ChessDatabase database, int players, long deadline, int seed) {
+        var random = new Random(seed);
+        var samples = new long[1024];
+        var count = 0;
+        for (var now = System.nanoTime(); now < deadline; ) {
+            if ((count & 1) == 0) {
+                database.getLeaderboard(20);
+            } else {
+                database.getGameHistory(1 + random.nextInt(players), 10);
+            }
+            var end = System.nanoTime();
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = end - now;
+            now = end;
+        }
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static long writeLoop(ChessDatabase database, int players, long deadline, int batch) {
+        var random = new Random(-1);
+        var written = 0L;
+        while (System.nanoTime() < deadline) {
+            try {
+                database.saveFinishedGames(randomGames(batch, players, random));
+                written += batch;
+            } catch (SQLException e) {
+                System.err.println("写入失败: " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    private static ArrayList<GameRecord> randomGames(int count, int players, Random random) {
+        var games = new ArrayList<GameRecord>(count);
+        for (var i = 0; i < count; i++) {
+            var red = 1 + random.nextInt(players);
+            var black = 1 + random.nextInt(players);
+            var winner = random.nextInt(10) == 0 ? -1 : random.nextBoolean() ? red : black;
+            var record = BenchmarkSuite.sampleRecord(red, black, winner, "7174 0122 7774 2924", random);
+            if (winner == -1) record.setWinnerName("和棋");
+            games.add(record);
+        }
+        return games;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
@@ -0,0 +1,277 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// 一种子力组合 (如 KR-KAA: 红方帅车, 黑方将双士) 的残局库
+// 索引: 每枚棋子占一个槽位, 槽位只取该棋子能到达的格子 (帅 9 格, 仕 5 格, 相 7 格, 兵 55 格, 其余 90 格),
+//       按槽位混合进制编号, 最低位为走棋方; 同种棋子的不同排列对应不同索引, 值相同
+// 值 (从走棋方来看): INVALID 不可能出现的局面, DRAW 和棋, 2 + d 为 d 步 (半回合) 后将死对方 (d 为奇数) 或被将死 (d 为偶数)
+// 困毙在象棋中算负, 与将死同样处理; 长将、长捉等禁着规则不在库中体现, 只按能否强制将死区分胜负和
+// 文件格式 (小端): 魔数 "XQTB", 版本号, 每项位数, 保留, 表项数 long, 之后为按位紧密排列的值, 末尾补 8 个零字节
+// 生成时值保存在 short 数组中 (见 TablebaseGenerator); 查询时通过 MappedByteBuffer 读取, 不分配内存
+public final class EndgameTable {
+    public static final int INVALID = 0;
+    public static final int DRAW = 1;
+
+    static final int MAGIC = 0x42545158;  // "XQTB"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+
+    // 下标为棋子类型 (Position.ROOK .. Position.PAWN)
+    private static final String LETTERS = " RNBAKCP";
+    // 签名中棋子的书写顺序
+    private static final String ORDER = "KRNCPAB";
+
+    private final String signature;
+    private final long material;
+    private final int[] slotPiece;
+    private final int[][] domainIndex;   // [槽位][格子] -> 该槽位内的编号, 不可到达为 -1
+    private final int[][] domainSquares; // [槽位][编号] -> 格子
+    private final long[] radix;
+    private final int[] firstSlot = new int[15];
+    private final long size;
+
+    private short[] values;          // 生成时
+    private MappedByteBuffer buffer; // 查询时
+    private int bits;
+    private long mask;
+
+    public EndgameTable(String signature) {
+        this.signature = signature;
+        var pieces = parse(signature);
+        this.slotPiece = pieces;
+        this.domainIndex = new int[pieces.length][];
+        this.domainSquares = new int[pieces.length][];
+        this.radix = new long[pieces.length];
+        Arrays.fill(firstSlot, -1);
+
+        long material = 0;
+        long size = 2;
+        for (var slot = pieces.length - 1; slot >= 0; slot--) {
+            var piece = pieces[slot];
+            material += Position.materialUnit(piece);
+            firstSlot[piece] = slot;  // 同种棋子相邻, 倒序遍历后留下的是第一个
+            domainIndex[slot] = new int[Position.SQUARES];
+            var squares = new ArrayList<Integer>();
+            for (var sq = 0; sq < Position.SQUARES; sq++) {
+                domainIndex[slot][sq] = reachable(piece, sq) ? squares.size() : -1;
+                if (domainIndex[slot][sq] >= 0) squares.add(sq);
+            }
+            domainSquares[slot] = squares.stream().mapToInt(Integer::intValue).toArray();
+            radix[slot] = size / 2;
+            size *= squares.size();
+        }
+        this.material = material;
+        this.size = size;
+    }
+
+    /* ==================== signature ==================== */
+
+    // "KR-KAA" -> 槽位上的棋子编码, 红方在前; 每方必须恰有一个 K
+    static int[] parse(String signature) {
+        var sides = signature.toUpperCase().split("-");
+        if (sides.length != 2) throw new IllegalArgumentException("签名格式应为 红方-黑方, 如 KR-KAA: " + signature);
+        var pieces = new ArrayList<Integer>();
+        for (var color = Position.RED; color <= Position.BLACK; color++) {
+            var side = sides[color];
+            if (side.chars().filter(c -> c == 'K').count() != 1) {
+                throw new IllegalArgumentException("每方必须恰有一个 K: " + signature);
+            }
+            for (var letter : ORDER.toCharArray()) {
+                for (var c : side.toCharArray()) {
+                    if (c == letter) pieces.add(Position.piece(color, LETTERS.indexOf(c)));
+                }
+            }
+            for (var c : side.toCharArray()) {
+                if (ORDER.indexOf(c) < 0) throw new IllegalArgumentException("未知棋子 " + c + ": " + signature);
+            }
+        }
+        return pieces.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // 规范写法: 按书写顺序排列; canonical 为 true 时让子力更强的一方 (按 ORDER 逐项比较数量) 作为红方
+    static String normalize(int[] pieces, boolean canonical) {
+        var sides = new StringBuilder[]{new StringBuilder(), new StringBuilder()};
+        for (var letter : ORDER.toCharArray()) {
+            for (var piece : pieces) {
+                if (LETTERS.charAt(Position.typeOf(piece)) == letter) sides[Position.colorOf(piece)].append(letter);
+            }
+        }
+        var red = sides[0].toString();
+        var black = sides[1].toString();
+        if (canonical && compareSides(red, black) < 0) {
+            return black + "-" + red;
+        }
+        return red + "-" + black;
+    }
+
+    private static int compareSides(String a, String b) {
+        for (var letter : ORDER.toCharArray()) {
+            var c = Long.compare(a.chars().filter(x -> x == letter).count(), b.chars().filter(x -> x == letter).count());
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    // 颜色互换后的子力构成
+    static long mirrorMaterial(long material) {
+        long mirrored = 0;
+        for (var piece = 1; piece <= 14; piece++) {
+            var count = (material >>> (piece * 4)) & 0xF;
+            mirrored += count * Position.materialUnit(mirrorPiece(piece));
+        }
+        return mirrored;
+    }
+
+    static int mirrorPiece(int piece) {
+        return piece > 7 ? piece - 7 : piece + 7;
+    }
+
+    static int mirrorSquare(int square) {
+        return Position.square(9 - Position.row(square), Position.col(square));
+    }
+
+    private static boolean reachable(int piece, int sq) {
+        var color = Position.colorOf(piece);
+        var row = Position.row(sq);
+        var col = Position.col(sq);
+        return switch (Position.typeOf(piece)) {
+            case Position.KING -> Position.inPalace(color, row, col);
+            case Position.ADVISOR -> Position.inPalace(color, row, col)
+                    && Math.abs(col - 4) == Math.abs(row - (color == Position.RED ? 8 : 1));
+            case Position.ELEPHANT -> {
+                var distance = Math.abs(row - (color == Position.RED ? 9 : 0));
+                yield Position.ownHalf(color, row) && distance % 2 == 0
+                        && (distance % 4 == 0 ? col == 2 || col == 6 : col % 4 == 0);
+            }
+            case Position.PAWN -> color == Position.RED
+                    ? row <= 4 || (row <= 6 && col % 2 == 0)
+                    : row >= 5 || (row >= 3 && col % 2 == 0);
+            default -> true;
+        };
+    }
+
+    /* ==================== index ==================== */
+
+    public String getSignature() { return signature; }
+    public long getMaterial() { return material; }
+    public long size() { return size; }
+    public int pieceCount() { return slotPiece.length; }
+
+    int slotCount() { return slotPiece.length; }
+    int slotPiece(int slot) { return slotPiece[slot]; }
+    long radix(int slot) { return radix[slot]; }
+    int domainIndex(int slot, int square) { return domainIndex[slot][square]; }
+
+    // 局面在本表中的索引; mirrored 为 true 时先把局面上下翻转并互换颜色 (局面子力与本表颜色相反时)
+    // 子力与本表不符或棋子在不可到达的格子上时返回 -1; 不分配内存
+    public long index(Position position, boolean mirrored) {
+        long index = 0;
+        long seen = 0;  // 每种棋子已经分配了几个槽位, 4 位一组
+        for (var sq = 0; sq < Position.SQUARES; sq++) {
+            var piece = position.pieceAt(sq);
+            if (piece == Position.EMPTY) continue;
+            var square = sq;
+            if (mirrored) {
+                piece = mirrorPiece(piece);
+                square = mirrorSquare(sq);
+            }
+            var first = firstSlot[piece];
+            if (first < 0) return -1;
+            var slot = first + (int) ((seen >>> (piece * 4)) & 0xF);
+            seen += Position.materialUnit(piece);
+            if (slot >= slotPiece.length || slotPiece[slot] != piece) return -1;
+            var digit = domainIndex[slot][square];
+            if (digit < 0) return -1;
+            index += digit * radix[slot];
+        }
+        var side = mirrored ? position.sideToMove() ^ 1 : position.sideToMove();
+        return index * 2 + side;
+    }
+
+    // 按索引摆出局面, squares 收到每个槽位所在的格子; 有两枚棋子在同一格时返回 false
+    boolean decode(long index, Position position, int[] squares) {
+        position.clear();
+        position.setSideToMove((int) (index & 1));
+        var rest = index >>> 1;
+        for (var slot = 0; slot < slotPiece.length; slot++) {
+            var digit = (int) (rest / radix[slot] % domainSquares[slot].length);
+            var sq = domainSquares[slot][digit];
+            if (position.pieceAt(sq) != Position.EMPTY) return false;
+            position.put(sq, slotPiece[slot]);
+            squares[slot] = sq;
+        }
+        return true;
+    }
+
+    /* ==================== values ==================== */
+
+    void setValues(short[] values) {
+        this.values = values;
+    }
+
+    public int code(long index) {
+        if (values != null) return values[(int) index];
+        var bit = index * bits;
+        var word = buffer.getLong((int) (HEADER_BYTES + (bit >>> 3)));
+        return (int) ((word >>> (bit & 7)) & mask);
+    }
+
+    public static boolean isWin(int code) { return code >= 2 && ((code - 2) & 1) == 1; }
+    public static boolean isLoss(int code) { return code >= 2 && ((code - 2) & 1) == 0; }
+    public static int distance(int code) { return code - 2; }
+
+    public static EndgameTable open(Path path) throws IOException {
+        var name = path.getFileName().toString();
+        var table = new EndgameTable(name.substring(0, name.lastIndexOf('.')));
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var fileSize = channel.size();
+            if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("残局库文件大小无效: " + path);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            var bits = buffer.getInt(8);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || bits < 1 || bits > 32
+                    || buffer.getLong(16) != table.size
+                    || fileSize != HEADER_BYTES + (table.size * bits + 7) / 8 + 8) {
+                throw new IOException("残局库文件与签名不符: " + path);
+            }
+            table.buffer = buffer;
+            table.bits = bits;
+            table.mask = (1L << bits) - 1;
+        }
+        return table;
+    }
+
+    // 把生成好的值按最少位数紧密写入文件
+    void write(Path path) throws IOException {
+        var max = 0;
+        for (var value : values) max = Math.max(max, value);
+        var bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+        var packed = new byte[(int) ((size * bits + 7) / 8) + 8];
+        for (long i = 0; i < size; i++) {
+            var value = values[(int) i];
+            var bit = i * bits;
+            for (var b = 0; b < bits; b++, bit++) {
+                if ((value >>> b & 1) != 0) packed[(int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+            }
+        }
+        var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bits).putInt(0).putLong(size);
+        try (var out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            out.write(header.array());
+            out.write(packed);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package src;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 服务器内置的电脑棋手: 和网络连接一样占一个座位, 只通过协议消息了解局面
+// 收到轮到自己的 BOARD 后把搜索交给共享的搜索线程池 (多线程搜索的辅助任务也在这个池上), 结果再投递回房间工作线程, 经 handleMove 走子
+// 开局库中有当前局面时直接按库走子, 不启动搜索; 搜索到残局库范围内的局面时直接取库中结果
+// 搜索期间局面又变化 (对局重开、房间关闭) 时中止搜索, 过期的结果被丢弃
+public class EnginePlayer implements Seat {
+    public static final String NAME = "电脑";
+
+    // 每步思考时间、最大深度、置换表大小和每步搜索使用的线程数
+    public record Settings(long timeMillis, int maxDepth, int hashMegabytes, int threads) {
+        public Settings withThreads(int threads) {
+            return new Settings(timeMillis, maxDepth, hashMegabytes, threads);
+        }
+    }
+
+    private final Settings settings;
+    private final ExecutorService searchPool;
+    private final LazySmpSearch engine;
+    private final OpeningBook book;  // 可以为 null
+    private final long startHash = new Position().hash();
+
+    private volatile GameRoom room;
+    private volatile String playerColor;
+    private volatile long latestVersion = -1;
+
+    // 以下只在房间工作线程上读写
+    private long[] gameHashes = new long[64];
+    private int gameLength = 0;
+
+    // book 和 tablebase 都可以为 null
+    public EnginePlayer(Settings settings, ExecutorService searchPool, OpeningBook book, Tablebase tablebase) {
+        this.settings = settings;
+        this.searchPool = searchPool;
+        this.book = book;
+        this.engine = new LazySmpSearch(new TranspositionTable(settings.hashMegabytes()), settings.threads(), searchPool);
+        this.engine.setTablebase(tablebase);
+    }
+
+    @Override
+    public void send(String message) {
+        // 只关心棋盘, 其余消息 (聊天、计时、错误提示) 忽略
+        if (message.startsWith("BOARD:")) {
+            onBoard(message);
+        }
+    }
+
+    @Override
+    public void send(OutboundQueue.Frame frame) {
+        if (frame.kind() == OutboundQueue.Frame.Kind.BOARD) {
+            onBoard(frame.message());
+        }
+    }
+
+    private void onBoard(String message) {
+        var version = BoardSnapshot.versionOf(message);
+        if (version == latestVersion) return;  // 同一版本的重复推送
+        latestVersion = version;
+        engine.stop();
+
+        var position = BoardSnapshot.decode(message);
+        var hash = position.hash();
+        if (hash == startHash) {
+            gameLength = 0;
+        }
+        var history = Arrays.copyOf(gameHashes, gameLength);
+        if (gameLength == gameHashes.length) {
+            gameHashes = Arrays.copyOf(gameHashes, gameLength * 2);
+        }
+        gameHashes[gameLength++] = hash;
+
+        var room = this.room;
+        var color = playerColor;
+        if (room == null || color == null || !color.equals(Position.colorName(position.sideToMove()))) return;
+
+        if (book != null) {
+            var move = book.probe(hash, ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE);
+            if (move != 0 && MoveGenerator.isLegal(position, MoveGenerator.from(move), MoveGenerator.to(move))) {
+                play(room, version, move);
+                return;
+            }
+        }
+
+        searchPool.execute(() -> {
+            // 同一棋手的搜索串行执行, 上一次被中止的搜索先退出
+            synchronized (engine) {
+                if (latestVersion != version) return;
+                var result = engine.search(position, history, settings.timeMillis(), settings.maxDepth());
+                if (result.move() == 0 || latestVersion != version) return;
+                play(room, version, result.move());
+            }
+        });
+    }
+
+    // 投递回房间工作线程走子; 届时局面已变化则放弃
+    private void play(GameRoom room, long version, int move) {
+        var from = MoveGenerator.from(move);
+        var to = MoveGenerator.to(move);
+        var moveData = Position.row(from) + "," + Position.col(from) + "," +
+                Position.row(to) + "," + Position.col(to);
+        room.execute(() -> {
+            if (latestVersion == version && this.room == room) {
+                room.handleMove(this, moveData);
+            }
+        });
+    }
+
+    @Override
+    public GameRoom getRoom() {
+        return room;
+    }
+
+    @Override
+    public void setRoom(GameRoom room, String playerColor) {
+        this.room = room;
+        this.playerColor = playerColor;
+        if (room == null) {
+            latestVersion = -1;
+            engine.stop();
+        }
+    }
+
+    @Override
+    public String getPlayerColor() {
+        return playerColor;
+    }
+
+    @Override
+    public String getPlayerName() {
+        return NAME;
+    }
+
+    // 不对应数据库中的玩家, 对局不计入战绩
+    @Override
+    public int getPlayerId() {
+        return -1;
+    }
+
+    @Override
+    public boolean isDeltaEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isClockEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isLegalMovesEnabled() {
+        return false;
+    }
+}
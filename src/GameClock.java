@@ -0,0 +1,99 @@
+package src;
+
+// 一局棋双方的棋钟, 只在房间工作线程上读写
+// 时间一律用 System.nanoTime (单调时钟), 不受系统时间调整影响; 只有走棋方的钟在走
+// 走子时由服务器扣除用时并判断是否已超时, 计时器到点只是提醒房间来检查, 判负以本类的计算为准
+final class GameClock {
+    private final TimeControl control;
+    private final long[] remaining = new long[2];  // 基本时间剩余 (纳秒)
+    private final int[] periods = new int[2];      // 读秒剩余次数
+    private int running = -1;                       // 正在走的一方, -1 为停止
+    private long turnStart;                         // 当前一方开始思考的时刻
+
+    GameClock(TimeControl control) {
+        this.control = control;
+        reset();
+    }
+
+    TimeControl getControl() {
+        return control;
+    }
+
+    void reset() {
+        for (var side = Position.RED; side <= Position.BLACK; side++) {
+            remaining[side] = control.baseMillis() * 1_000_000;
+            periods[side] = control.periods();
+        }
+        running = -1;
+    }
+
+    boolean isRunning() {
+        return running >= 0;
+    }
+
+    int running() {
+        return running;
+    }
+
+    void start(int side, long now) {
+        running = side;
+        turnStart = now;
+    }
+
+    // 走棋方走完一步: 扣除用时、加秒, 换对方计时; 返回 false 表示这一步之前已经超时 (钟随之停止)
+    boolean moveMade(long now) {
+        var side = running;
+        if (!consume(side, now - turnStart)) {
+            running = -1;
+            return false;
+        }
+        remaining[side] += control.incrementMillis() * 1_000_000;
+        start(side ^ 1, now);
+        return true;
+    }
+
+    // 终局时停钟, 把走棋方这一步已用的时间记上
+    void stop(long now) {
+        if (running < 0) return;
+        consume(running, now - turnStart);
+        running = -1;
+    }
+
+    // 走棋方的超时时刻: 基本时间加上剩余的全部读秒周期
+    long deadline() {
+        return turnStart + remaining[running] + periods[running] * control.periodMillis() * 1_000_000;
+    }
+
+    boolean flagged(long now) {
+        return running >= 0 && now >= deadline();
+    }
+
+    // 某一方此刻的基本时间剩余 (毫秒), 走棋方扣除本步已用时间
+    long remainingMillis(int side, long now) {
+        var left = remaining[side];
+        if (side == running) left = Math.max(0, left - (now - turnStart));
+        return left / 1_000_000;
+    }
+
+    int periodsLeft(int side) {
+        return periods[side];
+    }
+
+    private boolean consume(int side, long used) {
+        if (used <= remaining[side]) {
+            remaining[side] -= used;
+            return true;
+        }
+        var over = used - remaining[side];
+        remaining[side] = 0;
+        if (!control.isByoyomi()) return false;
+        // 在一个周期内走完不消耗周期, 每多用满一个周期消耗一次
+        var lost = over / (control.periodMillis() * 1_000_000);
+        if (lost >= periods[side]) {
+            periods[side] = 0;
+            return false;
+        }
+        periods[side] -= (int) lost;
+        return true;
+    }
+}
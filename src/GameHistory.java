@@ -0,0 +1,80 @@
+package src;
+
+import java.util.HashMap;
+
+// 一局棋的局面历史与重复局面裁决, 每步的记录和判断都是 O(1), 不回扫历史
+// 最近 CAPACITY 个局面的哈希保存在环形缓冲区中, 同时按哈希统计出现次数和首次出现的步数
+// 连续将军的步数按双方分别累计, 局面第三次出现时据此判断是否为长将
+// 只在房间工作线程上使用
+public class GameHistory {
+    private static final int CAPACITY = 1024;
+
+    public enum Verdict {
+        NONE,
+        DRAW,            // 三次重复局面, 双方都未长将 (或都在长将)
+        RED_PERPETUAL,   // 红方长将, 判负
+        BLACK_PERPETUAL  // 黑方长将, 判负
+    }
+
+    private static final class Occurrence {
+        int count;
+        int firstPly;
+    }
+
+    private final long[] ring = new long[CAPACITY];
+    private final HashMap<Long, Occurrence> occurrences = new HashMap<>();
+    private final int[] checkStreak = new int[2];
+    private int ply = 0;
+
+    public void reset(long initialHash) {
+        occurrences.clear();
+        checkStreak[Position.RED] = 0;
+        checkStreak[Position.BLACK] = 0;
+        ply = 0;
+        add(initialHash);
+    }
+
+    // mover 刚走完一步, 走后局面为 hash, givesCheck 表示这步是否将军
+    public Verdict record(long hash, int mover, boolean givesCheck) {
+        ply++;
+        checkStreak[mover] = givesCheck ? checkStreak[mover] + 1 : 0;
+        if (ply >= CAPACITY) {
+            evict(ring[ply % CAPACITY]);
+        }
+        var occurrence = add(hash);
+        if (occurrence.count < 3) return Verdict.NONE;
+
+        // 两次重复之间每方各走了 span/2 步, 一方在此期间每步都将军即为长将
+        var movesEach = (ply - occurrence.firstPly) / 2;
+        var redPerpetual = checkStreak[Position.RED] >= movesEach;
+        var blackPerpetual = checkStreak[Position.BLACK] >= movesEach;
+        if (redPerpetual && !blackPerpetual) return Verdict.RED_PERPETUAL;
+        if (blackPerpetual && !redPerpetual) return Verdict.BLACK_PERPETUAL;
+        return Verdict.DRAW;
+    }
+
+    public int getPly() {
+        return ply;
+    }
+
+    public int getCount(long hash) {
+        var occurrence = occurrences.get(hash);
+        return occurrence != null ? occurrence.count : 0;
+    }
+
+    private Occurrence add(long hash) {
+        ring[ply % CAPACITY] = hash;
+        var occurrence = occurrences.computeIfAbsent(hash, h -> new Occurrence());
+        if (occurrence.count == 0) occurrence.firstPly = ply;
+        occurrence.count++;
+        return occurrence;
+    }
+
+    // 超出窗口的局面不再参与计数; 首次出现的步数不回退, 判长将时只会更保守
+    private void evict(long hash) {
+        var occurrence = occurrences.get(hash);
+        if (occurrence != null && --occurrence.count == 0) {
+            occurrences.remove(hash);
+        }
+    }
+}
@@ -23,6 +23,12 @@ public class GameRecord implements Serializable {
     private LocalDateTime startTime;
     private LocalDateTime endTime;
 
+    // 着法序列: 每步为 "起点行 起点列 终点行 终点列" 四位数字, 步与步之间以空格分隔
+    private String moves;
+
+    // 用时规则 (格式见 TimeControl), 不计时的对局为 null
+    private String timeControl;
+
     public GameRecord() {}
 
     public GameRecord(int redPlayerId, String redPlayerName,
@@ -66,6 +72,12 @@ public class GameRecord implements Serializable {
     public LocalDateTime getEndTime() { return endTime; }
     public void setEndTime(LocalDateTime endTime) { this.endTime = endTime; }
 
+    public String getMoves() { return moves; }
+    public void setMoves(String moves) { this.moves = moves; }
+
+    public String getTimeControl() { return timeControl; }
+    public void setTimeControl(String timeControl) { this.timeControl = timeControl; }
+
     @Override
     public String toString() {
         return String.format("[%s] %s vs %s -> Winner: %s (%ds)",
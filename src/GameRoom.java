@@ -0,0 +1,502 @@
+package src;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 一个房间即一局对弈: 棋盘、回合、红黑座位、观战者和计时都属于房间
+// 对局状态只在房间所属的工作线程上读写, 座位和观战者由 ClientRegistry 索引
+public class GameRoom {
+    private final int roomId;
+    private final ScheduledExecutorService worker;
+    private final PersistenceQueue persistence;
+    private final ClientRegistry registry;
+    private final Tablebase tablebase;  // 可以为 null
+
+    // 棋盘与回合方; 文字形式只在生成 BOARD/DELTA 消息时产生
+    private final Position position = new Position();
+    // 局面哈希历史, 用于重复局面和长将裁决
+    private final GameHistory history = new GameHistory();
+    // 本局着法, 终局时随对局记录保存 (格式见 GameRecord.moves)
+    private final StringBuilder moveList = new StringBuilder();
+    private long gameStartTime = System.currentTimeMillis();
+    private long gameEndTime = 0;
+    private boolean gameEnded = false;
+
+    // 旧客户端的 TIME 消息: 每秒最多格式化一次, 同一秒内房间内共享
+    private long timeFrameSecond = -1;
+    private OutboundQueue.Frame timeFrame;
+
+    // 局面每变化一次版本号加一, 对应的编码快照在下一次变化前一直复用
+    private long boardVersion = 0;
+    private BoardSnapshot snapshot;
+    // 当前版本回合方的全部合法走法, 与快照一样按版本缓存, 由 currentLegalMoves 生成
+    private OutboundQueue.Frame legalFrame;
+    private final int[] legalMoves = new int[MoveGenerator.MAX_MOVES];
+
+    // 只有一方入座时开始等待的时刻, 0 表示不在等待; 计时线程据此安排电脑棋手
+    private volatile long waitingSince = 0;
+
+    // 观战分析, 服务器关闭了分析时为 null
+    private RoomAnalysis analysis;
+
+    // 双方棋钟, 服务器未设置 --time-control 时为 null; 超时由共享时间轮提醒, 房间线程上复核
+    private GameClock clock;
+    private TimerWheel timerWheel;
+    private TimerWheel.Timeout flagTimeout;
+
+    // record exact game start time
+    private LocalDateTime gameStartTimeExact = null;
+
+    public GameRoom(int roomId, ScheduledExecutorService worker, PersistenceQueue persistence,
+                    ClientRegistry registry, Tablebase tablebase) {
+        this.roomId = roomId;
+        this.worker = worker;
+        this.persistence = persistence;
+        this.registry = registry;
+        this.tablebase = tablebase;
+        history.reset(position.hash());
+    }
+
+    public int getRoomId() { return roomId; }
+
+    // 需在房间对外可见之前设置
+    void setAnalysis(RoomAnalysis analysis) {
+        this.analysis = analysis;
+    }
+
+    // 需在房间对外可见之前设置
+    void setTimeControl(TimeControl control, TimerWheel timerWheel) {
+        this.clock = new GameClock(control);
+        this.timerWheel = timerWheel;
+    }
+
+    // 所有对局操作都投递到房间的工作线程串行执行
+    public void execute(Runnable task) {
+        worker.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.out.println("房间 " + roomId + " 处理失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /* ==================== seats ==================== */
+
+    String join(Seat client) {
+        var color = registry.seat(roomId, client);
+        client.setRoom(this, color);
+        updateWaiting();
+
+        execute(() -> {
+            client.send("ROOM:" + roomId);
+            client.send("COLOR:" + color);
+            sendBoardTo(client);
+            sendLegalMovesTo(client);
+            sendClockTo(client);
+            broadcastMessage("系统", color + "方玩家已加入");
+        });
+        return color;
+    }
+
+    void leave(Seat client) {
+        if (!registry.unseat(roomId, client)) return;
+        updateWaiting();
+        var color = client.getPlayerColor();
+        execute(() -> {
+            if (analysis != null) analysis.unsubscribe(client);
+            broadcastMessage("系统", color + "方玩家已离开");
+        });
+    }
+
+    boolean hasOpenSeat() {
+        return registry.getRed(roomId) == null || registry.getBlack(roomId) == null;
+    }
+
+    boolean isWaitingForOpponent() {
+        return (registry.getRed(roomId) == null) != (registry.getBlack(roomId) == null);
+    }
+
+    boolean isEmpty() {
+        return registry.isEmpty(roomId);
+    }
+
+    long getWaitingSince() {
+        return waitingSince;
+    }
+
+    private void updateWaiting() {
+        if (!isWaitingForOpponent()) {
+            waitingSince = 0;
+        } else if (waitingSince == 0) {
+            waitingSince = System.currentTimeMillis();
+        }
+    }
+
+    // 房间里是否还有真人 (对弈或观战)
+    boolean hasHumans() {
+        var found = new boolean[1];
+        registry.forEachInRoom(roomId, client -> found[0] |= !(client instanceof EnginePlayer));
+        return found[0];
+    }
+
+    List<EnginePlayer> getEngines() {
+        var engines = new ArrayList<EnginePlayer>();
+        registry.forEachInRoom(roomId, client -> {
+            if (client instanceof EnginePlayer engine) engines.add(engine);
+        });
+        return engines;
+    }
+
+    // LIST_ROOMS 中的一项: 房间号|红方|黑方|观战人数|状态
+    String describe() {
+        var red = registry.getRed(roomId);
+        var black = registry.getBlack(roomId);
+        return roomId + "|" + seatName(red) + "|" + seatName(black) + "|" +
+                registry.spectatorCount(roomId) + "|" + (red != null && black != null ? "对局中" : "等待中");
+    }
+
+    private static String seatName(Seat client) {
+        if (client == null) return "-";
+        return client.getPlayerName() != null ? client.getPlayerName() : "游客";
+    }
+
+    Seat getOpponent(Seat client) {
+        return registry.getOpponent(roomId, client);
+    }
+
+    /* ==================== clock ==================== */
+
+    // 每秒由 RoomManager 投递到房间工作线程执行
+    // 开启了 CLOCK 的连接在本地根据开局时间自行走表, 只在 sync 为 true 时收到一次校正; 其余连接仍每秒收 TIME
+    void tick(boolean sync) {
+        if (gameEnded) return;
+        var clock = sync ? clockFrame() : null;
+        registry.forEachInRoom(roomId, client -> {
+            if (!client.isClockEnabled()) {
+                client.send(timeFrame());
+            } else if (clock != null) {
+                client.send(clock);
+            }
+        });
+    }
+
+    private OutboundQueue.Frame timeFrame() {
+        var elapsedSeconds = (System.currentTimeMillis() - gameStartTime) / 1000;
+        if (elapsedSeconds != timeFrameSecond) {
+            var minutes = elapsedSeconds / 60;
+            var seconds = elapsedSeconds % 60;
+            timeFrame = OutboundQueue.Frame.of("TIME:" + (minutes < 10 ? "0" : "") + minutes +
+                    (seconds < 10 ? ":0" : ":") + seconds);
+            timeFrameSecond = elapsedSeconds;
+        }
+        return timeFrame;
+    }
+
+    // CLOCK:已用毫秒,running|stopped  客户端据此推算本地的开局时刻, 不依赖两端系统时钟一致
+    private OutboundQueue.Frame clockFrame() {
+        var now = gameEnded ? gameEndTime : System.currentTimeMillis();
+        return OutboundQueue.Frame.of("CLOCK:" + (now - gameStartTime) + "," + (gameEnded ? "stopped" : "running"));
+    }
+
+    void sendClockTo(Seat client) {
+        if (client.isClockEnabled()) {
+            client.send(clockFrame());
+        }
+        if (clock != null) {
+            client.send(clocksFrame());
+        }
+    }
+
+    // 开局、终局时通知所有 CLOCK 连接
+    private void broadcastClock() {
+        var frame = clockFrame();
+        registry.forEachInRoom(roomId, client -> {
+            if (client.isClockEnabled()) client.send(frame);
+        });
+    }
+
+    // CLOCKS:红方剩余毫秒,黑方剩余毫秒,红方读秒次数,黑方读秒次数,走钟方 (红/黑/none),用时规则
+    // 剩余时间为基本时间, 用完后进入读秒; 在开局、每步和终局时发送, 客户端在两次之间本地走表
+    private OutboundQueue.Frame clocksFrame() {
+        var now = System.nanoTime();
+        return OutboundQueue.Frame.of("CLOCKS:" + clock.remainingMillis(Position.RED, now) + "," +
+                clock.remainingMillis(Position.BLACK, now) + "," + clock.periodsLeft(Position.RED) + "," +
+                clock.periodsLeft(Position.BLACK) + "," +
+                (clock.isRunning() ? Position.colorName(clock.running()) : "none") + "," + clock.getControl());
+    }
+
+    private void broadcastClocks() {
+        var frame = clocksFrame();
+        registry.forEachInRoom(roomId, client -> client.send(frame));
+    }
+
+    // 每走一步重新登记走钟方的超时时刻; 到点时投递回房间线程复核
+    private void scheduleFlag() {
+        timerWheel.cancel(flagTimeout);
+        flagTimeout = clock.isRunning() ? timerWheel.schedule(clock.deadline(), () -> execute(this::checkFlag)) : null;
+    }
+
+    private void checkFlag() {
+        if (gameEnded || clock == null || !clock.isRunning()) return;
+        if (!clock.flagged(System.nanoTime())) {
+            scheduleFlag();
+            return;
+        }
+        var loser = clock.running();
+        endGame(Position.colorName(loser ^ 1), Position.colorName(loser) + "方超时判负");
+    }
+
+    void handleMove(Seat mover, String moveData) {
+        var playerColor = mover.getPlayerColor();
+        if (gameEnded) {
+            mover.send("ERROR:游戏已结束，请等待重新开始!");
+            return;
+        }
+        
+        if (!playerColor.equals(Position.colorName(position.sideToMove()))) {
+            mover.send("ERROR:不是你的回合!");
+            return;
+        }
+        
+        var parts = moveData.split(",");
+        var fromRow = Integer.parseInt(parts[0]);
+        var fromCol = Integer.parseInt(parts[1]);
+        var toRow = Integer.parseInt(parts[2]);
+        var toCol = Integer.parseInt(parts[3]);
+        
+        if (!Position.onBoard(fromRow, fromCol) || !Position.onBoard(toRow, toCol)) {
+            mover.send("ERROR:无效的移动!");
+            return;
+        }
+        var from = Position.square(fromRow, fromCol);
+        var to = Position.square(toRow, toCol);
+        var piece = position.pieceAt(from);
+        if (piece == Position.EMPTY || Position.colorOf(piece) != position.sideToMove()
+                || !position.isValidMove(from, to)) {
+            mover.send("ERROR:无效的移动!");
+            return;
+        }
+        if (MoveGenerator.leavesInCheck(position, from, to)) {
+            mover.send(MoveGenerator.isInCheck(position, position.sideToMove())
+                    ? "ERROR:正在被将军，必须应将!" : "ERROR:不能送将!");
+            return;
+        }
+
+        // 以服务器收到走子的时刻为准; 走子前已超时则判负, 这一步不算
+        var now = System.nanoTime();
+        if (clock != null && clock.isRunning() && !clock.moveMade(now)) {
+            endGame(Position.colorName(position.sideToMove() ^ 1), playerColor + "方超时判负");
+            return;
+        }
+
+        var captured = position.makeMove(from, to);
+        if (!moveList.isEmpty()) moveList.append(' ');
+        moveList.append(fromRow).append(fromCol).append(toRow).append(toCol);
+        boardChanged();
+        // 红方第一步走完才开始计时
+        if (clock != null) {
+            if (!clock.isRunning()) clock.start(position.sideToMove(), now);
+            scheduleFlag();
+        }
+        broadcastMove(fromRow, fromCol, toRow, toCol, Position.pieceName(captured));
+        if (clock != null) broadcastClocks();
+        broadcastMessage("系统", playerColor + "方移动了棋子");
+
+        // 对方无合法走法即告负: 被将军为将死, 否则为困毙
+        var opponent = position.sideToMove();
+        var check = MoveGenerator.isInCheck(position, opponent);
+        if (!MoveGenerator.hasLegalMove(position)) {
+            endGame(playerColor, playerColor + "方" + (check ? "将死" : "困毙") + "对方");
+            return;
+        }
+        if (check) {
+            broadcastMessage("系统", "将军!");
+        }
+        // 残局库中双方都无法强制取胜的局面直接判和
+        if (tablebase != null && tablebase.probe(position) == EndgameTable.DRAW) {
+            endGame(null, "残局库判定为和棋");
+            return;
+        }
+
+        switch (history.record(position.hash(), Position.colorOf(piece), check)) {
+            case RED_PERPETUAL -> endGame("黑", "红方长将，判负");
+            case BLACK_PERPETUAL -> endGame("红", "黑方长将，判负");
+            case DRAW -> endGame(null, "同一局面重复三次");
+            default -> sendLegalMoves();  // 未终局才推送下一方的合法走法
+        }
+    }
+
+    // 结束对局: 广播结果、保存记录, 3 秒后自动开始新的一局; winnerColor 为 null 表示和棋
+    private void endGame(String winnerColor, String description) {
+        gameEnded = true;
+        gameEndTime = System.currentTimeMillis();
+        var gameTime = (gameEndTime - gameStartTime) / 1000;
+        broadcastClock();
+        if (clock != null) {
+            clock.stop(System.nanoTime());
+            scheduleFlag();
+            broadcastClocks();
+        }
+        broadcastMessage("系统", winnerColor != null ? winnerColor + "方获胜!" : "和棋!");
+        broadcastMessage("游戏结束", description + "，用时" + gameTime + "秒");
+
+        // 交给写线程异步落盘, 房间线程不等待磁盘
+        var red = registry.getRed(roomId);
+        var black = registry.getBlack(roomId);
+        if (red != null && black != null && red.getPlayerId() > 0 && black.getPlayerId() > 0) {
+            try {
+                var record = new GameRecord(red.getPlayerId(), red.getPlayerName(), 
+                                            black.getPlayerId(), black.getPlayerName());
+                record.setGameDurationSeconds((int) gameTime);
+                
+                // start with exact time
+                if (gameStartTimeExact != null) {
+                    record.setStartTime(gameStartTimeExact);
+                } else {
+                    // if no exact time, estimate based on duration
+                    record.setStartTime(LocalDateTime.now().minusSeconds(gameTime));
+                }
+                record.setEndTime(LocalDateTime.now());
+                record.setMoves(moveList.toString());
+                if (clock != null) record.setTimeControl(clock.getControl().toString());
+                
+                if (winnerColor != null) {
+                    var winner = winnerColor.equals("红") ? red : black;
+                    record.setWinnerId(winner.getPlayerId());
+                    record.setWinnerName(winner.getPlayerName());
+                } else {
+                    // 和棋沿用战绩面板的约定: winner_id 为 -1
+                    record.setWinnerId(-1);
+                    record.setWinnerName("和棋");
+                }
+                persistence.submit(record);
+                System.out.println("房间 " + roomId + " 对局已提交保存");
+            } catch (Exception e) {
+                System.out.println("保存对局记录失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        
+        // restart game after 3s delay
+        worker.schedule(() -> execute(this::resetGame), 3, TimeUnit.SECONDS);
+    }
+
+    private void resetGame() {
+        position.reset();
+        history.reset(position.hash());
+        moveList.setLength(0);
+        gameStartTime = System.currentTimeMillis();
+        gameStartTimeExact = LocalDateTime.now(); 
+        gameEnded = false;
+        if (clock != null) clock.reset();
+        boardChanged();
+        System.out.println("房间 " + roomId + " 新游戏开始，红方先走");
+        
+        sendBoardToAll();
+        sendLegalMoves();
+        broadcastClock();
+        if (clock != null) broadcastClocks();
+        broadcastMessage("系统", "新游戏开始！红方先走。");
+    }
+
+    // ANALYZE / ANALYZE_OFF, 只对观战者开放
+    void setAnalysisSubscriber(Seat client, boolean subscribe) {
+        if (analysis == null) {
+            client.send("ERROR:服务器未启用分析!");
+        } else if (subscribe) {
+            analysis.subscribe(client, boardVersion, position);
+        } else {
+            analysis.unsubscribe(client);
+        }
+    }
+
+    void sendBoardTo(Seat client) {
+        client.send(currentSnapshot().getFrame());
+    }
+
+    // LEGAL:版本号,着法... (着法为空格分隔的 4 位数字 行列行列, 格式同 GameRecord.moves)
+    // 只发给开启了 LEGAL_ON 且轮到走棋的一方; 对方的走法在局面变为它的回合时再推送
+    void sendLegalMovesTo(Seat client) {
+        if (gameEnded || !client.isLegalMovesEnabled()
+                || !Position.colorName(position.sideToMove()).equals(client.getPlayerColor())) return;
+        client.send(currentLegalMoves());
+    }
+
+    private void sendLegalMoves() {
+        var mover = position.sideToMove() == Position.RED ? registry.getRed(roomId) : registry.getBlack(roomId);
+        if (mover != null) sendLegalMovesTo(mover);
+    }
+
+    // LEGAL_MOVES:row,col 的应答: LEGAL_MOVES:版本号,row,col,目标... (目标为空格分隔的 2 位数字 行列)
+    // 不是回合方的棋子、空位或对局已结束时目标为空
+    void sendLegalTargets(Seat client, int row, int col) {
+        var sb = new StringBuilder("LEGAL_MOVES:").append(boardVersion).append(',')
+                .append(row).append(',').append(col).append(',');
+        if (!gameEnded && Position.onBoard(row, col)) {
+            var from = Position.square(row, col);
+            var count = MoveGenerator.generateLegal(position, legalMoves);
+            var first = true;
+            for (var i = 0; i < count; i++) {
+                if (MoveGenerator.from(legalMoves[i]) != from) continue;
+                var to = MoveGenerator.to(legalMoves[i]);
+                if (!first) sb.append(' ');
+                sb.append(Position.row(to)).append(Position.col(to));
+                first = false;
+            }
+        }
+        client.send(sb.toString());
+    }
+
+    private OutboundQueue.Frame currentLegalMoves() {
+        if (legalFrame == null) {
+            var count = MoveGenerator.generateLegal(position, legalMoves);
+            var sb = new StringBuilder("LEGAL:").append(boardVersion).append(',');
+            for (var i = 0; i < count; i++) {
+                var from = MoveGenerator.from(legalMoves[i]);
+                var to = MoveGenerator.to(legalMoves[i]);
+                if (i > 0) sb.append(' ');
+                sb.append(Position.row(from)).append(Position.col(from)).append(Position.row(to)).append(Position.col(to));
+            }
+            legalFrame = OutboundQueue.Frame.of(sb.toString());
+        }
+        return legalFrame;
+    }
+
+    void sendBoardToAll() {
+        var frame = currentSnapshot().getFrame();
+        registry.forEachInRoom(roomId, client -> client.send(frame));
+    }
+    
+    // 开启了增量协议的连接只收 DELTA:版本号,起点,终点,被吃棋子,当前回合方 (格子编号 = 行*9+列)
+    // 其余连接仍收完整 BOARD
+    private void broadcastMove(int fromRow, int fromCol, int toRow, int toCol, String capturedPiece) {
+        var delta = OutboundQueue.Frame.of("DELTA:" + boardVersion + "," + (fromRow * 9 + fromCol) + "," +
+                (toRow * 9 + toCol) + "," + (capturedPiece.equals("  ") ? "" : capturedPiece) + "," + Position.colorName(position.sideToMove()));
+        var full = currentSnapshot().getFrame();
+        registry.forEachInRoom(roomId, client -> client.send(client.isDeltaEnabled() ? delta : full));
+    }
+    
+    void broadcastMessage(String sender, String msg) {
+        var frame = OutboundQueue.Frame.of("CHAT:" + sender + ": " + msg);
+        registry.forEachInRoom(roomId, client -> client.send(frame));
+    }
+
+    private void boardChanged() {
+        boardVersion++;
+        snapshot = null;
+        legalFrame = null;
+        if (analysis != null) analysis.positionChanged(boardVersion, position);
+    }
+
+    private BoardSnapshot currentSnapshot() {
+        if (snapshot == null) {
+            snapshot = BoardSnapshot.encode(boardVersion, position);
+        }
+        return snapshot;
+    }
+}
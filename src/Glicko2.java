@@ -0,0 +1,110 @@
+package src;
+
+import java.util.function.DoubleUnaryOperator;
+
+// Glicko-2 等级分计算 (Glickman, "Example of the Glicko-2 system"): 每名玩家有等级分 r、等级分偏差 RD 和波动率 σ
+// RD 表示等级分的可信程度: 新玩家 350, 随对局减小, 不下棋时按 σ 回升; RD 大的对手的胜负对自己的影响也小
+// 评级周期内的全部对局一起计算, 只用周期开始时各人的等级分; 服务器实时更新时把每一局当作一个周期
+// 计算在 Glicko-2 内部刻度上进行: μ = (r - 1500) / 173.7178, φ = RD / 173.7178
+final class Glicko2 {
+    record Rating(double rating, double deviation, double volatility) {}
+
+    static final Rating INITIAL = new Rating(1500, 350, 0.06);
+    // RD 高于此值的等级分还不可靠 (约十局以内), 等级分排行榜不列出, 界面上加 "?" 标记
+    static final double PROVISIONAL_DEVIATION = 110;
+
+    private static final double SCALE = 173.7178;
+    private static final double TAU = 0.5;         // 系统常数, 限制波动率的变化速度
+    private static final double EPSILON = 0.000001;
+    private static final double MAX_PHI = INITIAL.deviation() / SCALE;
+
+    private Glicko2() {}
+
+    // 单局: score 为 1 胜、0.5 和、0 负
+    static Rating rate(Rating player, Rating opponent, double score) {
+        return rate(player, new double[]{opponent.rating()}, new double[]{opponent.deviation()},
+                new double[]{score}, 0, 1);
+    }
+
+    // 一个评级周期: 对手等级分、RD 和得分取自数组的 [from, to) 区间, 区间为空时只让 RD 回升一个周期
+    static Rating rate(Rating player, double[] opponentRatings, double[] opponentDeviations, double[] scores,
+                       int from, int to) {
+        if (from >= to) return idle(player, 1);
+        var mu = (player.rating() - 1500) / SCALE;
+        var phi = player.deviation() / SCALE;
+        var sigma = player.volatility();
+
+        // 估计方差 v 与改进量 Δ
+        var inverseV = 0.0;
+        var sum = 0.0;
+        for (var j = from; j < to; j++) {
+            var muJ = (opponentRatings[j] - 1500) / SCALE;
+            var g = g(opponentDeviations[j] / SCALE);
+            var e = 1 / (1 + Math.exp(-g * (mu - muJ)));
+            inverseV += g * g * e * (1 - e);
+            sum += g * (scores[j] - e);
+        }
+        var v = 1 / inverseV;
+        var delta = v * sum;
+
+        sigma = volatility(phi, sigma, v, delta);
+        var phiStar = Math.sqrt(phi * phi + sigma * sigma);
+        var newPhi = Math.min(MAX_PHI, 1 / Math.sqrt(1 / (phiStar * phiStar) + 1 / v));
+        var newMu = mu + newPhi * newPhi * sum;
+        return new Rating(SCALE * newMu + 1500, SCALE * newPhi, sigma);
+    }
+
+    // 连续 periods 个周期没有对局: 每个周期 φ² 增加 σ², 不超过新玩家的 RD
+    static Rating idle(Rating player, int periods) {
+        if (periods <= 0) return player;
+        var phi = player.deviation() / SCALE;
+        var sigma = player.volatility();
+        var newPhi = Math.min(MAX_PHI, Math.sqrt(phi * phi + periods * sigma * sigma));
+        return new Rating(player.rating(), SCALE * newPhi, sigma);
+    }
+
+    static boolean isProvisional(double deviation) {
+        return deviation > PROVISIONAL_DEVIATION;
+    }
+
+    private static double g(double phi) {
+        return 1 / Math.sqrt(1 + 3 * phi * phi / (Math.PI * Math.PI));
+    }
+
+    // 新波动率: 用 Illinois 法 (改进的试位法) 求 f(x) = 0, x = ln(σ'²)
+    private static double volatility(double phi, double sigma, double v, double delta) {
+        var a = Math.log(sigma * sigma);
+        var phi2 = phi * phi;
+        var delta2 = delta * delta;
+        DoubleUnaryOperator f = x -> {
+            var ex = Math.exp(x);
+            var d = phi2 + v + ex;
+            return ex * (delta2 - phi2 - v - ex) / (2 * d * d) - (x - a) / (TAU * TAU);
+        };
+
+        var lower = a;
+        double upper;
+        if (delta2 > phi2 + v) {
+            upper = Math.log(delta2 - phi2 - v);
+        } else {
+            var k = 1;
+            while (f.applyAsDouble(a - k * TAU) < 0) k++;
+            upper = a - k * TAU;
+        }
+        var fLower = f.applyAsDouble(lower);
+        var fUpper = f.applyAsDouble(upper);
+        while (Math.abs(upper - lower) > EPSILON) {
+            var c = lower + (lower - upper) * fLower / (fUpper - fLower);
+            var fC = f.applyAsDouble(c);
+            if (fC * fUpper <= 0) {
+                lower = upper;
+                fLower = fUpper;
+            } else {
+                fLower /= 2;
+            }
+            upper = c;
+            fUpper = fC;
+        }
+        return Math.exp(lower / 2);
+    }
+}
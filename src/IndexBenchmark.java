@@ -0,0 +1,232 @@
+package src;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+// 数据库结构升级前后的查询对比: 在大规模合成数据 (默认 10 万玩家、500 万局) 上分别测量对局记录和排行榜查询的延迟
+// 步骤: 生成数据 (文件已有时只补足差额) -> 删除全部索引并把 user_version 清零, 即升级前的旧库 -> 用旧查询测量
+//   -> 重新打开 ChessDatabase, 原地执行升级并计时 -> 用现在的查询测量; 排行榜另报内存排行榜的延迟
+// 对局双方按幂律分布抽取, 少数玩家有上万局, 查询时也按同样的分布挑玩家; 无索引的旧查询每次都扫全表, 用 --seconds 限制测量时长
+// 用法: java -cp "build:lib/*" src.IndexBenchmark [--db=index-benchmark.db] [--players=100000] [--games=5000000]
+//           [--queries=2000] [--seconds=20] [--limit=10]
+public class IndexBenchmark {
+    // 升级前 ChessDatabase 使用的查询
+    private static final String OLD_HISTORY_SQL = "SELECT * FROM game_records WHERE red_player_id = ? OR black_player_id = ? " +
+            "ORDER BY start_time DESC LIMIT ?";
+    private static final String OLD_LEADERBOARD_SQL = "SELECT * FROM players ORDER BY " +
+            "CASE WHEN total_games > 0 THEN (CAST(wins AS FLOAT) / total_games) ELSE 0 END DESC, " +
+            "wins DESC LIMIT ?";
+    private static final int INSERT_BATCH = 50_000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @FunctionalInterface
+    interface Query {
+        void run(int player) throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new LinkedHashMap<String, String>();
+        for (var arg : args) {
+            var eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 0) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        var url = "jdbc:sqlite:" + options.getOrDefault("db", "index-benchmark.db");
+        var players = Integer.parseInt(options.getOrDefault("players", "100000"));
+        var games = Integer.parseInt(options.getOrDefault("games", "5000000"));
+        var queries = Integer.parseInt(options.getOrDefault("queries", "2000"));
+        var seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+        var limit = Integer.parseInt(options.getOrDefault("limit", "10"));
+
+        // 先让 ChessDatabase 建好表, 再把库退回到没有索引的旧结构
+        var database = new ChessDatabase(url, 0);
+        if (!database.isConnected()) {
+            System.out.println("无法打开 SQLite 数据库 (缺少驱动?)");
+            return;
+        }
+        database.closeConnection();
+
+        long[] oldHistory;
+        long[] oldLeaderboard;
+        try (var connection = DriverManager.getConnection(url);
+             var history = connection.prepareStatement(OLD_HISTORY_SQL);
+             var leaderboard = connection.prepareStatement(OLD_LEADERBOARD_SQL)) {
+            downgrade(connection);
+            populate(connection, players, games);
+            System.out.println("测量旧结构...");
+            oldHistory = measure(queries, seconds, players, new Random(7), player -> {
+                history.setInt(1, player);
+                history.setInt(2, player);
+                history.setInt(3, limit);
+                drain(history.executeQuery());
+            });
+            oldLeaderboard = measure(queries, seconds, players, new Random(8), player -> {
+                leaderboard.setInt(1, 20);
+                drain(leaderboard.executeQuery());
+            });
+        }
+
+        System.out.println("原地升级数据库结构...");
+        var start = System.nanoTime();
+        var upgraded = new ChessDatabase(url, 1);
+        var migrationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("测量新结构...");
+        var results = new long[3][];
+        BenchmarkSuite.quietly(() -> {
+            try {
+                results[0] = measure(queries, seconds, players, new Random(7),
+                        player -> upgraded.getGameHistory(player, limit));
+                // getLeaderboard 由内存排行榜应答, 不经过 idx_players_rank; 索引查询单独测量, 内存路径另列一行
+                results[1] = measure(queries, seconds, players, new Random(8),
+                        player -> upgraded.queryLeaderboard(20));
+                results[2] = measure(queries, seconds, players, new Random(8),
+                        player -> upgraded.getLeaderboard(20));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        upgraded.closeConnection();
+
+        System.out.println();
+        System.out.println("==== 索引对比 (" + players + " 名玩家, " + games + " 局对局, 升级耗时 " + migrationMillis + " ms) ====");
+        System.out.printf("%-14s %8s %12s %12s %8s %12s %12s%n",
+                "查询", "旧:次数", "旧 p50(ms)", "旧 p99(ms)", "新:次数", "新 p50(ms)", "新 p99(ms)");
+        report("getGameHistory", oldHistory, results[0]);
+        report("getLeaderboard", oldLeaderboard, results[1]);
+        report("  (内存排行榜)", oldLeaderboard, results[2]);
+    }
+
+    // 删除所有索引并把版本号清零, 下次打开 ChessDatabase 时会重新执行全部升级
+    private static void downgrade(Connection connection) throws SQLException {
+        var indexes = new ArrayList<String>();
+        try (var stmt = connection.createStatement();
+             var rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL")) {
+            while (rs.next()) indexes.add(rs.getString(1));
+        }
+        try (var stmt = connection.createStatement()) {
+            for (var index : indexes) {
+                stmt.execute("DROP INDEX " + index);
+            }
+            stmt.execute("PRAGMA user_version = 0");
+        }
+        System.out.println("已删除索引: " + indexes);
+    }
+
+    private static void populate(Connection connection, int players, int games) throws SQLException {
+        try (var stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA synchronous = OFF");
+        }
+        var random = new Random(6);
+        var havePlayers = count(connection, "players");
+        var haveGames = count(connection, "game_records");
+        if (havePlayers < players || haveGames < games) {
+            System.out.println("生成数据: 玩家 " + havePlayers + " -> " + players + ", 对局 " + haveGames + " -> " + games);
+        }
+        connection.setAutoCommit(false);
+        try (var insert = connection.prepareStatement(
+                "INSERT INTO players(name, password, total_games, wins, losses) VALUES(?, ?, ?, ?, ?)")) {
+            for (var i = havePlayers + 1; i <= players; i++) {
+                var total = random.nextInt(500);
+                var wins = total == 0 ? 0 : random.nextInt(total + 1);
+                insert.setString(1, "bench" + i);
+                insert.setString(2, "pw");
+                insert.setInt(3, total);
+                insert.setInt(4, wins);
+                insert.setInt(5, total - wins);
+                insert.addBatch();
+                if (i % INSERT_BATCH == 0) flush(connection, insert);
+            }
+            flush(connection, insert);
+        }
+        try (var insert = connection.prepareStatement("INSERT INTO game_records(red_player_id, red_player_name, " +
+                "black_player_id, black_player_name, winner_id, winner_name, game_duration, start_time, end_time, " +
+                "moves, time_control) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (var i = haveGames + 1; i <= games; i++) {
+                var red = skewedPlayer(random, players);
+                var black = skewedPlayer(random, players);
+                var record = BenchmarkSuite.sampleRecord(red, black, random.nextBoolean() ? red : black,
+                        "7174 0122 7774 2924", random);
+                insert.setInt(1, red);
+                insert.setString(2, record.getRedPlayerName());
+                insert.setInt(3, black);
+                insert.setString(4, record.getBlackPlayerName());
+                insert.setInt(5, record.getWinnerId());
+                insert.setString(6, record.getWinnerName());
+                insert.setLong(7, record.getGameDurationSeconds());
+                insert.setString(8, record.getStartTime().format(TIME_FORMAT));
+                insert.setString(9, record.getEndTime().format(TIME_FORMAT));
+                insert.setString(10, record.getMoves());
+                insert.setString(11, "600+5");
+                insert.addBatch();
+                if (i % INSERT_BATCH == 0) {
+                    flush(connection, insert);
+                    System.out.println("  已生成 " + i + " 局");
+                }
+            }
+            flush(connection, insert);
+        }
+        connection.setAutoCommit(true);
+    }
+
+    private static void flush(Connection connection, PreparedStatement insert) throws SQLException {
+        insert.executeBatch();
+        connection.commit();
+    }
+
+    private static int count(Connection connection, String table) throws SQLException {
+        try (var stmt = connection.createStatement(); var rs = stmt.executeQuery("SELECT MAX(id) FROM " + table)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // 幂律分布: 编号小的玩家对局多, 1 号玩家约占全部对局的几个百分点
+    private static int skewedPlayer(Random random, int players) {
+        var u = random.nextDouble();
+        return 1 + (int) (players * u * u * u);
+    }
+
+    private static void drain(ResultSet rs) throws SQLException {
+        try (rs) {
+            var columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                for (var c = 1; c <= columns; c++) rs.getObject(c);
+            }
+        }
+    }
+
+    // 至多执行 queries 次或 seconds 秒, 返回排好序的每次耗时 (纳秒)
+    private static long[] measure(int queries, int seconds, int players, Random random, Query query)
+            throws SQLException {
+        var deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        var samples = new long[queries];
+        var count = 0;
+        while (count < queries && System.nanoTime() < deadline) {
+            var player = skewedPlayer(random, players);
+            var start = System.nanoTime();
+            query.run(player);
+            samples[count++] = System.nanoTime() - start;
+        }
+        samples = Arrays.copyOf(samples, count);
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private static void report(String name, long[] before, long[] after) {
+        System.out.printf("%-14s %8d %12.3f %12.3f %8d %12.3f %12.3f%n", name,
+                before.length, percentile(before, 0.50) / 1e6, percentile(before, 0.99) / 1e6,
+                after.length, percentile(after, 0.50) / 1e6, percentile(after, 0.99) / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
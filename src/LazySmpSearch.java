@@ -0,0 +1,103 @@
+package src;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lazy SMP 并行搜索: 多个 SearchEngine 在同一个置换表上各自迭代加深同一个根局面, 线程间只通过置换表交换结果
+// 主线程 (调用 search 的线程) 负责时间控制, 它结束时中止所有辅助线程, 然后在根节点合并: 取完成深度最深的结果
+// 辅助线程错开起始深度和步长, 避免所有线程同时搜索同样的节点
+// 辅助任务提交到共享线程池; 线程池忙时尚未开始的辅助任务直接作废, 主线程从不等待排队中的任务, 不会与人类房间争抢或死锁
+public final class LazySmpSearch {
+    // 辅助任务状态
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int SKIPPED = 2;
+
+    private final TranspositionTable table;
+    private final SearchEngine[] engines;
+    private final ExecutorService helperPool;
+
+    // helperPool 在 threads 为 1 时可以为 null
+    public LazySmpSearch(TranspositionTable table, int threads, ExecutorService helperPool) {
+        this.table = table;
+        this.helperPool = helperPool;
+        this.engines = new SearchEngine[helperPool != null ? Math.max(1, threads) : 1];
+        for (var i = 0; i < engines.length; i++) {
+            engines[i] = new SearchEngine(table);
+        }
+    }
+
+    public int getThreads() {
+        return engines.length;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void setTablebase(Tablebase tablebase) {
+        for (var engine : engines) {
+            engine.setTablebase(tablebase);
+        }
+    }
+
+    public void stop() {
+        for (var engine : engines) {
+            engine.stop();
+        }
+    }
+
+    // 返回的节点数为所有线程之和
+    public SearchEngine.Result search(Position root, long[] gameHashes, long timeMillis, int maxDepth) {
+        table.newSearch();
+        for (var engine : engines) {
+            engine.prepare();
+        }
+        var deadline = System.currentTimeMillis() + timeMillis;
+
+        var helpers = engines.length - 1;
+        var states = new AtomicInteger[helpers];
+        var futures = new Future<?>[helpers];
+        var results = new SearchEngine.Result[engines.length];
+        for (var i = 0; i < helpers; i++) {
+            var index = i + 1;
+            var state = states[i] = new AtomicInteger(PENDING);
+            // 奇数号从深一层开始; 每 4 个中的后两个隔层搜索
+            var startDepth = 1 + (index & 1);
+            var depthStep = (index & 2) != 0 ? 2 : 1;
+            futures[i] = helperPool.submit(() -> {
+                if (!state.compareAndSet(PENDING, RUNNING)) return;
+                results[index] = engines[index].iterate(root, gameHashes, deadline, maxDepth, startDepth, depthStep);
+            });
+        }
+
+        results[0] = engines[0].iterate(root, gameHashes, deadline, maxDepth, 1, 1);
+
+        for (var i = 1; i < engines.length; i++) {
+            engines[i].stop();
+        }
+        for (var i = 0; i < helpers; i++) {
+            if (states[i].compareAndSet(PENDING, SKIPPED)) continue;
+            try {
+                futures[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.out.println("辅助搜索线程失败: " + e.getCause());
+            }
+        }
+
+        // 合并: 完成深度最深者优先, 同深度以主线程为准
+        var best = results[0];
+        long nodes = 0;
+        for (var result : results) {
+            if (result == null) continue;
+            nodes += result.nodes();
+            if (result.move() != 0 && result.depth() > best.depth()) best = result;
+        }
+        return new SearchEngine.Result(best.move(), best.score(), best.depth(), nodes);
+    }
+}
@@ -0,0 +1,242 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 内存中的排行榜: 以 (胜率, 胜场) 降序排列全部玩家, 同分按编号升序, 与 ChessDatabase 的排行榜 SQL 顺序一致
+// 底层是按名次维护子树大小的 treap (随机优先级的平衡二叉搜索树): 增删一名玩家、查某人的名次都是 O(log n),
+//   取前 N 名只走访前 N 个节点; 一局结束只需把双方各取出、改战绩、再插回
+// 胜率用交叉相乘精确比较, 不经过浮点; 未下过棋的玩家胜率为 0
+// 读写锁保护: 查询可并发, 更新互斥
+final class Leaderboard {
+
+    private static final class Node {
+        final int playerId;
+        final String name;
+        final int priority;
+        int wins;
+        int losses;
+        int totalGames;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(int playerId, String name, int priority) {
+            this.playerId = playerId;
+            this.name = name;
+            this.priority = priority;
+        }
+    }
+
+    private final HashMap<Integer, Node> players = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random();
+    private Node root;
+
+    // 用全部玩家的当前战绩重建
+    void load(List<PlayerInfo> all) {
+        lock.writeLock().lock();
+        try {
+            players.clear();
+            root = null;
+            for (var player : all) {
+                put(player.getPlayerId(), player.getPlayerName(),
+                        player.getWins(), player.getLosses(), player.getTotalGames());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void addPlayer(int playerId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (!players.containsKey(playerId)) put(playerId, name, 0, 0, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 用数据库中的当前战绩放入或替换一名玩家
+    void putPlayer(PlayerInfo player) {
+        lock.writeLock().lock();
+        try {
+            var old = players.get(player.getPlayerId());
+            if (old != null) root = remove(root, old);
+            put(player.getPlayerId(), player.getPlayerName(),
+                    player.getWins(), player.getLosses(), player.getTotalGames());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 记一局结果: 胜者 won、负者 lost、和棋两者都为 false; 不认识这名玩家时返回 false
+    boolean recordResult(int playerId, boolean won, boolean lost) {
+        lock.writeLock().lock();
+        try {
+            var node = players.get(playerId);
+            if (node == null) return false;
+            root = remove(root, node);
+            node.left = node.right = null;
+            node.size = 1;
+            node.totalGames++;
+            if (won) node.wins++;
+            if (lost) node.losses++;
+            root = insert(root, node);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return players.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 名次从 1 开始, 不在榜上返回 -1
+    int rankOf(int playerId) {
+        lock.readLock().lock();
+        try {
+            var target = players.get(playerId);
+            if (target == null) return -1;
+            var rank = 1;
+            var node = root;
+            while (node != target) {
+                if (compare(target, node) < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return rank + size(target.left);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 前 limit 名的快照 (中序遍历, 取够即停)
+    List<PlayerInfo> top(int limit) {
+        lock.readLock().lock();
+        try {
+            var result = new ArrayList<PlayerInfo>(Math.min(limit, players.size()));
+            var stack = new ArrayDeque<Node>();
+            var node = root;
+            while (result.size() < limit && (node != null || !stack.isEmpty())) {
+                while (node != null) {
+                    stack.push(node);
+                    node = node.left;
+                }
+                node = stack.pop();
+                result.add(snapshot(node));
+                node = node.right;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* ==================== treap ==================== */
+
+    private void put(int playerId, String name, int wins, int losses, int totalGames) {
+        var node = new Node(playerId, name, random.nextInt());
+        node.wins = wins;
+        node.losses = losses;
+        node.totalGames = totalGames;
+        players.put(playerId, node);
+        root = insert(root, node);
+    }
+
+    // 负数表示 a 排在 b 前面
+    private static int compare(Node a, Node b) {
+        // a.wins / a.total 与 b.wins / b.total 交叉相乘比较; 未下过棋按 0 / 1 算
+        var aWins = a.totalGames > 0 ? a.wins : 0;
+        var bWins = b.totalGames > 0 ? b.wins : 0;
+        var rate = Long.compare((long) bWins * Math.max(1, a.totalGames), (long) aWins * Math.max(1, b.totalGames));
+        if (rate != 0) return rate;
+        if (a.wins != b.wins) return Integer.compare(b.wins, a.wins);
+        return Integer.compare(a.playerId, b.playerId);
+    }
+
+    private static Node insert(Node tree, Node node) {
+        if (tree == null) return node;
+        if (node.priority > tree.priority) {
+            var parts = split(tree, node);
+            node.left = parts[0];
+            node.right = parts[1];
+            return update(node);
+        }
+        if (compare(node, tree) < 0) {
+            tree.left = insert(tree.left, node);
+        } else {
+            tree.right = insert(tree.right, node);
+        }
+        return update(tree);
+    }
+
+    private static Node remove(Node tree, Node node) {
+        if (tree == node) return merge(tree.left, tree.right);
+        if (compare(node, tree) < 0) {
+            tree.left = remove(tree.left, node);
+        } else {
+            tree.right = remove(tree.right, node);
+        }
+        return update(tree);
+    }
+
+    // 按 key 把 tree 分成排在 key 前面的和后面的两棵
+    private static Node[] split(Node tree, Node key) {
+        if (tree == null) return new Node[2];
+        if (compare(tree, key) < 0) {
+            var parts = split(tree.right, key);
+            tree.right = parts[0];
+            parts[0] = update(tree);
+            return parts;
+        }
+        var parts = split(tree.left, key);
+        tree.left = parts[1];
+        parts[1] = update(tree);
+        return parts;
+    }
+
+    // left 中的节点都排在 right 之前
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static PlayerInfo snapshot(Node node) {
+        var player = new PlayerInfo();
+        player.setPlayerId(node.playerId);
+        player.setPlayerName(node.name);
+        player.setTotalGames(node.totalGames);
+        player.setWins(node.wins);
+        player.setLosses(node.losses);
+        return player;
+    }
+}
@@ -25,9 +25,12 @@ public class LeaderboardPanel extends JPanel {
 
     private JTable leaderboardTable;
     private JTable gameHistoryTable;
+    private JLabel rankLabel;
+    private JComboBox<String> orderBox;
 
     private ChessDatabase database;
     private int currentPlayerId = -1;
+    private String currentPlayerName;
 
     /* ==================== construct ==================== */
 
@@ -63,9 +66,24 @@ public class LeaderboardPanel extends JPanel {
         JButton refresh = createButton("刷新");
         refresh.addActionListener(e -> loadLeaderboardAsync());
 
-        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        rankLabel = new JLabel(" ");
+        rankLabel.setFont(new Font("Arial", Font.BOLD, 13));
+        rankLabel.setForeground(BTN_BG);
+
+        // 按等级分排名时只列出 RD 足够小的玩家, 最后一列改为等级分
+        orderBox = new JComboBox<>(new String[]{"按胜率", "按等级分"});
+        orderBox.setFont(new Font("Arial", Font.PLAIN, 12));
+        orderBox.addActionListener(e -> loadLeaderboardAsync());
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        controls.setBackground(BG_PANEL);
+        controls.add(orderBox);
+        controls.add(refresh);
+
+        JPanel btnPanel = new JPanel(new BorderLayout());
         btnPanel.setBackground(BG_PANEL);
-        btnPanel.add(refresh);
+        btnPanel.add(rankLabel, BorderLayout.WEST);
+        btnPanel.add(controls, BorderLayout.EAST);
 
         panel.add(btnPanel, BorderLayout.SOUTH);
         add(panel, BorderLayout.NORTH);
@@ -175,13 +193,26 @@ public class LeaderboardPanel extends JPanel {
     /* ==================== data load ==================== */
 
     private void loadLeaderboardAsync() {
+        int playerId = currentPlayerId;
+        String playerName = currentPlayerName;
+        boolean byRating = orderBox.getSelectedIndex() == 1;
         new SwingWorker<List<PlayerInfo>, Void>() {
+            private String status = " ";
+
             protected List<PlayerInfo> doInBackground() {
+                if (byRating) {
+                    PlayerInfo me = playerName != null ? database.getPlayerByName(playerName) : null;
+                    if (me != null) status = "我的等级分: " + formatRating(me);
+                    return database.getRatingLeaderboard(20);
+                }
+                int rank = playerId != -1 ? database.getPlayerRank(playerId) : -1;
+                if (rank > 0) status = "我的排名: 第 " + rank + " 名";
                 return database.getLeaderboard(20);
             }
             protected void done() {
                 try {
-                    updateLeaderboard(get());
+                    updateLeaderboard(get(), byRating);
+                    rankLabel.setText(status);
                 } catch (Exception e) {
                     showLeaderboardMessage("加载失败");
                 }
@@ -211,7 +242,10 @@ public class LeaderboardPanel extends JPanel {
 
     /* ==================== UI update ==================== */
 
-    private void updateLeaderboard(List<PlayerInfo> list) {
+    private void updateLeaderboard(List<PlayerInfo> list, boolean byRating) {
+        leaderboardTable.getColumnModel().getColumn(5).setHeaderValue(byRating ? "等级分" : "胜率");
+        leaderboardTable.getTableHeader().repaint();
+
         DefaultTableModel m =
                 (DefaultTableModel) leaderboardTable.getModel();
         m.setRowCount(0);
@@ -229,11 +263,16 @@ public class LeaderboardPanel extends JPanel {
                     p.getWins(),
                     p.getLosses(),
                     p.getTotalGames(),
-                    String.format("%.1f%%", p.getWinRate() * 100)
+                    byRating ? formatRating(p) : String.format("%.1f%%", p.getWinRate() * 100)
             });
         }
     }
 
+    // 等级分还不可靠 (RD 过大) 时加 "?"
+    private static String formatRating(PlayerInfo p) {
+        return String.format("%.0f", p.getRating()) + (p.isRatingProvisional() ? "?" : "");
+    }
+
     private void updateHistory(List<GameRecord> list) {
         DefaultTableModel m =
                 (DefaultTableModel) gameHistoryTable.getModel();
@@ -316,6 +355,8 @@ public class LeaderboardPanel extends JPanel {
 
     public void setCurrentPlayer(int id, String name) {
         this.currentPlayerId = id;
+        this.currentPlayerName = name;
+        loadLeaderboardAsync();
         loadHistoryAsync();
     }
 }
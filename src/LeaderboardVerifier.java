@@ -0,0 +1,168 @@
+package src;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 内存排行榜与 players 表的一致性校验: 逐名对照 getLeaderboard / getPlayerRank 与 SQL 排序的结果
+// 不带 --db 时在临时库上注册玩家并随机写入对局 (单局战绩、批量写入、和棋、中途注册新玩家交替进行),
+//   每写入 --check-every 局全量对照一次; 写入期间另有一个线程不停查询名次, 每次查询都检查外部写入,
+//   让整表重新加载与写入反复交错, 检验两者之间不会重复或漏记战绩; 带 --db 时只对照已有的库, 不做任何写入
+// 发现不一致时打印第一处差异并以退出码 1 结束
+// 用法: java -cp "build:lib/*" src.LeaderboardVerifier [--db=chinesechess.db] [--players=500] [--games=20000] [--check-every=500]
+public class LeaderboardVerifier {
+
+    public static void main(String[] args) throws Exception {
+        var options = new LinkedHashMap<String, String>();
+        for (var arg : args) {
+            var eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 0) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        if (options.containsKey("db")) {
+            var database = new ChessDatabase("jdbc:sqlite:" + options.get("db"));
+            if (!database.isConnected()) {
+                System.out.println("无法打开 SQLite 数据库 (缺少驱动?)");
+                System.exit(2);
+            }
+            var ok = verify(database);
+            database.closeConnection();
+            System.exit(ok ? 0 : 1);
+        }
+
+        var players = Integer.parseInt(options.getOrDefault("players", "500"));
+        var games = Integer.parseInt(options.getOrDefault("games", "20000"));
+        var checkEvery = Integer.parseInt(options.getOrDefault("check-every", "500"));
+        var file = Files.createTempFile("leaderboard-verify", ".db");
+        // System.exit 不会执行 finally, 先清理临时文件再退出
+        int status;
+        try {
+            var database = new ChessDatabase("jdbc:sqlite:" + file);
+            if (!database.isConnected()) {
+                System.out.println("无法打开 SQLite 数据库 (缺少驱动?)");
+                status = 2;
+            } else {
+                var ok = randomWorkload(database, players, games, checkEvery);
+                database.closeConnection();
+                status = ok ? 0 : 1;
+            }
+        } finally {
+            for (var suffix : new String[]{"", "-wal", "-shm"}) {
+                Files.deleteIfExists(Path.of(file + suffix));
+            }
+        }
+        System.exit(status);
+    }
+
+    private static boolean randomWorkload(ChessDatabase database, int players, int games, int checkEvery)
+            throws Exception {
+        var random = new Random(9);
+        var registered = new int[]{0};
+        BenchmarkSuite.quietly(() -> {
+            for (var i = 1; i <= players; i++) {
+                database.registerPlayer("verify" + i, "pw");
+            }
+            registered[0] = players;
+        });
+        // 并发的读者: getPlayerRank 不打印日志, 不必经过 quietly (它替换的 System.out 是全局的)
+        database.setExternalCheckMillis(0);
+        var running = new AtomicBoolean(true);
+        var reader = new Thread(() -> {
+            var r = new Random(10);
+            while (running.get()) {
+                database.getPlayerRank(1 + r.nextInt(registered[0]));
+            }
+        }, "leaderboard-reader");
+        reader.start();
+        try {
+            return randomWrites(database, random, registered, games, checkEvery);
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+    }
+
+    private static boolean randomWrites(ChessDatabase database, Random random, int[] registered, int games,
+                                        int checkEvery) throws Exception {
+        var played = 0;
+        var nextCheck = checkEvery;
+        while (played < games) {
+            var count = registered[0];
+            var red = 1 + random.nextInt(count);
+            var black = 1 + random.nextInt(count);
+            var op = random.nextInt(10);
+            if (op < 4) {
+                // 与 PersistenceQueue 相同的批量写入路径
+                var batch = new ArrayList<GameRecord>();
+                for (var i = 1 + random.nextInt(8); i > 0; i--) {
+                    var r = 1 + random.nextInt(count);
+                    var b = 1 + random.nextInt(count);
+                    var winner = random.nextInt(8) == 0 ? -1 : random.nextBoolean() ? r : b;
+                    batch.add(BenchmarkSuite.sampleRecord(r, b, winner, "", random));
+                }
+                database.saveFinishedGames(batch);
+                played += batch.size();
+            } else if (op < 8) {
+                database.updatePlayerStats(red, true);
+                database.updatePlayerStats(black, false);
+                played++;
+            } else if (op < 9) {
+                database.updatePlayerDraw(red);
+                database.updatePlayerDraw(black);
+                played++;
+            } else {
+                var name = "verify" + (count + 1);
+                BenchmarkSuite.quietly(() -> {
+                    if (database.registerPlayer(name, "pw")) registered[0]++;
+                });
+            }
+            if (played >= nextCheck || played >= games) {
+                if (!verify(database)) return false;
+                nextCheck += checkEvery;
+            }
+        }
+        System.out.println("随机写入 " + played + " 局, 玩家 " + registered[0] + " 名, 排行榜始终一致");
+        return true;
+    }
+
+    // 全量对照: 每个名次上的玩家和战绩一致, 每名玩家的 getPlayerRank 等于其在 SQL 结果中的位置
+    static boolean verify(ChessDatabase database) {
+        var expected = database.queryLeaderboard(-1);
+        var actual = new ArrayList<List<PlayerInfo>>(1);
+        var ranks = new int[expected.size()];
+        BenchmarkSuite.quietly(() -> {
+            actual.add(database.getLeaderboard(expected.size() + 1));
+            for (var i = 0; i < ranks.length; i++) {
+                ranks[i] = database.getPlayerRank(expected.get(i).getPlayerId());
+            }
+        });
+        var board = actual.get(0);
+        if (board.size() != expected.size()) {
+            System.out.println("不一致: 内存排行榜 " + board.size() + " 人, players 表 " + expected.size() + " 人");
+            return false;
+        }
+        for (var i = 0; i < expected.size(); i++) {
+            var want = expected.get(i);
+            var got = board.get(i);
+            if (got.getPlayerId() != want.getPlayerId() || got.getWins() != want.getWins()
+                    || got.getLosses() != want.getLosses() || got.getTotalGames() != want.getTotalGames()) {
+                System.out.println("不一致: 第 " + (i + 1) + " 名, SQL 为 " + describe(want) + ", 内存为 " + describe(got));
+                return false;
+            }
+            if (ranks[i] != i + 1) {
+                System.out.println("不一致: " + describe(want) + " 应为第 " + (i + 1) + " 名, getPlayerRank 返回 " + ranks[i]);
+                return false;
+            }
+        }
+        System.out.println("排行榜一致: " + expected.size() + " 名玩家");
+        return true;
+    }
+
+    private static String describe(PlayerInfo player) {
+        return player.getPlayerName() + "(#" + player.getPlayerId() + " " + player.getWins() + "胜"
+                + player.getLosses() + "负/" + player.getTotalGames() + "局)";
+    }
+}
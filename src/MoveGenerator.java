@@ -0,0 +1,232 @@
+package src;
+
+import java.util.Arrays;
+
+// 合法走法生成与将军检测, 全部基于 Position 的整数编码, 生成过程不分配对象
+// 走法编码为 int: 起点 << 8 | 终点; 调用方提供至少 MAX_MOVES 长的数组
+public final class MoveGenerator {
+    public static final int MAX_MOVES = 256;
+
+    // 反查表: 哪些格子上的马可以走到该格, 以及对应的马腿
+    private static final int[][] KNIGHT_ATTACKERS = new int[Position.SQUARES][];
+    private static final int[][] KNIGHT_ATTACK_LEGS = new int[Position.SQUARES][];
+
+    static {
+        var counts = new int[Position.SQUARES];
+        for (var from = 0; from < Position.SQUARES; from++) {
+            for (var to : Position.KNIGHT_TARGETS[from]) counts[to]++;
+        }
+        for (var sq = 0; sq < Position.SQUARES; sq++) {
+            KNIGHT_ATTACKERS[sq] = new int[counts[sq]];
+            KNIGHT_ATTACK_LEGS[sq] = new int[counts[sq]];
+        }
+        Arrays.fill(counts, 0);
+        for (var from = 0; from < Position.SQUARES; from++) {
+            var targets = Position.KNIGHT_TARGETS[from];
+            for (var i = 0; i < targets.length; i++) {
+                var to = targets[i];
+                KNIGHT_ATTACKERS[to][counts[to]] = from;
+                KNIGHT_ATTACK_LEGS[to][counts[to]] = Position.KNIGHT_LEGS[from][i];
+                counts[to]++;
+            }
+        }
+    }
+
+    private MoveGenerator() {}
+
+    public static int move(int from, int to) { return from << 8 | to; }
+    public static int from(int move) { return move >>> 8; }
+    public static int to(int move) { return move & 0xFF; }
+
+    /* ==================== check detection ==================== */
+
+    // color 方的将帅是否正被攻击, 包括两将照面
+    public static boolean isInCheck(Position position, int color) {
+        var king = position.kingSquare(color);
+        var enemy = color ^ 1;
+
+        for (var dir = 0; dir < 4; dir++) {
+            var ray = Position.RAYS[king][dir];
+            var i = 0;
+            while (i < ray.length && position.pieceAt(ray[i]) == Position.EMPTY) i++;
+            if (i == ray.length) continue;
+            var first = position.pieceAt(ray[i]);
+            if (Position.colorOf(first) == enemy) {
+                var type = Position.typeOf(first);
+                // 同一列上两将之间无子即为照面, 上下方向 (dir 0/1) 才可能
+                if (type == Position.ROOK || (type == Position.KING && dir < 2)) return true;
+            }
+            // 炮需要隔一个炮架
+            i++;
+            while (i < ray.length && position.pieceAt(ray[i]) == Position.EMPTY) i++;
+            if (i < ray.length && position.pieceAt(ray[i]) == Position.piece(enemy, Position.CANNON)) return true;
+        }
+
+        var enemyKnight = Position.piece(enemy, Position.KNIGHT);
+        var attackers = KNIGHT_ATTACKERS[king];
+        for (var i = 0; i < attackers.length; i++) {
+            if (position.pieceAt(attackers[i]) == enemyKnight
+                    && position.pieceAt(KNIGHT_ATTACK_LEGS[king][i]) == Position.EMPTY) {
+                return true;
+            }
+        }
+
+        // 对方的兵从身后 (对它来说是正前方) 一格, 或过河后从左右一格攻击
+        var enemyPawn = Position.piece(enemy, Position.PAWN);
+        var behind = king - (enemy == Position.RED ? -9 : 9);
+        if (behind >= 0 && behind < Position.SQUARES && position.pieceAt(behind) == enemyPawn) return true;
+        var row = Position.row(king);
+        if (!Position.ownHalf(enemy, row)) {
+            if (Position.col(king) > 0 && position.pieceAt(king - 1) == enemyPawn) return true;
+            if (Position.col(king) < 8 && position.pieceAt(king + 1) == enemyPawn) return true;
+        }
+        return false;
+    }
+
+    /* ==================== generation ==================== */
+
+    // 轮到的一方按棋子走法能走的全部走法, 不检查走后是否被将军; 返回数量
+    public static int generatePseudoLegal(Position position, int[] moves) {
+        var side = position.sideToMove();
+        var n = 0;
+        for (var from = 0; from < Position.SQUARES; from++) {
+            var piece = position.pieceAt(from);
+            if (piece == Position.EMPTY || Position.colorOf(piece) != side) continue;
+            switch (Position.typeOf(piece)) {
+                case Position.ROOK -> {
+                    for (var ray : Position.RAYS[from]) {
+                        for (var to : ray) {
+                            var target = position.pieceAt(to);
+                            if (target == Position.EMPTY) {
+                                moves[n++] = move(from, to);
+                            } else {
+                                if (Position.colorOf(target) != side) moves[n++] = move(from, to);
+                                break;
+                            }
+                        }
+                    }
+                }
+                case Position.CANNON -> {
+                    for (var ray : Position.RAYS[from]) {
+                        var i = 0;
+                        for (; i < ray.length && position.pieceAt(ray[i]) == Position.EMPTY; i++) {
+                            moves[n++] = move(from, ray[i]);
+                        }
+                        for (i++; i < ray.length; i++) {
+                            var target = position.pieceAt(ray[i]);
+                            if (target == Position.EMPTY) continue;
+                            if (Position.colorOf(target) != side) moves[n++] = move(from, ray[i]);
+                            break;
+                        }
+                    }
+                }
+                case Position.KNIGHT ->
+                        n = addTableMoves(position, from, side, Position.KNIGHT_TARGETS[from], Position.KNIGHT_LEGS[from], moves, n);
+                case Position.ELEPHANT ->
+                        n = addTableMoves(position, from, side, Position.ELEPHANT_TARGETS[side][from], Position.ELEPHANT_EYES[side][from], moves, n);
+                case Position.ADVISOR ->
+                        n = addTableMoves(position, from, side, Position.ADVISOR_TARGETS[side][from], null, moves, n);
+                case Position.KING ->
+                        n = addTableMoves(position, from, side, Position.KING_TARGETS[side][from], null, moves, n);
+                case Position.PAWN -> {
+                    var forward = from + (side == Position.RED ? -9 : 9);
+                    if (forward >= 0 && forward < Position.SQUARES) n = addIfTarget(position, from, forward, side, moves, n);
+                    if (!Position.ownHalf(side, Position.row(from))) {
+                        if (Position.col(from) > 0) n = addIfTarget(position, from, from - 1, side, moves, n);
+                        if (Position.col(from) < 8) n = addIfTarget(position, from, from + 1, side, moves, n);
+                    }
+                }
+                default -> { }
+            }
+        }
+        return n;
+    }
+
+    // 只生成吃子走法 (静态搜索用), 不检查走后是否被将军; 返回数量
+    public static int generateCaptures(Position position, int[] moves) {
+        var count = generatePseudoLegal(position, moves);
+        var n = 0;
+        for (var i = 0; i < count; i++) {
+            if (position.pieceAt(to(moves[i])) != Position.EMPTY) moves[n++] = moves[i];
+        }
+        return n;
+    }
+
+    // 过滤掉走后己方被将军的走法; 返回数量
+    public static int generateLegal(Position position, int[] moves) {
+        var side = position.sideToMove();
+        var count = generatePseudoLegal(position, moves);
+        var n = 0;
+        for (var i = 0; i < count; i++) {
+            var move = moves[i];
+            var captured = position.makeMove(from(move), to(move));
+            var legal = !isInCheck(position, side);
+            position.unmakeMove(from(move), to(move), captured);
+            if (legal) moves[n++] = move;
+        }
+        return n;
+    }
+
+    // 单步校验: 轮到的一方的棋子, 符合走法, 且走后己方不被将军
+    public static boolean isLegal(Position position, int from, int to) {
+        var piece = position.pieceAt(from);
+        if (piece == Position.EMPTY || Position.colorOf(piece) != position.sideToMove()) return false;
+        return position.isValidMove(from, to) && !leavesInCheck(position, from, to);
+    }
+
+    // 符合走法但走后己方被将军 (送将或未应将)
+    public static boolean leavesInCheck(Position position, int from, int to) {
+        var side = position.sideToMove();
+        var captured = position.makeMove(from, to);
+        var inCheck = isInCheck(position, side);
+        position.unmakeMove(from, to, captured);
+        return inCheck;
+    }
+
+    // 找到一步合法走法即返回, 比完整生成更省; 无合法走法即被将死或困毙
+    public static boolean hasLegalMove(Position position) {
+        var moves = new int[MAX_MOVES];
+        var side = position.sideToMove();
+        var count = generatePseudoLegal(position, moves);
+        for (var i = 0; i < count; i++) {
+            var captured = position.makeMove(from(moves[i]), to(moves[i]));
+            var legal = !isInCheck(position, side);
+            position.unmakeMove(from(moves[i]), to(moves[i]), captured);
+            if (legal) return true;
+        }
+        return false;
+    }
+
+    // 指定深度的合法走法叶子节点数, 用于校验走法生成
+    public static long perft(Position position, int depth) {
+        return perft(position, depth, new int[depth + 1][MAX_MOVES]);
+    }
+
+    private static long perft(Position position, int depth, int[][] buffers) {
+        var moves = buffers[depth];
+        var count = generateLegal(position, moves);
+        if (depth == 1) return count;
+        long nodes = 0;
+        for (var i = 0; i < count; i++) {
+            var captured = position.makeMove(from(moves[i]), to(moves[i]));
+            nodes += perft(position, depth - 1, buffers);
+            position.unmakeMove(from(moves[i]), to(moves[i]), captured);
+        }
+        return nodes;
+    }
+
+    private static int addTableMoves(Position position, int from, int side, int[] targets, int[] blockers,
+                                     int[] moves, int n) {
+        for (var i = 0; i < targets.length; i++) {
+            if (blockers != null && position.pieceAt(blockers[i]) != Position.EMPTY) continue;
+            n = addIfTarget(position, from, targets[i], side, moves, n);
+        }
+        return n;
+    }
+
+    private static int addIfTarget(Position position, int from, int to, int side, int[] moves, int n) {
+        var target = position.pieceAt(to);
+        if (target == Position.EMPTY || Position.colorOf(target) != side) moves[n++] = move(from, to);
+        return n;
+    }
+}
@@ -0,0 +1,298 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 走法校验吞吐量: 在一组随机对局局面上, 对全部 90x90 起止格组合分别用旧的字符串棋盘规则和 Position 校验
+// 先逐一比对两者结果完全一致, 再各自计时, 报告每秒校验次数
+// 用法: java -cp build src.MoveValidationBenchmark [--positions=64] [--rounds=20] [--seed=1]
+public class MoveValidationBenchmark {
+    public static void main(String[] args) {
+        var positionCount = 64;
+        var rounds = 20;
+        var seed = 1L;
+        for (var arg : args) {
+            if (arg.startsWith("--positions=")) positionCount = Integer.parseInt(arg.substring(12));
+            else if (arg.startsWith("--rounds=")) rounds = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+        }
+
+        var positions = samplePositions(positionCount, new Random(seed));
+        var legacy = new ArrayList<StringBoardRules>();
+        for (var position : positions) {
+            legacy.add(new StringBoardRules(position));
+        }
+
+        var mismatches = 0;
+        for (var i = 0; i < positions.size(); i++) {
+            for (var from = 0; from < Position.SQUARES; from++) {
+                for (var to = 0; to < Position.SQUARES; to++) {
+                    var expected = legacy.get(i).isValidMove(Position.row(from), Position.col(from), Position.row(to), Position.col(to));
+                    if (positions.get(i).isValidMove(from, to) != expected) mismatches++;
+                }
+            }
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException("Position 与旧规则结果不一致: " + mismatches + " 处");
+        }
+
+        // 预热后计时
+        runLegacy(legacy, Math.max(1, rounds / 4));
+        runPosition(positions, Math.max(1, rounds / 4));
+        var checks = (long) rounds * positions.size() * Position.SQUARES * Position.SQUARES;
+
+        var start = System.nanoTime();
+        var legacyValid = runLegacy(legacy, rounds);
+        var legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        var positionValid = runPosition(positions, rounds);
+        var positionNanos = System.nanoTime() - start;
+
+        System.out.println("==== 走法校验吞吐量 (" + positions.size() + " 个局面, 每轮 " +
+                positions.size() * Position.SQUARES * Position.SQUARES + " 次校验, " + rounds + " 轮) ====");
+        System.out.printf("%-16s %14s %12s%n", "实现", "百万次/秒", "合法数");
+        System.out.printf("%-16s %14.1f %12d%n", "String[][]", checks * 1000.0 / legacyNanos, legacyValid);
+        System.out.printf("%-16s %14.1f %12d%n", "Position", checks * 1000.0 / positionNanos, positionValid);
+        System.out.printf("加速比: %.1fx%n", (double) legacyNanos / positionNanos);
+    }
+
+    private static long runLegacy(List<StringBoardRules> boards, int rounds) {
+        long valid = 0;
+        for (var round = 0; round < rounds; round++) {
+            for (var rules : boards) {
+                for (var fromRow = 0; fromRow < 10; fromRow++) {
+                    for (var fromCol = 0; fromCol < 9; fromCol++) {
+                        for (var toRow = 0; toRow < 10; toRow++) {
+                            for (var toCol = 0; toCol < 9; toCol++) {
+                                if (rules.isValidMove(fromRow, fromCol, toRow, toCol)) valid++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return valid;
+    }
+
+    private static long runPosition(List<Position> positions, int rounds) {
+        long valid = 0;
+        for (var round = 0; round < rounds; round++) {
+            for (var position : positions) {
+                for (var from = 0; from < Position.SQUARES; from++) {
+                    for (var to = 0; to < Position.SQUARES; to++) {
+                        if (position.isValidMove(from, to)) valid++;
+                    }
+                }
+            }
+        }
+        return valid;
+    }
+
+    // 从开局随机走子得到的中局局面, 不吃将帅以免提前结束
+    static List<Position> samplePositions(int count, Random random) {
+        var result = new ArrayList<Position>();
+        var position = new Position();
+        while (result.size() < count) {
+            var moves = new ArrayList<int[]>();
+            for (var from = 0; from < Position.SQUARES; from++) {
+                var piece = position.pieceAt(from);
+                if (piece == Position.EMPTY || Position.colorOf(piece) != position.sideToMove()) continue;
+                for (var to = 0; to < Position.SQUARES; to++) {
+                    var target = position.pieceAt(to);
+                    if (target != Position.EMPTY && Position.typeOf(target) == Position.KING) continue;
+                    if (position.isValidMove(from, to)) moves.add(new int[]{from, to});
+                }
+            }
+            if (moves.isEmpty() || random.nextInt(80) == 0) {
+                position = new Position();
+                continue;
+            }
+            var move = moves.get(random.nextInt(moves.size()));
+            position.makeMove(move[0], move[1]);
+            if (random.nextInt(4) == 0) result.add(position.copy());
+        }
+        return result;
+    }
+
+    // 改写为 Position 之前 GameRoom 中的规则, 原样保留作对照
+    private static final class StringBoardRules {
+        private final String[][] board = new String[10][9];
+
+        StringBoardRules(Position position) {
+            for (var sq = 0; sq < Position.SQUARES; sq++) {
+                board[Position.row(sq)][Position.col(sq)] = Position.pieceName(position.pieceAt(sq));
+            }
+        }
+
+        boolean isValidMove(int fromRow, int fromCol, int toRow, int toCol) {
+            if (fromRow < 0 || fromRow >= 10 || fromCol < 0 || fromCol >= 9) return false;
+            if (toRow < 0 || toRow >= 10 || toCol < 0 || toCol >= 9) return false;
+            if (board[fromRow][fromCol].equals("  ")) return false;
+
+            String piece = board[fromRow][fromCol];
+            String targetPiece = board[toRow][toCol];
+
+            if (!targetPiece.equals("  ")) {
+                boolean fromIsRed = "车马相仕帅砲兵".contains(piece);
+                boolean toIsRed = "车马相仕帅砲兵".contains(targetPiece);
+                if (fromIsRed == toIsRed) return false;
+            }
+
+            // Validate move based on piece type
+            return switch (piece) {
+                case "车", "車" -> isValidRookMove(fromRow, fromCol, toRow, toCol);
+                case "马", "馬" -> isValidKnightMove(fromRow, fromCol, toRow, toCol);
+                case "相", "象" -> isValidElephantMove(fromRow, fromCol, toRow, toCol, piece.equals("相"));
+                case "仕", "士" -> isValidAdvisorMove(fromRow, fromCol, toRow, toCol, piece.equals("仕"));
+                case "帅", "將" -> isValidKingMove(fromRow, fromCol, toRow, toCol, piece.equals("帅"));
+                case "炮", "砲" -> isValidCannonMove(fromRow, fromCol, toRow, toCol);
+                case "兵", "卒" -> isValidPawnMove(fromRow, fromCol, toRow, toCol, piece.equals("兵"));
+                default -> false;
+            };
+        }
+
+        private boolean isValidRookMove(int fromRow, int fromCol, int toRow, int toCol) {
+            if (fromRow != toRow && fromCol != toCol) return false;
+
+            if (fromRow == toRow) {
+                var start = Math.min(fromCol, toCol) + 1;
+                var end = Math.max(fromCol, toCol);
+                for (var col = start; col < end; col++) {
+                    if (!board[fromRow][col].equals("  ")) return false;
+                }
+            } else {
+                var start = Math.min(fromRow, toRow) + 1;
+                var end = Math.max(fromRow, toRow);
+                for (var row = start; row < end; row++) {
+                    if (!board[row][fromCol].equals("  ")) return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isValidKnightMove(int fromRow, int fromCol, int toRow, int toCol) {
+            var rowDiff = Math.abs(toRow - fromRow);
+            var colDiff = Math.abs(toCol - fromCol);
+
+            if (!((rowDiff == 2 && colDiff == 1) || (rowDiff == 1 && colDiff == 2))) {
+                return false;
+            }
+
+            if (rowDiff == 2) {
+                var blockRow = fromRow + (toRow - fromRow) / 2;
+                if (!board[blockRow][fromCol].equals("  ")) return false;
+            } else {
+                var blockCol = fromCol + (toCol - fromCol) / 2;
+                if (!board[fromRow][blockCol].equals("  ")) return false;
+            }
+            return true;
+        }
+
+        private boolean isValidElephantMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
+            var rowDiff = Math.abs(toRow - fromRow);
+            var colDiff = Math.abs(toCol - fromCol);
+
+            if (rowDiff != 2 || colDiff != 2) return false;
+
+            if (isRed && toRow < 5) return false;
+            if (!isRed && toRow > 4) return false;
+
+            var midRow = (fromRow + toRow) / 2;
+            var midCol = (fromCol + toCol) / 2;
+            if (!board[midRow][midCol].equals("  ")) return false;
+
+            return true;
+        }
+
+        private boolean isValidAdvisorMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
+            var rowDiff = Math.abs(toRow - fromRow);
+            var colDiff = Math.abs(toCol - fromCol);
+
+            if (rowDiff != 1 || colDiff != 1) return false;
+
+            if (isRed) {
+                if (toRow < 7 || toCol < 3 || toCol > 5) return false;
+            } else {
+                if (toRow > 2 || toCol < 3 || toCol > 5) return false;
+            }
+
+            return true;
+        }
+
+        private boolean isValidKingMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
+            var rowDiff = Math.abs(toRow - fromRow);
+            var colDiff = Math.abs(toCol - fromCol);
+
+            if (rowDiff + colDiff != 1) return false;
+
+            if (isRed) {
+                if (toRow < 7 || toCol < 3 || toCol > 5) return false;
+            } else {
+                if (toRow > 2 || toCol < 3 || toCol > 5) return false;
+            }
+
+            var targetPiece = board[toRow][toCol];
+            if ((targetPiece.equals("帅") && !isRed) || (targetPiece.equals("將") && isRed)) {
+                if (fromCol == toCol) {
+                    var start = Math.min(fromRow, toRow) + 1;
+                    var end = Math.max(fromRow, toRow);
+                    for (var row = start; row < end; row++) {
+                        if (!board[row][fromCol].equals("  ")) return false;
+                    }
+                    return true;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean isValidCannonMove(int fromRow, int fromCol, int toRow, int toCol) {
+            if (fromRow != toRow && fromCol != toCol) return false;
+
+            var pieceCount = 0;
+
+            if (fromRow == toRow) {
+                var start = Math.min(fromCol, toCol) + 1;
+                var end = Math.max(fromCol, toCol);
+                for (var col = start; col < end; col++) {
+                    if (!board[fromRow][col].equals("  ")) pieceCount++;
+                }
+            } else {
+                var start = Math.min(fromRow, toRow) + 1;
+                var end = Math.max(fromRow, toRow);
+                for (var row = start; row < end; row++) {
+                    if (!board[row][fromCol].equals("  ")) pieceCount++;
+                }
+            }
+
+            if (!board[toRow][toCol].equals("  ")) {
+                return pieceCount == 1;
+            } else {
+                return pieceCount == 0;
+            }
+        }
+
+        private boolean isValidPawnMove(int fromRow, int fromCol, int toRow, int toCol, boolean isRed) {
+            var rowDiff = toRow - fromRow;
+            var colDiff = Math.abs(toCol - fromCol);
+
+            if (isRed) {
+                if (fromRow > 4) {
+                    return rowDiff == -1 && colDiff == 0;
+                } else {
+                    return (rowDiff == -1 && colDiff == 0) || 
+                           (rowDiff == 0 && colDiff == 1);
+                }
+            } else {
+                if (fromRow < 5) {
+                    return rowDiff == 1 && colDiff == 0;
+                } else {
+                    return (rowDiff == 1 && colDiff == 0) || 
+                           (rowDiff == 0 && colDiff == 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package src;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Selector 事件循环模式: 一个接收线程 + 固定数量的 I/O 线程, 每个连接不再占用独立线程
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+
+    // 与 BufferedReader / PrintWriter 默认编码保持一致, 文本协议两种模式完全相同
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // 连接上的协议处理者, 由 I/O 线程回调
+    public interface Handler {
+        void onLine(String line);
+        void onClose();
+
+        // 连接的发送缓冲区已清空时回调, 处理者可继续写入排队中的消息; 返回是否写入了数据
+        boolean onWritable();
+
+        boolean hasPendingOutput();
+    }
+
+    private final int port;
+    private final IoLoop[] loops;
+    private final Function<Connection, Handler> handlerFactory;
+
+    public NioServer(int port, int ioThreads, Function<Connection, Handler> handlerFactory) throws IOException {
+        this.port = port;
+        this.handlerFactory = handlerFactory;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        for (var i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+        }
+    }
+
+    public void run() throws IOException {
+        for (var i = 0; i < loops.length; i++) {
+            var thread = new Thread(loops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (var serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            var next = 0;
+            while (true) {
+                var channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        IoLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerPending();
+                    flushPending();
+
+                    var keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        var key = keys.next();
+                        keys.remove();
+                        var connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.close();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                read(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flushOutbound();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    var connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.handler = handlerFactory.apply(connection);
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void flushPending() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.flushOutbound();
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            readBuffer.clear();
+            var count = connection.channel.read(readBuffer);
+            if (count < 0) {
+                connection.close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                connection.accept(readBuffer.get());
+                if (connection.closed.get()) return;
+            }
+        }
+    }
+
+    public static final class Connection {
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private SelectionKey key;
+        private Handler handler;
+
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private byte[] lineBuffer = new byte[256];
+        private int lineLength = 0;
+        private WireCodec.FrameReader frameReader;
+
+        private Connection(SocketChannel channel, IoLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        // data 可能被多个连接共享 (广播只编码一次), 这里只读不写
+        public void send(byte[] data) {
+            if (closed.get()) return;
+            outbound.add(ByteBuffer.wrap(data));
+            requestFlush();
+        }
+
+        // 通知 I/O 线程有数据待发送, 包括处理者自己队列中的消息
+        public void requestFlush() {
+            if (closed.get()) return;
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.requestWrite(this);
+            }
+        }
+
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            outbound.clear();
+            if (handler != null) {
+                handler.onClose();
+            }
+        }
+
+        // 只在所属 I/O 线程上调用
+        private void flushOutbound() throws IOException {
+            if (closed.get() || !key.isValid()) return;
+            while (true) {
+                ByteBuffer buffer;
+                while ((buffer = outbound.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        // 内核缓冲区已满, 等待可写事件再继续
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    outbound.poll();
+                }
+                if (handler != null && handler.onWritable()) {
+                    continue;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                writeScheduled.set(false);
+                var pending = !outbound.isEmpty() || (handler != null && handler.hasPendingOutput());
+                if (!pending || !writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        // 协商为二进制协议后, 之后收到的字节按帧解析; 只能在 onLine 回调中调用
+        public void switchToBinary() {
+            frameReader = new WireCodec.FrameReader();
+        }
+
+        private void accept(byte b) {
+            if (frameReader != null) {
+                try {
+                    var message = frameReader.accept(b);
+                    if (message != null && handler != null) {
+                        handler.onLine(message);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("无效的二进制帧，断开连接");
+                    close();
+                }
+                return;
+            }
+            if (b == '\n') {
+                var length = lineLength;
+                if (length > 0 && lineBuffer[length - 1] == '\r') {
+                    length--;
+                }
+                var line = new String(lineBuffer, 0, length, CHARSET);
+                lineLength = 0;
+                if (handler != null) {
+                    handler.onLine(line);
+                }
+                return;
+            }
+            if (lineLength == MAX_LINE_LENGTH) {
+                System.out.println("消息过长，断开连接");
+                close();
+                return;
+            }
+            if (lineLength == lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH));
+            }
+            lineBuffer[lineLength++] = b;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// 开局库: 按 Zobrist 哈希排序的定长表项, 通过 MappedByteBuffer 只读映射, 启动时不读入文件, 查询不分配堆内存
+// 文件格式 (小端):
+//   头部 16 字节: 魔数 "XQBK", 版本号 int, 表项数 long
+//   表项 ENTRY_BYTES 字节: 局面哈希 long, 走法 short (起点 << 8 | 终点), 权重 short, 胜 short, 和 short, 负 short, 保留 short
+// 同一哈希的表项相邻, 按权重从高到低排列; 胜和负都从走这步的一方来看
+// 由 OpeningBookBuilder 生成; 映射后的只读缓冲区可被多个线程同时查询
+public final class OpeningBook {
+    public static final int MAGIC = 0x4B425158;  // "XQBK"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int ENTRY_BYTES = 20;
+
+    private final MappedByteBuffer buffer;
+    private final long entries;
+
+    private OpeningBook(MappedByteBuffer buffer, long entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public static OpeningBook open(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("开局库文件大小无效: " + size);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("不是开局库文件: " + path);
+            }
+            var entries = buffer.getLong(8);
+            if (HEADER_BYTES + entries * ENTRY_BYTES != size) {
+                throw new IOException("开局库文件已损坏: " + path);
+            }
+            return new OpeningBook(buffer, entries);
+        }
+    }
+
+    public long size() {
+        return entries;
+    }
+
+    // 按权重随机选一步, random 为调用方提供的非负随机数; 没有该局面时返回 0
+    // 调用方需用 MoveGenerator.isLegal 再确认一次, 以防哈希碰撞
+    public int probe(long hash, int random) {
+        var first = lowerBound(hash);
+        if (first >= entries || hashAt(first) != hash) return 0;
+
+        long total = 0;
+        for (var i = first; i < entries && hashAt(i) == hash; i++) {
+            total += weightAt(i);
+        }
+        if (total == 0) return 0;
+        var pick = Math.floorMod(random, total);
+        for (var i = first; i < entries && hashAt(i) == hash; i++) {
+            pick -= weightAt(i);
+            if (pick < 0) return moveAt(i);
+        }
+        return 0;
+    }
+
+    // 该局面的表项数, 以及逐项读取; 用于统计和调试, 同样不分配内存
+    public int count(long hash) {
+        var first = lowerBound(hash);
+        var n = 0;
+        for (var i = first; i < entries && hashAt(i) == hash; i++) n++;
+        return n;
+    }
+
+    public long firstIndex(long hash) {
+        return lowerBound(hash);
+    }
+
+    public long hashAt(long index) { return buffer.getLong(offset(index)); }
+    public int moveAt(long index) { return buffer.getShort(offset(index) + 8) & 0xFFFF; }
+    public int weightAt(long index) { return buffer.getShort(offset(index) + 10) & 0xFFFF; }
+    public int winsAt(long index) { return buffer.getShort(offset(index) + 12) & 0xFFFF; }
+    public int drawsAt(long index) { return buffer.getShort(offset(index) + 14) & 0xFFFF; }
+    public int lossesAt(long index) { return buffer.getShort(offset(index) + 16) & 0xFFFF; }
+
+    // 第一个哈希不小于 hash 的表项 (按无符号比较排序)
+    private long lowerBound(long hash) {
+        long low = 0;
+        var high = entries;
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(hashAt(mid), hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int offset(long index) {
+        return (int) (HEADER_BYTES + index * ENTRY_BYTES);
+    }
+}
@@ -0,0 +1,150 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+// 从 game_records 中保存的着法生成开局库文件 (格式见 OpeningBook)
+// 重放每局的前 max-ply 步, 按 (局面哈希, 走法) 统计胜和负; 权重 = 2 × 胜 + 和, 权重为 0 (只输不赢) 或局数不足的走法不收录
+// 也可以用 --input 从文本文件读取对局, 每行为 "结果 着法...", 结果为 red / black / draw, 着法格式同 GameRecord.moves
+// 用法: java -cp "build:lib/*" src.OpeningBookBuilder [--output=opening.book] [--max-ply=24] [--min-games=2] [--input=games.txt]
+public class OpeningBookBuilder {
+    // 结果与走棋方用同一套编号, 便于判断胜负
+    private static final int RED_WIN = Position.RED;
+    private static final int BLACK_WIN = Position.BLACK;
+    private static final int DRAW = 2;
+
+    private static final class Stats {
+        int wins;
+        int draws;
+        int losses;
+    }
+
+    private final int maxPly;
+    private final HashMap<Long, HashMap<Integer, Stats>> positions = new HashMap<>();
+    private int games = 0;
+    private int rejected = 0;
+
+    public OpeningBookBuilder(int maxPly) {
+        this.maxPly = maxPly;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var output = "opening.book";
+        var maxPly = 24;
+        var minGames = 2;
+        String input = null;
+        for (var arg : args) {
+            if (arg.startsWith("--output=")) output = arg.substring(9);
+            else if (arg.startsWith("--max-ply=")) maxPly = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--min-games=")) minGames = Integer.parseInt(arg.substring(12));
+            else if (arg.startsWith("--input=")) input = arg.substring(8);
+        }
+
+        var builder = new OpeningBookBuilder(maxPly);
+        if (input != null) {
+            for (var line : Files.readAllLines(Path.of(input))) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                var space = line.indexOf(' ');
+                if (space < 0) continue;
+                var result = switch (line.substring(0, space)) {
+                    case "red" -> RED_WIN;
+                    case "black" -> BLACK_WIN;
+                    default -> DRAW;
+                };
+                builder.addGame(line.substring(space + 1), result);
+            }
+        } else {
+            var database = new ChessDatabase();
+            database.forEachGameWithMoves(record -> {
+                var result = record.getWinnerId() == record.getRedPlayerId() ? RED_WIN
+                        : record.getWinnerId() == record.getBlackPlayerId() ? BLACK_WIN : DRAW;
+                builder.addGame(record.getMoves(), result);
+            });
+            database.closeConnection();
+        }
+
+        var written = builder.write(Path.of(output), minGames);
+        System.out.println("对局 " + builder.games + " 局 (着法无效跳过 " + builder.rejected + " 局), 局面 " +
+                builder.positions.size() + " 个, 写入表项 " + written + " 条 -> " + output);
+    }
+
+    // 着法无效时整局丢弃, 避免把错误局面写进库里
+    public void addGame(String moves, int result) {
+        var position = new Position();
+        var seen = new ArrayList<long[]>();
+        var tokens = moves.trim().split("\\s+");
+        for (var ply = 0; ply < tokens.length && ply < maxPly; ply++) {
+            var token = tokens[ply];
+            if (token.length() != 4) {
+                rejected++;
+                return;
+            }
+            var fromRow = token.charAt(0) - '0';
+            var fromCol = token.charAt(1) - '0';
+            var toRow = token.charAt(2) - '0';
+            var toCol = token.charAt(3) - '0';
+            if (!Position.onBoard(fromRow, fromCol) || !Position.onBoard(toRow, toCol)
+                    || !MoveGenerator.isLegal(position, Position.square(fromRow, fromCol), Position.square(toRow, toCol))) {
+                rejected++;
+                return;
+            }
+            var from = Position.square(fromRow, fromCol);
+            var to = Position.square(toRow, toCol);
+            seen.add(new long[]{position.hash(), MoveGenerator.move(from, to), position.sideToMove()});
+            position.makeMove(from, to);
+        }
+        games++;
+        for (var entry : seen) {
+            var stats = positions.computeIfAbsent(entry[0], h -> new HashMap<>())
+                    .computeIfAbsent((int) entry[1], m -> new Stats());
+            var mover = (int) entry[2];
+            if (result == DRAW) stats.draws++;
+            else if (result == mover) stats.wins++;
+            else stats.losses++;
+        }
+    }
+
+    // 返回写入的表项数
+    public long write(Path path, int minGames) throws IOException {
+        var rows = new ArrayList<long[]>();
+        for (var position : positions.entrySet()) {
+            for (var move : position.getValue().entrySet()) {
+                var stats = move.getValue();
+                var weight = 2L * stats.wins + stats.draws;
+                if (weight == 0 || stats.wins + stats.draws + stats.losses < minGames) continue;
+                rows.add(new long[]{position.getKey(), move.getKey(), Math.min(weight, 0xFFFF),
+                        stats.wins, stats.draws, stats.losses});
+            }
+        }
+        // 查询按无符号比较做二分, 排序须一致; 同一局面内权重高的在前
+        rows.sort(Comparator.<long[], Long>comparing(row -> row[0], Long::compareUnsigned)
+                .thenComparingLong(row -> -row[2]));
+
+        var entry = ByteBuffer.allocate(OpeningBook.ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (var out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            var header = ByteBuffer.allocate(OpeningBook.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putLong(rows.size());
+            out.write(header.array());
+            for (var row : rows) {
+                entry.clear();
+                entry.putLong(row[0])
+                        .putShort((short) row[1])
+                        .putShort((short) row[2])
+                        .putShort((short) Math.min(row[3], 0xFFFF))
+                        .putShort((short) Math.min(row[4], 0xFFFF))
+                        .putShort((short) Math.min(row[5], 0xFFFF))
+                        .putShort((short) 0);
+                out.write(entry.array());
+            }
+        }
+        return rows.size();
+    }
+}
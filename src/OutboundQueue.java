@@ -0,0 +1,125 @@
+package src;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// 每个连接的有界发送队列: 广播只负责入队, 由连接自己的写线程 (或 NIO I/O 线程) 取出发送
+// 这样慢客户端只会堆积自己的队列, 不会阻塞走棋线程
+public class OutboundQueue {
+    // 与客户端 BufferedReader 的默认编码一致
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // 已编码好的一行消息; 广播时只编码一次, 所有连接的队列共享同一个字节数组
+    public static final class Frame {
+        public enum Kind { TIME, BOARD, VOICE, OTHER }
+
+        private final Kind kind;
+        private final String message;
+        private final byte[] bytes;
+        private volatile Frame binary;
+
+        private Frame(Kind kind, String message, byte[] bytes) {
+            this.kind = kind;
+            this.message = message;
+            this.bytes = bytes;
+        }
+
+        public static Frame of(String message) {
+            Kind kind;
+            if (message.startsWith("TIME:")) kind = Kind.TIME;
+            else if (message.startsWith("BOARD:")) kind = Kind.BOARD;
+            else if (message.startsWith("VOICE:")) kind = Kind.VOICE;
+            else kind = Kind.OTHER;
+            return new Frame(kind, message, (message + "\n").getBytes(CHARSET));
+        }
+
+        // 同一条消息的二进制协议版本, 首次使用时编码并缓存, 同样在所有二进制连接间共享
+        public Frame binary() {
+            var result = binary;
+            if (result == null) {
+                result = new Frame(kind, message, WireCodec.encode(message));
+                binary = result;
+            }
+            return result;
+        }
+
+        public Kind kind() { return kind; }
+        public String message() { return message; }
+
+        // 调用方不得修改返回的数组
+        public byte[] bytes() { return bytes; }
+    }
+
+    public enum OverflowPolicy {
+        DROP_TIME,   // 队列满时丢弃尚未发送的 TIME/VOICE, 仍然满则断开
+        COALESCE,    // 在 DROP_TIME 基础上, 只保留最新的一份 BOARD 快照
+        DISCONNECT;  // 队列满直接断开
+
+        public static OverflowPolicy parse(String value) {
+            return switch (value) {
+                case "drop-time" -> DROP_TIME;
+                case "disconnect" -> DISCONNECT;
+                default -> COALESCE;
+            };
+        }
+    }
+
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private boolean closed = false;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    // 返回 false 表示按策略无法再容纳, 调用方应断开该连接
+    public synchronized boolean offer(Frame frame) {
+        if (closed) return true;
+        if (queue.size() >= capacity && !makeRoom(frame)) {
+            return false;
+        }
+        queue.addLast(frame);
+        notifyAll();
+        return true;
+    }
+
+    private boolean makeRoom(Frame incoming) {
+        if (policy == OverflowPolicy.DISCONNECT) return false;
+
+        queue.removeIf(f -> f.kind == Frame.Kind.TIME || f.kind == Frame.Kind.VOICE);
+        if (policy == OverflowPolicy.COALESCE && incoming.kind == Frame.Kind.BOARD) {
+            queue.removeIf(f -> f.kind == Frame.Kind.BOARD);
+        }
+        return queue.size() < capacity;
+    }
+
+    // 写线程使用: 阻塞直到有消息, 一次取出全部待发消息以便合并 flush; 关闭后返回空列表
+    public synchronized List<Frame> takeBatch() throws InterruptedException {
+        while (queue.isEmpty() && !closed) {
+            wait();
+        }
+        return pollBatch();
+    }
+
+    // NIO 使用: 不阻塞
+    public synchronized List<Frame> pollBatch() {
+        var batch = new ArrayList<Frame>(queue.size());
+        batch.addAll(queue);
+        queue.clear();
+        return batch;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,31 @@
+package src;
+
+// 走法生成校验: 从开局局面统计各深度的叶子节点数, 与公认结果比对
+// 用法: java -cp build src.Perft [--depth=4]    (深度 5 约 1.3 亿节点)
+public class Perft {
+    private static final long[] EXPECTED = {1, 44, 1920, 79666, 3290240, 133312995};
+
+    public static void main(String[] args) {
+        var maxDepth = 4;
+        for (var arg : args) {
+            if (arg.startsWith("--depth=")) maxDepth = Integer.parseInt(arg.substring(8));
+        }
+        maxDepth = Math.min(maxDepth, EXPECTED.length - 1);
+
+        var failed = false;
+        System.out.printf("%-6s %14s %14s %10s %12s %6s%n", "深度", "节点数", "期望", "耗时(ms)", "节点/秒", "结果");
+        for (var depth = 1; depth <= maxDepth; depth++) {
+            var position = new Position();
+            var start = System.nanoTime();
+            var nodes = MoveGenerator.perft(position, depth);
+            var nanos = System.nanoTime() - start;
+            var ok = nodes == EXPECTED[depth];
+            failed |= !ok;
+            System.out.printf("%-6d %14d %14d %10d %12.0f %6s%n", depth, nodes, EXPECTED[depth],
+                    nanos / 1_000_000, nodes * 1e9 / nanos, ok ? "通过" : "失败");
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package src;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// 终局结果的异步写入 (write-behind): 房间线程只把 GameRecord 放进有界队列, 由单独的写线程成批落盘
+// 写线程每次取走队列中已有的全部结果 (至多 batchSize 局), 在一个事务中写入对局记录和双方战绩, 整批只 fsync 一次
+// 同一局的三条写入总在同一个事务里, 不会只记了对局没记战绩; 整批失败时逐局单独重试, 一局坏数据不会拖累其他对局
+// 队列满时 submit 阻塞 (背压), 直到写线程腾出空位, 内存占用有上限; 正常情况下走子路径从不等待磁盘
+// close 后不再接受新结果, 写线程把队列中剩余的结果全部写完才退出; 之后到达的结果在调用线程上直接写入
+public final class PersistenceQueue {
+    private final ChessDatabase database;
+    private final ArrayBlockingQueue<GameRecord> queue;
+    private final int batchSize;
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    public PersistenceQueue(ChessDatabase database, int capacity, int batchSize) {
+        this.database = database;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.writer = new Thread(this::run, "persistence-writer");
+        this.writer.start();
+    }
+
+    public void submit(GameRecord record) {
+        if (!closed) {
+            if (queue.offer(record)) return;
+            System.out.println("持久化队列已满 (" + queue.size() + " 局待写)，等待写线程");
+            try {
+                while (!closed) {
+                    if (queue.offer(record, 100, TimeUnit.MILLISECONDS)) return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        write(List.of(record));
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    // 停止接受新结果并等待队列写完
+    public void close() {
+        if (closed) return;
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<GameRecord>(batchSize);
+        while (true) {
+            try {
+                var first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) batch.add(first);
+            } catch (InterruptedException e) {
+                // close() 唤醒, 下面检查 closed 后把剩余的写完
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            } else if (closed) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<GameRecord> batch) {
+        try {
+            database.saveFinishedGames(batch);
+            System.out.println("已写入 " + batch.size() + " 局对局记录");
+            return;
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                System.out.println("保存对局记录失败: " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
+            System.out.println("批量写入失败, 逐局重试: " + e.getMessage());
+        }
+        for (var record : batch) {
+            write(List.of(record));
+        }
+    }
+}
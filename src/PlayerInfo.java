@@ -12,6 +12,8 @@ public class PlayerInfo implements Serializable {
     private int wins;
     private int losses;
     private LocalDateTime createdAt;
+    private double rating = Glicko2.INITIAL.rating();
+    private double ratingDeviation = Glicko2.INITIAL.deviation();
     
     public PlayerInfo() {}
     
@@ -39,6 +41,12 @@ public class PlayerInfo implements Serializable {
     public double getWinRate() { return totalGames > 0 ? (double) wins / totalGames : 0.0; }
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public double getRating() { return rating; }
+    public void setRating(double rating) { this.rating = rating; }
+    public double getRatingDeviation() { return ratingDeviation; }
+    public void setRatingDeviation(double ratingDeviation) { this.ratingDeviation = ratingDeviation; }
+    // RD 过大时等级分还不可靠, 显示时加 "?"
+    public boolean isRatingProvisional() { return Glicko2.isProvisional(ratingDeviation); }
     
     @Override
     public String toString() {
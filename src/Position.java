@@ -0,0 +1,378 @@
+package src;
+
+import java.util.Arrays;
+
+// 整数编码的局面: 90 个格子 (格子编号 = 行*9+列, 第 0 行为黑方底线) 各用一个字节存棋子编码
+// 棋子编码与二进制协议一致: 0 为空, 1-7 红方 车马相仕帅砲兵, 8-14 黑方 車馬象士將炮卒
+// 文字棋盘只在协议边界 (BoardSnapshot / WireCodec) 生成; 不是线程安全的, 由房间工作线程独占
+public final class Position {
+    public static final int RED = 0;
+    public static final int BLACK = 1;
+
+    public static final int EMPTY = 0;
+    public static final int ROOK = 1;
+    public static final int KNIGHT = 2;
+    public static final int ELEPHANT = 3;
+    public static final int ADVISOR = 4;
+    public static final int KING = 5;
+    public static final int CANNON = 6;
+    public static final int PAWN = 7;
+
+    public static final int SQUARES = 90;
+
+    private static final String[] NAMES = {
+        "  ", "车", "马", "相", "仕", "帅", "砲", "兵",
+              "車", "馬", "象", "士", "將", "炮", "卒"
+    };
+
+    // 预计算的走法表: 下标为起点格子, 马腿/象眼与目标一一对应 (MoveGenerator 共用)
+    static final int[][] KNIGHT_TARGETS = new int[SQUARES][];
+    static final int[][] KNIGHT_LEGS = new int[SQUARES][];
+    static final int[][][] ELEPHANT_TARGETS = new int[2][SQUARES][];
+    static final int[][][] ELEPHANT_EYES = new int[2][SQUARES][];
+    static final int[][][] ADVISOR_TARGETS = new int[2][SQUARES][];
+    static final int[][][] KING_TARGETS = new int[2][SQUARES][];
+    // 四个方向 (上, 下, 左, 右) 由近到远经过的格子, 供车炮走子和攻击检测
+    static final int[][][] RAYS = new int[SQUARES][4][];
+
+    // Zobrist 键: 由固定种子的 splitmix64 生成, 保证不同进程和开局库文件中同一局面的哈希一致
+    private static final long[][] PIECE_KEYS = new long[15][SQUARES];
+    private static final long SIDE_KEY;
+
+    static {
+        var seed = 0x5EED_C0DE_CAFE_F00DL;
+        for (var piece = 1; piece < PIECE_KEYS.length; piece++) {
+            for (var sq = 0; sq < SQUARES; sq++) {
+                seed += 0x9E3779B97F4A7C15L;
+                PIECE_KEYS[piece][sq] = mix64(seed);
+            }
+        }
+        seed += 0x9E3779B97F4A7C15L;
+        SIDE_KEY = mix64(seed);
+    }
+
+    static {
+        int[][] knightSteps = {{-2, -1}, {-2, 1}, {2, -1}, {2, 1}, {-1, -2}, {1, -2}, {-1, 2}, {1, 2}};
+        int[][] diagonal = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+        int[][] orthogonal = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+        for (var sq = 0; sq < SQUARES; sq++) {
+            var r = row(sq);
+            var c = col(sq);
+
+            var targets = new int[8];
+            var legs = new int[8];
+            var n = 0;
+            for (var step : knightSteps) {
+                if (onBoard(r + step[0], c + step[1])) {
+                    targets[n] = square(r + step[0], c + step[1]);
+                    // 马腿在长边方向上紧挨起点
+                    legs[n] = Math.abs(step[0]) == 2 ? square(r + step[0] / 2, c) : square(r, c + step[1] / 2);
+                    n++;
+                }
+            }
+            KNIGHT_TARGETS[sq] = Arrays.copyOf(targets, n);
+            KNIGHT_LEGS[sq] = Arrays.copyOf(legs, n);
+
+            for (var color = RED; color <= BLACK; color++) {
+                targets = new int[4];
+                var eyes = new int[4];
+                n = 0;
+                for (var step : diagonal) {
+                    var tr = r + step[0] * 2;
+                    var tc = c + step[1] * 2;
+                    if (onBoard(tr, tc) && ownHalf(color, tr)) {
+                        targets[n] = square(tr, tc);
+                        eyes[n] = square(r + step[0], c + step[1]);
+                        n++;
+                    }
+                }
+                ELEPHANT_TARGETS[color][sq] = Arrays.copyOf(targets, n);
+                ELEPHANT_EYES[color][sq] = Arrays.copyOf(eyes, n);
+
+                ADVISOR_TARGETS[color][sq] = palaceSteps(color, r, c, diagonal);
+                KING_TARGETS[color][sq] = palaceSteps(color, r, c, orthogonal);
+            }
+
+            for (var dir = 0; dir < 4; dir++) {
+                var ray = new int[9];
+                n = 0;
+                for (int tr = r + orthogonal[dir][0], tc = c + orthogonal[dir][1]; onBoard(tr, tc);
+                     tr += orthogonal[dir][0], tc += orthogonal[dir][1]) {
+                    ray[n++] = square(tr, tc);
+                }
+                RAYS[sq][dir] = Arrays.copyOf(ray, n);
+            }
+        }
+    }
+
+    private final byte[] squares = new byte[SQUARES];
+    private int sideToMove = RED;
+    // 双方将帅所在格, 随走子增量维护, 判断将军时不必扫描棋盘
+    private final int[] kingSquare = new int[2];
+    // 64 位 Zobrist 哈希, 随走子增量维护; 黑方走棋时异或 SIDE_KEY
+    private long hash;
+    // 子力构成: 每种棋子编码占 4 位记数量 (第 code*4 位起), 随吃子增量维护, 残局库据此 O(1) 找到对应的表
+    private long material;
+    private int pieceCount;
+
+    public Position() {
+        reset();
+    }
+
+    /* ==================== coordinates & codes ==================== */
+
+    public static int square(int row, int col) { return row * 9 + col; }
+    public static int row(int square) { return square / 9; }
+    public static int col(int square) { return square % 9; }
+
+    public static boolean onBoard(int row, int col) {
+        return row >= 0 && row < 10 && col >= 0 && col < 9;
+    }
+
+    // 红方在下 (第 5-9 行), 黑方在上 (第 0-4 行)
+    public static boolean ownHalf(int color, int row) {
+        return color == RED ? row >= 5 : row <= 4;
+    }
+
+    public static boolean inPalace(int color, int row, int col) {
+        return col >= 3 && col <= 5 && (color == RED ? row >= 7 && row <= 9 : row >= 0 && row <= 2);
+    }
+
+    public static int piece(int color, int type) { return color == RED ? type : type + 7; }
+
+    // 仅对非空棋子有意义
+    public static int colorOf(int piece) { return piece > 7 ? BLACK : RED; }
+    public static int typeOf(int piece) { return piece > 7 ? piece - 7 : piece; }
+
+    public static String colorName(int color) { return color == RED ? "红" : "黑"; }
+
+    public static int colorOf(String name) { return name.equals("黑") ? BLACK : RED; }
+
+    public static String pieceName(int piece) {
+        return piece >= 0 && piece < NAMES.length ? NAMES[piece] : NAMES[EMPTY];
+    }
+
+    public static int pieceCode(String name) {
+        return name.length() == 1 ? pieceCode(name.charAt(0)) : EMPTY;
+    }
+
+    public static int pieceCode(char c) {
+        return switch (c) {
+            case '车' -> 1;
+            case '马' -> 2;
+            case '相' -> 3;
+            case '仕' -> 4;
+            case '帅' -> 5;
+            case '砲' -> 6;
+            case '兵' -> 7;
+            case '車' -> 8;
+            case '馬' -> 9;
+            case '象' -> 10;
+            case '士' -> 11;
+            case '將' -> 12;
+            case '炮' -> 13;
+            case '卒' -> 14;
+            default -> EMPTY;
+        };
+    }
+
+    /* ==================== state ==================== */
+
+    public void reset() {
+        Arrays.fill(squares, (byte) EMPTY);
+        int[] backRank = {ROOK, KNIGHT, ELEPHANT, ADVISOR, KING, ADVISOR, ELEPHANT, KNIGHT, ROOK};
+        for (var c = 0; c < 9; c++) {
+            squares[square(0, c)] = (byte) piece(BLACK, backRank[c]);
+            squares[square(9, c)] = (byte) piece(RED, backRank[c]);
+        }
+        squares[square(2, 1)] = squares[square(2, 7)] = (byte) piece(BLACK, CANNON);
+        squares[square(7, 1)] = squares[square(7, 7)] = (byte) piece(RED, CANNON);
+        for (var c = 0; c < 9; c += 2) {
+            squares[square(3, c)] = (byte) piece(BLACK, PAWN);
+            squares[square(6, c)] = (byte) piece(RED, PAWN);
+        }
+        sideToMove = RED;
+        kingSquare[RED] = square(9, 4);
+        kingSquare[BLACK] = square(0, 4);
+        hash = computeHash();
+        material = 0;
+        pieceCount = 0;
+        for (var piece : squares) {
+            if (piece != EMPTY) {
+                material += materialUnit(piece);
+                pieceCount++;
+            }
+        }
+    }
+
+    // 清空棋盘, 之后用 put 摆子; 用于从 BOARD 消息或残局库索引还原局面
+    public void clear() {
+        Arrays.fill(squares, (byte) EMPTY);
+        sideToMove = RED;
+        kingSquare[RED] = kingSquare[BLACK] = -1;
+        hash = 0;
+        material = 0;
+        pieceCount = 0;
+    }
+
+    public void put(int square, int piece) {
+        var old = squares[square];
+        if (old != EMPTY) {
+            hash ^= PIECE_KEYS[old][square];
+            material -= materialUnit(old);
+            pieceCount--;
+        }
+        squares[square] = (byte) piece;
+        if (piece != EMPTY) {
+            hash ^= PIECE_KEYS[piece][square];
+            material += materialUnit(piece);
+            pieceCount++;
+            if (typeOf(piece) == KING) kingSquare[colorOf(piece)] = square;
+        }
+    }
+
+    public void setSideToMove(int color) {
+        if (color != sideToMove) {
+            sideToMove = color;
+            hash ^= SIDE_KEY;
+        }
+    }
+
+    public Position copy() {
+        var copy = new Position();
+        System.arraycopy(squares, 0, copy.squares, 0, SQUARES);
+        copy.sideToMove = sideToMove;
+        copy.kingSquare[RED] = kingSquare[RED];
+        copy.kingSquare[BLACK] = kingSquare[BLACK];
+        copy.hash = hash;
+        copy.material = material;
+        copy.pieceCount = pieceCount;
+        return copy;
+    }
+
+    public int pieceAt(int square) { return squares[square]; }
+    public int sideToMove() { return sideToMove; }
+    public int kingSquare(int color) { return kingSquare[color]; }
+    public long hash() { return hash; }
+    public long material() { return material; }
+    public int pieceCount() { return pieceCount; }
+
+    // material 中一枚 piece 对应的增量
+    public static long materialUnit(int piece) { return 1L << (piece * 4); }
+
+    // 执行一步 (不检查合法性) 并交换走棋方, 返回被吃棋子编码, 供 unmakeMove 还原
+    public int makeMove(int from, int to) {
+        var piece = squares[from];
+        var captured = squares[to];
+        squares[to] = piece;
+        squares[from] = EMPTY;
+        if (typeOf(piece) == KING) kingSquare[colorOf(piece)] = to;
+        sideToMove ^= 1;
+        hash ^= PIECE_KEYS[piece][from] ^ PIECE_KEYS[piece][to] ^ SIDE_KEY;
+        if (captured != EMPTY) {
+            hash ^= PIECE_KEYS[captured][to];
+            material -= materialUnit(captured);
+            pieceCount--;
+        }
+        return captured;
+    }
+
+    public void unmakeMove(int from, int to, int captured) {
+        var piece = squares[to];
+        squares[from] = piece;
+        squares[to] = (byte) captured;
+        if (typeOf(piece) == KING) kingSquare[colorOf(piece)] = from;
+        sideToMove ^= 1;
+        hash ^= PIECE_KEYS[piece][from] ^ PIECE_KEYS[piece][to] ^ SIDE_KEY;
+        if (captured != EMPTY) {
+            hash ^= PIECE_KEYS[captured][to];
+            material += materialUnit(captured);
+            pieceCount++;
+        }
+    }
+
+    // 从头计算哈希, 用于初始化和校验增量结果
+    public long computeHash() {
+        var h = sideToMove == BLACK ? SIDE_KEY : 0L;
+        for (var sq = 0; sq < SQUARES; sq++) {
+            if (squares[sq] != EMPTY) h ^= PIECE_KEYS[squares[sq]][sq];
+        }
+        return h;
+    }
+
+    /* ==================== move rules ==================== */
+
+    // 按棋子走法判断 from -> to 是否可走, 不考虑轮到哪一方, 也不考虑走后是否被将军
+    public boolean isValidMove(int from, int to) {
+        if (from < 0 || from >= SQUARES || to < 0 || to >= SQUARES || from == to) return false;
+        var piece = squares[from];
+        if (piece == EMPTY) return false;
+        var target = squares[to];
+        var color = colorOf(piece);
+        if (target != EMPTY && colorOf(target) == color) return false;
+
+        return switch (typeOf(piece)) {
+            case ROOK -> countBetween(from, to) == 0;
+            case CANNON -> countBetween(from, to) == (target == EMPTY ? 0 : 1);
+            case KNIGHT -> isTableMove(KNIGHT_TARGETS[from], KNIGHT_LEGS[from], to);
+            case ELEPHANT -> isTableMove(ELEPHANT_TARGETS[color][from], ELEPHANT_EYES[color][from], to);
+            case ADVISOR -> contains(ADVISOR_TARGETS[color][from], to);
+            case KING -> contains(KING_TARGETS[color][from], to);
+            case PAWN -> isValidPawnMove(from, to, color);
+            default -> false;
+        };
+    }
+
+    // 同一行或同一列上两点之间的棋子数; 不在同一直线上返回 -1
+    private int countBetween(int from, int to) {
+        int step;
+        if (row(from) == row(to)) step = 1;
+        else if (col(from) == col(to)) step = 9;
+        else return -1;
+        if (to < from) step = -step;
+        var count = 0;
+        for (var sq = from + step; sq != to; sq += step) {
+            if (squares[sq] != EMPTY) count++;
+        }
+        return count;
+    }
+
+    // 目标在表中且对应的马腿/象眼为空
+    private boolean isTableMove(int[] targets, int[] blockers, int to) {
+        for (var i = 0; i < targets.length; i++) {
+            if (targets[i] == to) return squares[blockers[i]] == EMPTY;
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] targets, int to) {
+        for (var target : targets) {
+            if (target == to) return true;
+        }
+        return false;
+    }
+
+    // 兵卒只能前进一步, 过河后也可以横走一步
+    private static boolean isValidPawnMove(int from, int to, int color) {
+        var forward = color == RED ? -9 : 9;
+        if (to == from + forward) return true;
+        return !ownHalf(color, row(from)) && row(to) == row(from) && Math.abs(to - from) == 1;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int[] palaceSteps(int color, int r, int c, int[][] steps) {
+        var targets = new int[steps.length];
+        var n = 0;
+        for (var step : steps) {
+            if (inPalace(color, r + step[0], c + step[1])) {
+                targets[n++] = square(r + step[0], c + step[1]);
+            }
+        }
+        return Arrays.copyOf(targets, n);
+    }
+}
@@ -0,0 +1,99 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Base64;
+
+// 线路协议对比: 对常见消息分别用文本协议和二进制协议 (WireCodec) 编码/解码, 报告每条消息的字节数和耗时
+// 用法: java -cp build src.ProtocolBenchmark [--iterations=200000]
+public class ProtocolBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    public static void main(String[] args) {
+        var iterations = 200000;
+        for (var arg : args) {
+            if (arg.startsWith("--iterations=")) iterations = Integer.parseInt(arg.substring(13));
+        }
+
+        var voice = new byte[3200];  // 约 100ms 的 16kHz 16bit 单声道 PCM
+        Arrays.fill(voice, (byte) 0x5A);
+        String[][] samples = {
+            {"BOARD", BoardSnapshot.encode(42, new Position()).getMessage()},
+            {"DELTA", "DELTA:43,64,67,卒,黑"},
+            {"MOVE", "MOVE:7,1,7,4"},
+            {"TIME", "TIME:12:34"},
+            {"CLOCK", "CLOCK:754321,running"},
+            {"CHAT", "CHAT:红: 这步棋走得不错"},
+            {"VOICE", "VOICE:" + Base64.getEncoder().encodeToString(voice)},
+        };
+
+        // 先全部跑一遍预热, 再正式计时
+        for (var sample : samples) {
+            measure(sample[1], iterations);
+        }
+
+        System.out.println("==== 协议对比 (" + iterations + " 次/消息) ====");
+        System.out.printf("%-6s %10s %10s %14s %14s %14s %14s%n",
+                "消息", "文本字节", "二进制字节", "文本编码ns", "二进制编码ns", "文本解码ns", "二进制解码ns");
+        for (var sample : samples) {
+            var r = measure(sample[1], iterations);
+            System.out.printf("%-6s %10d %10d %14.1f %14.1f %14.1f %14.1f%n",
+                    sample[0], (long) r[0], (long) r[1], r[2], r[3], r[4], r[5]);
+        }
+    }
+
+    // 返回 {文本字节, 二进制字节, 文本编码, 二进制编码, 文本解码, 二进制解码 (ns/次)}
+    private static double[] measure(String message, int iterations) {
+        var text = (message + "\n").getBytes(CHARSET);
+        var binary = WireCodec.encode(message);
+        if (!decodeBinary(binary).equals(message)) {
+            throw new IllegalStateException("二进制往返结果不一致: " + message);
+        }
+
+        long sink = 0;
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink += (message + "\n").getBytes(CHARSET).length;
+        }
+        var textEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink += WireCodec.encode(message).length;
+        }
+        var binaryEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink += new String(text, 0, text.length - 1, CHARSET).length();
+        }
+        var textDecode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink += decodeBinary(binary).length();
+        }
+        var binaryDecode = System.nanoTime() - start;
+
+        if (sink == 42) System.out.print("");  // 防止循环被优化掉
+        return new double[]{
+            text.length, binary.length,
+            (double) textEncode / iterations, (double) binaryEncode / iterations,
+            (double) textDecode / iterations, (double) binaryDecode / iterations
+        };
+    }
+
+    // 跳过 varint 长度前缀后解码
+    private static String decodeBinary(byte[] frame) {
+        var pos = 0;
+        while ((frame[pos] & 0x80) != 0) pos++;
+        pos++;
+        try {
+            return WireCodec.decode(frame, pos, frame.length - pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package src;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// 等级分批量重算: 按评级周期 (默认 24 小时) 重放 game_records 中的全部对局, 重写 players 的等级分和 rating_history
+// 实时更新把每一局当作一个周期; 重算时同一周期内的对局一起计算, 都用周期开始时的等级分, 结果与实时更新略有不同
+// 步骤: 一次顺序扫描把对局读进基本类型数组 -> 按周期计数排序 -> 逐周期计算 -> 分批写回
+// 周期之间必须依次进行; 同一周期内各玩家的计算互不依赖, 出场玩家多时用 --threads 个线程并行
+// 缺席的周期不逐一计算, 玩家下次出场时一次补上 RD 的回升 (Glicko2.idle); 最后一次出场之后的缺席不计入当前等级分
+// 须在服务器停止时运行; 中途失败可以直接重新运行, 每次都从头重算
+// 用法: java -cp "build:lib/*" src.RatingRecompute [--db=chinesechess.db] [--period-hours=24] [--threads=CPU 核数]
+//           [--history=true]
+public class RatingRecompute {
+    private static final int HISTORY_BATCH = 100_000;
+    private static final int PARALLEL_THRESHOLD = 512;  // 一个周期内出场的玩家少于此数时分派到多个线程不划算
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // 全部计分对局, 按读取顺序存放
+    private static final class Games {
+        int[] red = new int[1 << 16];
+        int[] black = new int[1 << 16];
+        byte[] redPoints = new byte[1 << 16];  // 红方得分的两倍: 2 胜, 1 和, 0 负
+        long[] endedAt = new long[1 << 16];
+        int size;
+        int maxPlayerId;
+
+        void add(int redId, int blackId, int winnerId, long ended) {
+            if (redId <= 0 || blackId <= 0) return;
+            if (size == red.length) {
+                var capacity = size * 2;
+                red = Arrays.copyOf(red, capacity);
+                black = Arrays.copyOf(black, capacity);
+                redPoints = Arrays.copyOf(redPoints, capacity);
+                endedAt = Arrays.copyOf(endedAt, capacity);
+            }
+            red[size] = redId;
+            black[size] = blackId;
+            redPoints[size] = (byte) (winnerId == -1 ? 1 : winnerId == redId ? 2 : 0);
+            endedAt[size] = ended;
+            size++;
+            maxPlayerId = Math.max(maxPlayerId, Math.max(redId, blackId));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new LinkedHashMap<String, String>();
+        for (var arg : args) {
+            var eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 0) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        var periodSeconds = Long.parseLong(options.getOrDefault("period-hours", "24")) * 3600;
+        var threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        var history = Boolean.parseBoolean(options.getOrDefault("history", "true"));
+
+        var database = new ChessDatabase("jdbc:sqlite:" + options.getOrDefault("db", "chinesechess.db"), 1);
+        if (!database.isConnected()) {
+            System.out.println("无法打开 SQLite 数据库 (缺少驱动?)");
+            System.exit(2);
+        }
+        try {
+            recompute(database, periodSeconds, threads, history);
+        } finally {
+            database.closeConnection();
+        }
+    }
+
+    private static void recompute(ChessDatabase database, long periodSeconds, int threads, boolean history)
+            throws Exception {
+        var start = System.nanoTime();
+        var games = new Games();
+        database.forEachRatedGame(games::add);
+        var players = Math.max(database.maxPlayerId(), games.maxPlayerId) + 1;
+        var readNanos = System.nanoTime() - start;
+        System.out.println("读取对局 " + games.size + " 局, 耗时 " + readNanos / 1_000_000 + " ms");
+
+        // 按周期计数排序: order[periodStart[p], periodStart[p + 1]) 为第 p 个周期的对局
+        var firstPeriod = Long.MAX_VALUE;
+        var lastPeriod = Long.MIN_VALUE;
+        for (var g = 0; g < games.size; g++) {
+            var period = Math.floorDiv(games.endedAt[g], periodSeconds);
+            firstPeriod = Math.min(firstPeriod, period);
+            lastPeriod = Math.max(lastPeriod, period);
+        }
+        var periods = games.size == 0 ? 0 : Math.toIntExact(lastPeriod - firstPeriod + 1);
+        var periodStart = new int[periods + 1];
+        for (var g = 0; g < games.size; g++) {
+            periodStart[(int) (Math.floorDiv(games.endedAt[g], periodSeconds) - firstPeriod) + 1]++;
+        }
+        var largestPeriod = 0;
+        for (var p = 0; p < periods; p++) {
+            largestPeriod = Math.max(largestPeriod, periodStart[p + 1]);
+            periodStart[p + 1] += periodStart[p];
+        }
+        var order = new int[games.size];
+        var fill = Arrays.copyOf(periodStart, periods);
+        for (var g = 0; g < games.size; g++) {
+            order[fill[(int) (Math.floorDiv(games.endedAt[g], periodSeconds) - firstPeriod)]++] = g;
+        }
+
+        // 每名玩家的当前等级分和最后出场的周期 (-1 表示还没有计分对局)
+        var current = new Glicko2.Rating[players];
+        var lastPlayed = new int[players];
+        Arrays.fill(lastPlayed, -1);
+        // 单个周期的工作区: 出场玩家 i 的对手和得分在 [offsets[i], offsets[i + 1]) 区间
+        var slot = new int[players];
+        var touched = new int[2 * largestPeriod];
+        var offsets = new int[2 * largestPeriod + 1];
+        var before = new Glicko2.Rating[2 * largestPeriod];
+        var after = new Glicko2.Rating[2 * largestPeriod];
+        var opponentRatings = new double[2 * largestPeriod];
+        var opponentDeviations = new double[2 * largestPeriod];
+        var scores = new double[2 * largestPeriod];
+
+        database.clearRatingHistory();
+        var pending = new ArrayList<ChessDatabase.RatingChange>();
+        var writeNanos = 0L;
+        var changes = 0L;
+        var rated = 0;
+        var forkJoin = new ForkJoinPool(Math.max(1, threads));
+        var computeStart = System.nanoTime();
+        try {
+            for (var p = 0; p < periods; p++) {
+                var from = periodStart[p];
+                var to = periodStart[p + 1];
+                if (from == to) continue;
+
+                // 出场的玩家和各自的对局数; slot 中的旧值不清理, 用 touched 反查确认是否属于本周期
+                var count = 0;
+                for (var k = from; k < to; k++) {
+                    var g = order[k];
+                    for (var side = 0; side < 2; side++) {
+                        var player = side == 0 ? games.red[g] : games.black[g];
+                        var i = slot[player];
+                        if (i >= count || touched[i] != player) {
+                            i = count++;
+                            slot[player] = i;
+                            touched[i] = player;
+                            offsets[i + 1] = 0;
+                        }
+                        offsets[i + 1]++;
+                    }
+                }
+                // 周期开始时的等级分: 缺席的周期在这里补上 RD 回升
+                for (var i = 0; i < count; i++) {
+                    offsets[i + 1] += offsets[i];
+                    var player = touched[i];
+                    before[i] = lastPlayed[player] < 0 ? Glicko2.INITIAL
+                            : Glicko2.idle(current[player], p - lastPlayed[player] - 1);
+                }
+                var cursor = Arrays.copyOf(offsets, count);
+                for (var k = from; k < to; k++) {
+                    var g = order[k];
+                    var r = slot[games.red[g]];
+                    var b = slot[games.black[g]];
+                    var redScore = games.redPoints[g] / 2.0;
+                    var j = cursor[r]++;
+                    opponentRatings[j] = before[b].rating();
+                    opponentDeviations[j] = before[b].deviation();
+                    scores[j] = redScore;
+                    j = cursor[b]++;
+                    opponentRatings[j] = before[r].rating();
+                    opponentDeviations[j] = before[r].deviation();
+                    scores[j] = 1 - redScore;
+                }
+
+                var size = count;
+                if (size < PARALLEL_THRESHOLD || threads <= 1) {
+                    for (var i = 0; i < size; i++) {
+                        after[i] = Glicko2.rate(before[i], opponentRatings, opponentDeviations, scores,
+                                offsets[i], offsets[i + 1]);
+                    }
+                } else {
+                    forkJoin.submit(() -> IntStream.range(0, size).parallel().forEach(i ->
+                            after[i] = Glicko2.rate(before[i], opponentRatings, opponentDeviations, scores,
+                                    offsets[i], offsets[i + 1]))).get();
+                }
+
+                var ratedAt = LocalDateTime.ofEpochSecond((firstPeriod + p + 1) * periodSeconds - 1, 0,
+                        ZoneOffset.UTC).format(TIME_FORMAT);
+                for (var i = 0; i < size; i++) {
+                    var player = touched[i];
+                    if (lastPlayed[player] < 0) rated++;
+                    current[player] = after[i];
+                    lastPlayed[player] = p;
+                    if (history) pending.add(new ChessDatabase.RatingChange(player, 0, after[i], ratedAt));
+                }
+                changes += size;
+                if (pending.size() >= HISTORY_BATCH) {
+                    writeNanos += flush(database, pending);
+                }
+            }
+            writeNanos += flush(database, pending);
+        } finally {
+            forkJoin.shutdown();
+        }
+        var computeNanos = System.nanoTime() - computeStart - writeNanos;
+
+        var replaceStart = System.nanoTime();
+        database.replaceRatings(current);
+        writeNanos += System.nanoTime() - replaceStart;
+
+        System.out.println("重算完成: " + games.size + " 局, " + rated + " 名玩家, " + periods + " 个周期 (每周期 "
+                + periodSeconds / 3600 + " 小时), 等级分变化 " + changes + " 次" + (history ? "" : " (未写历史)"));
+        System.out.printf("读取 %d ms, 计算 %d ms (%d 线程), 写回 %d ms, 总计 %d ms%n",
+                readNanos / 1_000_000, computeNanos / 1_000_000, threads, writeNanos / 1_000_000,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static long flush(ChessDatabase database, ArrayList<ChessDatabase.RatingChange> pending)
+            throws Exception {
+        if (pending.isEmpty()) return 0;
+        var start = System.nanoTime();
+        database.appendRatingHistory(pending);
+        pending.clear();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,146 @@
+package src;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+// 观战分析: 房间里有观战者订阅 (ANALYZE) 时, 在所有房间共用的分析线程池上分析当前局面, 每完成一轮迭代推送一次
+//   EVAL:版本号,深度,分数,主要变例
+// 分数从红方来看, 单位为分 (兵 = 30), 杀棋写作 M+n / M-n (n 为到杀棋的半回合数),
+// 残局库判定的胜负写作 TB+n / TB-n (n 为按残局库走到杀棋的半回合数); 主要变例为空格分隔的着法, 格式同 GameRecord.moves
+// 每个房间至多一个分析任务, 订阅者再多也只搜索一次, 同一条 EVAL 编码一次后共享给所有订阅者
+// 局面变化 (走子、新开局) 时中止旧任务并提交新任务; 旧任务迟到的结果按版本号丢弃
+// 一个局面的分析切成至多 SLICE_MILLIS 的片段, 每段从上一段完成的深度接着搜, 做完一段就排到线程池队尾,
+//   被观看的房间轮流使用分析线程: R 个房间、T 个线程时, 新局面等待第一条 EVAL 至多约 ceil(R / T) * SLICE_MILLIS
+// 订阅者集合和 lastFrame 只在房间工作线程上读写; 搜索在线程池上, 与房间线程之间只通过 version 和 engine 的锁交接
+final class RoomAnalysis {
+    static final long SLICE_MILLIS = 500;
+
+    private final GameRoom room;
+    private final ExecutorService analysisPool;
+    private final EnginePlayer.Settings settings;
+    private final Tablebase tablebase;  // 可以为 null
+
+    private final LinkedHashSet<Seat> subscribers = new LinkedHashSet<>();
+    private OutboundQueue.Frame lastFrame;  // 当前版本最近一条 EVAL, 补发给新订阅者
+
+    // 有人订阅时才分配置换表, 最后一名订阅者离开时释放; 任务带着提交时的 engine 和 table 运行
+    private TranspositionTable table;
+    private volatile SearchEngine engine;
+    // 正在分析的局面版本, -1 表示没有订阅者
+    private volatile long version = -1;
+
+    RoomAnalysis(GameRoom room, ExecutorService analysisPool, EnginePlayer.Settings settings, Tablebase tablebase) {
+        this.room = room;
+        this.analysisPool = analysisPool;
+        this.settings = settings;
+        this.tablebase = tablebase;
+    }
+
+    /* ==================== subscribers (房间线程) ==================== */
+
+    void subscribe(Seat client, long boardVersion, Position position) {
+        if (!subscribers.add(client)) return;
+        if (subscribers.size() == 1) {
+            positionChanged(boardVersion, position);
+        } else if (lastFrame != null) {
+            client.send(lastFrame);
+        }
+    }
+
+    void unsubscribe(Seat client) {
+        if (!subscribers.remove(client) || !subscribers.isEmpty()) return;
+        version = -1;
+        lastFrame = null;
+        if (engine != null) engine.stop();
+        // 不再有人观看就归还置换表的内存, 仍在退出中的任务持有的引用随任务结束释放
+        engine = null;
+        table = null;
+    }
+
+    // 房间每次局面变化后调用; 没有订阅者时什么也不做
+    void positionChanged(long boardVersion, Position position) {
+        if (subscribers.isEmpty()) return;
+        version = boardVersion;
+        lastFrame = null;
+        if (engine == null) {
+            table = new TranspositionTable(settings.hashMegabytes());
+            engine = new SearchEngine(table);
+            engine.setTablebase(tablebase);
+        }
+        engine.stop();
+        var root = position.copy();
+        var searcher = engine;
+        var hash = table;
+        try {
+            analysisPool.execute(() -> analyze(searcher, hash, boardVersion, root, 1, settings.timeMillis()));
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭
+        }
+    }
+
+    private void publish(long boardVersion, OutboundQueue.Frame frame) {
+        if (boardVersion != version) return;
+        lastFrame = frame;
+        for (var client : subscribers) {
+            client.send(frame);
+        }
+    }
+
+    /* ==================== search (搜索线程) ==================== */
+
+    // 搜索一段: 从 startDepth 开始, 至多 SLICE_MILLIS; 还有剩余时间且没搜到底时把下一段排到队尾
+    private void analyze(SearchEngine engine, TranspositionTable table, long boardVersion, Position root,
+                         int startDepth, long remainingMillis) {
+        int nextDepth;
+        long left;
+        synchronized (engine) {
+            // 先清除中止标记再检查版本: 检查之后的 stop() 一定会生效
+            // 订阅者走光后又有人订阅时版本号可能不变, 引擎已经换过的旧任务同样退出
+            engine.prepare();
+            if (boardVersion != version || engine != this.engine) return;
+            var red = root.sideToMove() == Position.RED;
+            engine.setListener((result, pv, length) -> {
+                var frame = OutboundQueue.Frame.of(format(boardVersion, result, red, pv, length));
+                room.execute(() -> publish(boardVersion, frame));
+            });
+            // 后续片段沿用同一代置换表, 上一段搜完的子树直接命中
+            if (startDepth == 1) table.newSearch();
+            var maxDepth = Math.min(settings.maxDepth(), SearchEngine.MAX_PLY - 1);
+            var start = System.currentTimeMillis();
+            var result = engine.iterate(root, new long[0], start + Math.min(SLICE_MILLIS, remainingMillis),
+                    maxDepth, startDepth, 1);
+            engine.setListener(null);
+            left = remainingMillis - (System.currentTimeMillis() - start);
+            // 局面变了、搜到深度上限、找到杀棋或用完分析时间时结束; 这一段没完成任何一层时下一段重搜同一层
+            if (boardVersion != version || result.depth() >= maxDepth
+                    || Math.abs(result.score()) >= SearchEngine.MATE_BOUND || left <= 0) return;
+            nextDepth = Math.max(startDepth, result.depth() + 1);
+        }
+        try {
+            analysisPool.execute(() -> analyze(engine, table, boardVersion, root, nextDepth, left));
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭
+        }
+    }
+
+    static String format(long boardVersion, SearchEngine.Result result, boolean redToMove, int[] pv, int length) {
+        var score = redToMove ? result.score() : -result.score();
+        var sb = new StringBuilder("EVAL:").append(boardVersion).append(',').append(result.depth()).append(',');
+        if (Math.abs(score) >= SearchEngine.MATE_BOUND) {
+            sb.append(score > 0 ? "M+" : "M-").append(SearchEngine.MATE - Math.abs(score));
+        } else if (Math.abs(score) >= SearchEngine.TABLEBASE_BOUND) {
+            sb.append(score > 0 ? "TB+" : "TB-").append(SearchEngine.TABLEBASE_WIN - Math.abs(score));
+        } else {
+            sb.append(score);
+        }
+        sb.append(',');
+        for (var i = 0; i < length; i++) {
+            if (i > 0) sb.append(' ');
+            var from = MoveGenerator.from(pv[i]);
+            var to = MoveGenerator.to(pv[i]);
+            sb.append(Position.row(from)).append(Position.col(from)).append(Position.row(to)).append(Position.col(to));
+        }
+        return sb.toString();
+    }
+}
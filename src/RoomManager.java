@@ -0,0 +1,206 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 房间注册表: 负责匹配、创建和回收房间, 并把房间分散到固定数量的工作线程上
+public class RoomManager {
+    private final ConcurrentHashMap<Integer, GameRoom> rooms = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRoomId = new AtomicInteger(1);
+    private final ScheduledExecutorService[] workers;
+    private final PersistenceQueue persistence;
+    private final ClientRegistry registry;
+    private final int clockSyncSeconds;
+    private long ticks = 0;  // 只在计时线程上读写
+
+    // 电脑棋手: 所有房间的搜索共用一个线程池, 与房间工作线程分开, 搜索不会拖慢走子和广播
+    private EnginePlayer.Settings engineSettings = new EnginePlayer.Settings(1000, 32, 16, 1);
+    private ExecutorService searchPool;
+    private int searchThreads = 1;
+    private OpeningBook openingBook;  // 所有电脑棋手共用, 可以为 null
+    private int engineWaitSeconds = -1;  // 等待对手超过该秒数自动安排电脑, 负数为关闭
+    private Tablebase tablebase;  // 残局库, 供电脑搜索和房间裁决共用, 可以为 null
+    // 观战分析: 单独的线程池, 长时间的分析不会占住电脑棋手走棋的线程
+    private EnginePlayer.Settings analysisSettings;
+    private ExecutorService analysisPool;
+
+    // 棋钟: 所有房间的超时提醒共用一个时间轮, 为 null 时不计时
+    private TimeControl timeControl;
+    private TimerWheel timerWheel;
+
+    public RoomManager(int workerCount, PersistenceQueue persistence, ClientRegistry registry, int clockSyncSeconds) {
+        this.persistence = persistence;
+        this.registry = registry;
+        this.clockSyncSeconds = Math.max(1, clockSyncSeconds);
+        this.workers = new ScheduledExecutorService[Math.max(1, workerCount)];
+        for (var i = 0; i < workers.length; i++) {
+            var index = i;
+            workers[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "room-worker-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void configureEngine(EnginePlayer.Settings settings, int searchThreads, int waitSeconds, OpeningBook book) {
+        this.engineSettings = settings;
+        this.openingBook = book;
+        this.engineWaitSeconds = waitSeconds;
+        this.searchThreads = Math.max(1, searchThreads);
+        this.searchPool = Executors.newFixedThreadPool(this.searchThreads, r -> {
+            var thread = new Thread(r, "engine-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 需在创建房间之前设置; threads 为 0 时关闭观战分析
+    public void configureAnalysis(EnginePlayer.Settings settings, int threads) {
+        if (threads <= 0) return;
+        this.analysisSettings = settings;
+        this.analysisPool = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "analysis-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 需在创建房间之前设置; control 为 null 时不计时
+    public void configureClock(TimeControl control) {
+        if (control == null) return;
+        this.timeControl = control;
+        this.timerWheel = new TimerWheel(100, 512);
+    }
+
+    // 需在创建房间之前设置
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    // 新连接的默认去处: 优先进入正在等待对手的房间, 其次是有空座位的房间, 否则开新房间
+    public synchronized GameRoom matchmake(Seat client) {
+        GameRoom target = null;
+        for (var room : rooms.values()) {
+            if (room.isWaitingForOpponent()) {
+                target = room;
+                break;
+            }
+            if (target == null && room.hasOpenSeat()) {
+                target = room;
+            }
+        }
+        if (target == null) {
+            target = createRoom();
+        }
+        target.join(client);
+        return target;
+    }
+
+    // JOIN_ROOM: 离开当前房间并进入指定房间, 房间已满时以观战身份加入
+    public synchronized GameRoom joinRoom(Seat client, int roomId) {
+        var target = rooms.get(roomId);
+        if (target == null) return null;
+        leave(client);
+        target.join(client);
+        return target;
+    }
+
+    public synchronized GameRoom joinNewRoom(Seat client) {
+        leave(client);
+        var room = createRoom();
+        room.join(client);
+        return room;
+    }
+
+    // PLAY_ENGINE 或等待超时: 让电脑坐到房间的空座位上; 没有空座位时返回 false
+    public boolean seatEngine(GameRoom room) {
+        return seatEngine(room, engineSettings.threads());
+    }
+
+    // threads 为该房间电脑每步使用的搜索线程数, 不超过共享搜索线程池的大小
+    public synchronized boolean seatEngine(GameRoom room, int threads) {
+        if (searchPool == null || !room.hasOpenSeat() || rooms.get(room.getRoomId()) != room) return false;
+        threads = Math.max(1, Math.min(threads, searchThreads));
+        room.join(new EnginePlayer(engineSettings.withThreads(threads), searchPool, openingBook, tablebase));
+        System.out.println("房间 " + room.getRoomId() + " 已安排电脑棋手，搜索线程数: " + threads);
+        return true;
+    }
+
+    public synchronized void leave(Seat client) {
+        var room = client.getRoom();
+        if (room == null) return;
+        room.leave(client);
+        client.setRoom(null, null);
+        // 房间里只剩电脑时让电脑也离开, 房间随之关闭
+        if (!room.hasHumans()) {
+            for (var engine : room.getEngines()) {
+                room.leave(engine);
+                engine.setRoom(null, null);
+            }
+        }
+        if (room.isEmpty()) {
+            rooms.remove(room.getRoomId());
+            System.out.println("房间 " + room.getRoomId() + " 已关闭，当前房间数: " + rooms.size());
+        }
+    }
+
+    public List<GameRoom> listRooms() {
+        var list = new ArrayList<>(rooms.values());
+        list.sort(Comparator.comparingInt(GameRoom::getRoomId));
+        return list;
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    // 计时推送也在各房间自己的工作线程上执行, 计时线程只负责投递, 不碰任何 socket
+    // 每 clockSyncSeconds 秒给 CLOCK 连接发一次校正
+    public void tickAll() {
+        var sync = ++ticks % clockSyncSeconds == 0;
+        var now = System.currentTimeMillis();
+        for (var room : rooms.values()) {
+            room.execute(() -> room.tick(sync));
+            var since = room.getWaitingSince();
+            if (engineWaitSeconds >= 0 && since > 0 && now - since >= engineWaitSeconds * 1000L) {
+                seatEngine(room);
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (var worker : workers) {
+            worker.shutdown();
+        }
+        if (searchPool != null) {
+            searchPool.shutdownNow();
+        }
+        if (analysisPool != null) {
+            analysisPool.shutdownNow();
+        }
+        if (timerWheel != null) {
+            timerWheel.shutdown();
+        }
+    }
+
+    private GameRoom createRoom() {
+        var roomId = nextRoomId.getAndIncrement();
+        var room = new GameRoom(roomId, workers[roomId % workers.length], persistence, registry, tablebase);
+        if (analysisPool != null) {
+            room.setAnalysis(new RoomAnalysis(room, analysisPool, analysisSettings, tablebase));
+        }
+        if (timeControl != null) {
+            room.setTimeControl(timeControl, timerWheel);
+        }
+        rooms.put(roomId, room);
+        System.out.println("房间 " + roomId + " 已创建，当前房间数: " + rooms.size());
+        return room;
+    }
+}
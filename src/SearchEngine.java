@@ -0,0 +1,450 @@
+package src;
+
+import java.util.Arrays;
+
+// 电脑棋手的搜索: 迭代加深 + PVS alpha-beta + 静态搜索 (只看吃子)
+// 走法排序: 置换表走法, MVV-LVA 吃子, 杀手走法, 历史表
+// 一个实例只供一个线程使用; 置换表可由多个实例共享
+public final class SearchEngine {
+    public static final int MATE = 30000;
+    public static final int MAX_PLY = 64;
+    static final int MATE_BOUND = MATE - MAX_PLY;
+    // 残局库胜负的分数: TABLEBASE_WIN - 到杀棋的半回合数, 低于杀棋分数区间, 高于任何子力评估
+    // [TABLEBASE_BOUND, MATE] 都是 "距离类" 分数, 存入置换表时与杀棋分数一样换算为相对当前节点的距离
+    static final int TABLEBASE_WIN = MATE_BOUND - 1;
+    private static final int MAX_TABLEBASE_DISTANCE = 1000;
+    static final int TABLEBASE_BOUND = TABLEBASE_WIN - MAX_PLY - MAX_TABLEBASE_DISTANCE;
+    private static final int INFINITY = 32000;
+    private static final int MAX_GAME_HISTORY = 256;
+
+    // 子力价值, 下标为棋子类型; 将帅的价值由将死分数体现
+    private static final int[] VALUE = {0, 600, 270, 120, 120, 0, 285, 30};
+    // MVV-LVA: 被吃子越值钱越先搜, 同等情况下用便宜的子去吃
+    private static final int[] VICTIM_ORDER = {0, 6, 4, 2, 2, 7, 5, 1};
+    private static final int[] ATTACKER_ORDER = {0, 4, 3, 2, 2, 6, 3, 1};
+
+    // 位置分, 红方视角 (第 0 行为黑方底线), 黑方按行镜像; 未列出的棋子为 0
+    private static final int[][] PIECE_SQUARE = new int[8][];
+    // 子力 + 位置分, 按棋子编码和格子预先相加, 黑方取负
+    private static final int[][] EVAL_TABLE = new int[15][Position.SQUARES];
+
+    static {
+        PIECE_SQUARE[Position.PAWN] = new int[]{
+             0,  3,  6,  9, 12,  9,  6,  3,  0,
+            18, 36, 56, 80,120, 80, 56, 36, 18,
+            14, 26, 42, 60, 80, 60, 42, 26, 14,
+            10, 20, 30, 34, 40, 34, 30, 20, 10,
+             6, 12, 18, 18, 20, 18, 18, 12,  6,
+             2,  0,  8,  0,  8,  0,  8,  0,  2,
+             0,  0, -2,  0,  4,  0, -2,  0,  0,
+             0,  0,  0,  0,  0,  0,  0,  0,  0,
+             0,  0,  0,  0,  0,  0,  0,  0,  0,
+             0,  0,  0,  0,  0,  0,  0,  0,  0,
+        };
+        PIECE_SQUARE[Position.KNIGHT] = new int[]{
+             4,  8, 16, 12,  4, 12, 16,  8,  4,
+             4, 10, 28, 16,  8, 16, 28, 10,  4,
+            12, 14, 16, 20, 18, 20, 16, 14, 12,
+             8, 24, 18, 24, 20, 24, 18, 24,  8,
+             6, 16, 14, 18, 16, 18, 14, 16,  6,
+             4, 12, 16, 14, 12, 14, 16, 12,  4,
+             2,  6,  8,  6, 10,  6,  8,  6,  2,
+             4,  2,  8,  8,  4,  8,  8,  2,  4,
+             0,  2,  4,  4, -2,  4,  4,  2,  0,
+             0, -4,  0,  0,  0,  0,  0, -4,  0,
+        };
+        PIECE_SQUARE[Position.ROOK] = new int[]{
+            14, 14, 12, 18, 16, 18, 12, 14, 14,
+            16, 20, 18, 24, 26, 24, 18, 20, 16,
+            12, 12, 12, 18, 18, 18, 12, 12, 12,
+            12, 18, 16, 22, 22, 22, 16, 18, 12,
+            12, 14, 12, 18, 18, 18, 12, 14, 12,
+            12, 16, 14, 20, 20, 20, 14, 16, 12,
+             6, 10,  8, 14, 14, 14,  8, 10,  6,
+             4,  8,  6, 14, 12, 14,  6,  8,  4,
+             8,  4,  8, 16,  8, 16,  8,  4,  8,
+            -2, 10,  6, 14, 12, 14,  6, 10, -2,
+        };
+        PIECE_SQUARE[Position.CANNON] = new int[]{
+             6,  4,  0,-10,-12,-10,  0,  4,  6,
+             2,  2,  0, -4,-14, -4,  0,  2,  2,
+             2,  2,  0,-10, -8,-10,  0,  2,  2,
+             0,  0, -2,  4, 10,  4, -2,  0,  0,
+             0,  0,  0,  2,  8,  2,  0,  0,  0,
+            -2,  0,  4,  2,  6,  2,  4,  0, -2,
+             0,  0,  0,  2,  4,  2,  0,  0,  0,
+             4,  0,  8,  6, 10,  6,  8,  0,  4,
+             0,  2,  4,  6,  6,  6,  4,  2,  0,
+             0,  0,  2,  6,  6,  6,  2,  0,  0,
+        };
+        for (var piece = 1; piece < EVAL_TABLE.length; piece++) {
+            var type = Position.typeOf(piece);
+            var red = Position.colorOf(piece) == Position.RED;
+            for (var sq = 0; sq < Position.SQUARES; sq++) {
+                var mirrored = red ? sq : Position.square(9 - Position.row(sq), Position.col(sq));
+                var bonus = PIECE_SQUARE[type] != null ? PIECE_SQUARE[type][mirrored] : 0;
+                EVAL_TABLE[piece][sq] = red ? VALUE[type] + bonus : -(VALUE[type] + bonus);
+            }
+        }
+    }
+
+    public record Result(int move, int score, int depth, long nodes) {}
+
+    // 每完成一轮迭代回调一次 (在搜索线程上), pv 为从置换表取出的主要变例, 只在回调期间有效
+    public interface IterationListener {
+        void completed(Result result, int[] pv, int pvLength);
+    }
+
+    private final TranspositionTable table;
+    private Tablebase tablebase;  // 可以为 null
+    private IterationListener listener;  // 可以为 null
+    private final int[] pv = new int[MAX_PLY];
+    private final long[] pvHashes = new long[MAX_PLY + 1];
+    private final int[][] moves = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] orderScores = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+    private final int[][] history = new int[Position.SQUARES][Position.SQUARES];
+    private final long[] path = new long[MAX_GAME_HISTORY + MAX_PLY + 1];
+    private int pathLength;
+    private int rootMove;  // 当前一轮根节点的最佳走法
+
+    private Position position;
+    private long nodes;
+    private long deadline;
+    private volatile boolean stopped;
+
+    public SearchEngine(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    public void setListener(IterationListener listener) {
+        this.listener = listener;
+    }
+
+    // 让正在进行的搜索尽快返回 (返回已完成的最深一轮结果)
+    public void stop() {
+        stopped = true;
+    }
+
+    // gameHashes 为本局此前出现过的局面哈希 (不含 root), 用于在搜索中把重复局面视为和棋
+    public Result search(Position root, long[] gameHashes, long timeMillis, int maxDepth) {
+        table.newSearch();
+        prepare();
+        return iterate(root, gameHashes, System.currentTimeMillis() + timeMillis, maxDepth, 1, 1);
+    }
+
+    // 清除上一次的中止标记; 多线程搜索时由调度方在提交任务前调用, 之后的 stop() 不会被覆盖
+    void prepare() {
+        stopped = false;
+    }
+
+    // 迭代加深: 从 startDepth 开始每轮加 depthStep, 直到 maxDepth、截止时间或被中止
+    // 不调用 table.newSearch(), 共享置换表的多个线程由调度方统一开始新的一代
+    Result iterate(Position root, long[] gameHashes, long deadline, int maxDepth, int startDepth, int depthStep) {
+        position = root.copy();
+        nodes = 0;
+        this.deadline = deadline;
+        for (var ply = 0; ply < killers.length; ply++) {
+            killers[ply][0] = killers[ply][1] = 0;
+        }
+        for (var row : history) {
+            Arrays.fill(row, 0);
+        }
+
+        pathLength = 0;
+        var from = Math.max(0, gameHashes.length - MAX_GAME_HISTORY);
+        for (var i = from; i < gameHashes.length; i++) {
+            path[pathLength++] = gameHashes[i];
+        }
+        path[pathLength++] = position.hash();
+
+        // 至少给出一步合法走法, 即使时间不够完成第一轮
+        var legal = new int[MoveGenerator.MAX_MOVES];
+        if (MoveGenerator.generateLegal(position, legal) == 0) {
+            return new Result(0, -MATE, 0, 0);
+        }
+        var best = new Result(legal[0], 0, 0, 0);
+
+        var start = System.currentTimeMillis();
+        var lastDepth = Math.min(maxDepth, MAX_PLY - 1);
+        for (var depth = Math.min(startDepth, lastDepth); depth <= lastDepth; depth += depthStep) {
+            rootMove = 0;
+            var score = search(depth, -INFINITY, INFINITY, 0);
+            if (stopped) break;
+            if (rootMove != 0) {
+                best = new Result(rootMove, score, depth, nodes);
+                if (listener != null) {
+                    listener.completed(best, pv, principalVariation(root, rootMove, depth));
+                }
+            }
+            // 找到杀棋或剩余时间不够再搜一轮时提前结束
+            if (Math.abs(score) >= MATE_BOUND) break;
+            if (System.currentTimeMillis() - start > (deadline - start) / 2) break;
+        }
+        return new Result(best.move(), best.score(), best.depth(), nodes);
+    }
+
+    /* ==================== search ==================== */
+
+    private int search(int depth, int alpha, int beta, int ply) {
+        if (ply > 0 && isRepetition()) return 0;
+        // 子力已在残局库范围内时直接取库中结果, 距离越短的胜局分数越高
+        if (ply > 0 && tablebase != null && position.pieceCount() <= tablebase.maxPieces()) {
+            var code = tablebase.probe(position);
+            if (code != Tablebase.NOT_FOUND) {
+                if (code == EndgameTable.DRAW) return 0;
+                var score = TABLEBASE_WIN - ply - Math.min(EndgameTable.distance(code), MAX_TABLEBASE_DISTANCE);
+                return EndgameTable.isWin(code) ? score : -score;
+            }
+        }
+
+        var side = position.sideToMove();
+        var inCheck = MoveGenerator.isInCheck(position, side);
+        if (inCheck) depth++;  // 将军延伸
+        if (depth <= 0 || ply >= MAX_PLY) return quiesce(alpha, beta, ply);
+
+        if ((++nodes & 2047) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+        if (stopped) return 0;
+
+        var hash = position.hash();
+        var data = table.probe(hash);
+        var hashMove = 0;
+        if (data != 0) {
+            hashMove = TranspositionTable.move(data);
+            if (ply > 0 && TranspositionTable.depth(data) >= depth) {
+                var score = fromTable(TranspositionTable.score(data), ply);
+                var bound = TranspositionTable.bound(data);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && score >= beta)
+                        || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        var list = moves[ply];
+        var count = MoveGenerator.generatePseudoLegal(position, list);
+        scoreMoves(list, orderScores[ply], count, hashMove, ply);
+
+        var originalAlpha = alpha;
+        var bestScore = -INFINITY;
+        var bestMove = 0;
+        var legal = 0;
+        for (var i = 0; i < count; i++) {
+            var move = pickNext(list, orderScores[ply], i, count);
+            var from = MoveGenerator.from(move);
+            var to = MoveGenerator.to(move);
+            var captured = position.makeMove(from, to);
+            if (MoveGenerator.isInCheck(position, side)) {
+                position.unmakeMove(from, to, captured);
+                continue;
+            }
+            legal++;
+            path[pathLength++] = position.hash();
+
+            int score;
+            if (legal == 1) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                score = -search(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta) {
+                    score = -search(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+
+            pathLength--;
+            position.unmakeMove(from, to, captured);
+            if (stopped) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (ply == 0) rootMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    if (score >= beta) {
+                        if (captured == Position.EMPTY) {
+                            rememberQuietCutoff(move, depth, ply);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        // 无合法走法: 将死和困毙在象棋中都算输
+        if (legal == 0) return -MATE + ply;
+
+        var bound = bestScore >= beta ? TranspositionTable.LOWER
+                : bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(hash, bestMove, toTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    // 静态搜索: 不被将军时只搜吃子, 可以选择不吃 (站桩分); 被将军时搜全部应将
+    private int quiesce(int alpha, int beta, int ply) {
+        if ((++nodes & 2047) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+        if (stopped) return 0;
+
+        var side = position.sideToMove();
+        if (ply >= MAX_PLY) return evaluate(position);
+        var inCheck = MoveGenerator.isInCheck(position, side);
+
+        var bestScore = -INFINITY;
+        var list = moves[ply];
+        int count;
+        if (inCheck) {
+            count = MoveGenerator.generatePseudoLegal(position, list);
+        } else {
+            bestScore = evaluate(position);
+            if (bestScore >= beta) return bestScore;
+            if (bestScore > alpha) alpha = bestScore;
+            count = MoveGenerator.generateCaptures(position, list);
+        }
+        scoreMoves(list, orderScores[ply], count, 0, ply);
+
+        var legal = 0;
+        for (var i = 0; i < count; i++) {
+            var move = pickNext(list, orderScores[ply], i, count);
+            var from = MoveGenerator.from(move);
+            var to = MoveGenerator.to(move);
+            var captured = position.makeMove(from, to);
+            if (MoveGenerator.isInCheck(position, side)) {
+                position.unmakeMove(from, to, captured);
+                continue;
+            }
+            legal++;
+            var score = -quiesce(-beta, -alpha, ply + 1);
+            position.unmakeMove(from, to, captured);
+            if (stopped) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (score >= beta) break;
+                }
+            }
+        }
+        if (inCheck && legal == 0) return -MATE + ply;
+        return bestScore;
+    }
+
+    // 走棋方视角的静态评估: 子力 + 位置分
+    public static int evaluate(Position position) {
+        var score = 0;
+        for (var sq = 0; sq < Position.SQUARES; sq++) {
+            var piece = position.pieceAt(sq);
+            if (piece != Position.EMPTY) score += EVAL_TABLE[piece][sq];
+        }
+        return position.sideToMove() == Position.RED ? score : -score;
+    }
+
+    /* ==================== move ordering ==================== */
+
+    private void scoreMoves(int[] list, int[] scores, int count, int hashMove, int ply) {
+        for (var i = 0; i < count; i++) {
+            var move = list[i];
+            var from = MoveGenerator.from(move);
+            var to = MoveGenerator.to(move);
+            var victim = position.pieceAt(to);
+            if (move == hashMove) {
+                scores[i] = 1 << 30;
+            } else if (victim != Position.EMPTY) {
+                scores[i] = (1 << 28) + VICTIM_ORDER[Position.typeOf(victim)] * 16
+                        - ATTACKER_ORDER[Position.typeOf(position.pieceAt(from))];
+            } else if (move == killers[ply][0]) {
+                scores[i] = (1 << 27) + 1;
+            } else if (move == killers[ply][1]) {
+                scores[i] = 1 << 27;
+            } else {
+                scores[i] = history[from][to];
+            }
+        }
+    }
+
+    // 选择排序的一步: 把剩余走法中分数最高的换到位置 i
+    private static int pickNext(int[] list, int[] scores, int i, int count) {
+        var best = i;
+        for (var j = i + 1; j < count; j++) {
+            if (scores[j] > scores[best]) best = j;
+        }
+        if (best != i) {
+            var move = list[i];
+            list[i] = list[best];
+            list[best] = move;
+            var score = scores[i];
+            scores[i] = scores[best];
+            scores[best] = score;
+        }
+        return list[i];
+    }
+
+    private void rememberQuietCutoff(int move, int depth, int ply) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        var entry = history[MoveGenerator.from(move)];
+        var to = MoveGenerator.to(move);
+        entry[to] += depth * depth;
+        if (entry[to] >= 1 << 26) {
+            // 防止溢出到杀手走法的分数区间
+            for (var row : history) {
+                for (var j = 0; j < row.length; j++) row[j] >>= 1;
+            }
+        }
+    }
+
+    /* ==================== helpers ==================== */
+
+    // 从根节点的最佳走法开始, 沿置换表走法取主要变例; 遇到非法走法 (哈希碰撞) 或重复局面即停止
+    private int principalVariation(Position root, int firstMove, int maxLength) {
+        var line = root.copy();
+        var length = 0;
+        var move = firstMove;
+        pvHashes[0] = line.hash();
+        while (move != 0 && length < Math.min(maxLength, pv.length)
+                && MoveGenerator.isLegal(line, MoveGenerator.from(move), MoveGenerator.to(move))) {
+            pv[length++] = move;
+            line.makeMove(MoveGenerator.from(move), MoveGenerator.to(move));
+            pvHashes[length] = line.hash();
+            for (var i = 0; i < length; i++) {
+                if (pvHashes[i] == line.hash()) return length;
+            }
+            var data = table.probe(line.hash());
+            move = data != 0 ? TranspositionTable.move(data) : 0;
+        }
+        return length;
+    }
+
+    // 同一方走棋的局面每两步才可能重复
+    private boolean isRepetition() {
+        var current = path[pathLength - 1];
+        for (var i = pathLength - 3; i >= 0; i -= 2) {
+            if (path[i] == current) return true;
+        }
+        return false;
+    }
+
+    // 杀棋和残局库分数在置换表中存为相对当前节点的距离, 取出时换回相对根节点
+    private static int toTable(int score, int ply) {
+        if (score >= TABLEBASE_BOUND) return score + ply;
+        if (score <= -TABLEBASE_BOUND) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= TABLEBASE_BOUND) return score - ply;
+        if (score <= -TABLEBASE_BOUND) return score + ply;
+        return score;
+    }
+}
@@ -0,0 +1,27 @@
+package src;
+
+// 房间中的一个座位占用者: 网络连接 (ChessServer.ClientHandler) 或服务器内置的电脑棋手 (EnginePlayer)
+// 房间只通过这组方法与参与者交互, 走子统一经由 GameRoom.handleMove
+public interface Seat {
+    void send(String message);
+
+    // 已编码好的共享消息, 实现方不得修改
+    void send(OutboundQueue.Frame frame);
+
+    GameRoom getRoom();
+
+    void setRoom(GameRoom room, String playerColor);
+
+    String getPlayerColor();
+
+    String getPlayerName();
+
+    int getPlayerId();
+
+    boolean isDeltaEnabled();
+
+    boolean isClockEnabled();
+
+    // LEGAL_ON: 轮到该座位走棋时随局面推送全部合法走法
+    boolean isLegalMovesEnabled();
+}
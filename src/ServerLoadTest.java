@@ -0,0 +1,197 @@
+package src;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 观战连接压测: 依次以不同模式启动服务器, 打开大量观战连接, 报告服务器常驻内存和广播延迟
+// 用法: java -cp "build:lib/*" src.ServerLoadTest [--clients=10000] [--rounds=20] [--modes=platform,virtual,nio]
+// 需要足够的文件句柄 (ulimit -n), 内存数据读取自 /proc/<pid>/status, 仅支持 Linux
+public class ServerLoadTest {
+    private static final int PORT = 8888;
+
+    public static void main(String[] args) throws Exception {
+        var clients = 10000;
+        var rounds = 20;
+        var modes = new String[]{"platform", "virtual", "nio"};
+        for (var arg : args) {
+            if (arg.startsWith("--clients=")) clients = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--rounds=")) rounds = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--modes=")) modes = arg.substring(8).split(",");
+        }
+
+        var results = new ArrayList<String>();
+        for (var mode : modes) {
+            results.add(runMode(mode, clients, rounds));
+        }
+
+        System.out.println();
+        System.out.println("==== 压测结果 (" + clients + " 个观战连接, " + rounds + " 轮广播) ====");
+        System.out.printf("%-10s %12s %12s %12s %12s%n", "模式", "RSS(MB)", "p50(ms)", "p99(ms)", "max(ms)");
+        results.forEach(System.out::println);
+    }
+
+    private static String runMode(String mode, int clients, int rounds) throws Exception {
+        var serverArgs = switch (mode) {
+            case "virtual" -> "--threads=virtual";
+            case "nio" -> "--io=nio";
+            default -> "--threads=platform";
+        };
+        System.out.println("启动服务器: " + serverArgs);
+        var server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "src.ChessServer", serverArgs)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            waitForPort();
+            try (var selector = Selector.open()) {
+                var connections = new ArrayList<LoadConnection>(clients);
+                for (var i = 0; i < clients; i++) {
+                    var channel = SocketChannel.open(new InetSocketAddress("localhost", PORT));
+                    // 新连接默认被匹配到各自的房间, 全部转入 1 号房间观战
+                    channel.write(ByteBuffer.wrap("JOIN_ROOM:1\n".getBytes(StandardCharsets.UTF_8)));
+                    channel.configureBlocking(false);
+                    var connection = new LoadConnection(channel);
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.add(connection);
+                    if (i % 500 == 0) {
+                        drain(selector, 0);
+                    }
+                }
+                System.out.println("已建立 " + clients + " 个连接");
+
+                // 服务器每秒都会推送 TIME, 固定等待一段时间让加入消息全部送达后再采样内存
+                var settleUntil = System.currentTimeMillis() + 3000;
+                while (System.currentTimeMillis() < settleUntil) {
+                    drain(selector, 100);
+                }
+                var rssMb = residentMemoryKb(server.pid()) / 1024.0;
+
+                var latencies = new double[rounds * clients];
+                var count = 0;
+                var sender = connections.get(0);
+                for (var round = 0; round < rounds; round++) {
+                    var marker = "ping-" + round;
+                    for (var c : connections) c.expect(marker);
+                    var start = System.nanoTime();
+                    sender.channel.write(ByteBuffer.wrap(("CHAT:" + marker + "\n").getBytes(StandardCharsets.UTF_8)));
+
+                    var remaining = clients;
+                    var deadline = start + 30_000_000_000L;
+                    while (remaining > 0 && System.nanoTime() < deadline) {
+                        drain(selector, 100);
+                        remaining = 0;
+                        for (var c : connections) {
+                            if (c.receivedAt == 0) remaining++;
+                        }
+                    }
+                    for (var c : connections) {
+                        if (c.receivedAt != 0) latencies[count++] = (c.receivedAt - start) / 1_000_000.0;
+                    }
+                    if (remaining > 0) {
+                        System.out.println("第 " + round + " 轮有 " + remaining + " 个连接超时未收到广播");
+                    }
+                }
+
+                for (var c : connections) c.channel.close();
+
+                var sorted = Arrays.copyOf(latencies, count);
+                Arrays.sort(sorted);
+                return String.format("%-10s %12.1f %12.2f %12.2f %12.2f", mode, rssMb,
+                        percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0));
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static void waitForPort() throws InterruptedException {
+        for (var i = 0; i < 100; i++) {
+            try (var probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", PORT), 200);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("服务器未能在端口 " + PORT + " 启动");
+    }
+
+    private static int drain(Selector selector, long timeoutMillis) throws IOException {
+        var ready = timeoutMillis > 0 ? selector.select(timeoutMillis) : selector.selectNow();
+        var buffer = ByteBuffer.allocate(16384);
+        for (var key : selector.selectedKeys()) {
+            var connection = (LoadConnection) key.attachment();
+            buffer.clear();
+            if (connection.channel.read(buffer) < 0) {
+                key.cancel();
+                continue;
+            }
+            buffer.flip();
+            connection.consume(buffer);
+        }
+        selector.selectedKeys().clear();
+        return ready;
+    }
+
+    private static long residentMemoryKb(long pid) throws IOException {
+        List<String> lines = Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"));
+        for (var line : lines) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        var index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static final class LoadConnection {
+        private final SocketChannel channel;
+        private final StringBuilder line = new StringBuilder();
+        private String marker;
+        private long receivedAt;
+
+        LoadConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void expect(String marker) {
+            this.marker = marker;
+            this.receivedAt = 0;
+        }
+
+        // 只关心 ASCII 标记, 按 ISO-8859-1 逐字节解码即可
+        void consume(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                var b = buffer.get();
+                if (b == '\n') {
+                    if (marker != null && receivedAt == 0 && line.indexOf(marker) >= 0) {
+                        receivedAt = System.nanoTime();
+                    }
+                    line.setLength(0);
+                } else {
+                    line.append((char) (b & 0xFF));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Lazy SMP 扩展性报告: 对一组局面分别用 1/2/4/8 个线程搜索
+//   节点/秒:   每个局面固定思考时间, 统计所有线程的节点总数
+//   到达深度:  每个局面搜到固定深度所用的时间 (主线程完成该深度即结束)
+// 每次测量前清空置换表; 线程数超过 CPU 核数时的数字没有意义
+// 用法: java -cp build src.SmpBenchmark [--threads=1,2,4,8] [--positions=6] [--time-ms=2000] [--depth=7] [--hash-mb=64] [--seed=1]
+public class SmpBenchmark {
+    public static void main(String[] args) {
+        var threadCounts = new int[]{1, 2, 4, 8};
+        var positionCount = 6;
+        var timeMillis = 2000L;
+        var depth = 7;
+        var hashMegabytes = 64;
+        var seed = 1L;
+        for (var arg : args) {
+            if (arg.startsWith("--threads=")) {
+                var parts = arg.substring(10).split(",");
+                threadCounts = new int[parts.length];
+                for (var i = 0; i < parts.length; i++) threadCounts[i] = Integer.parseInt(parts[i].trim());
+            } else if (arg.startsWith("--positions=")) positionCount = Integer.parseInt(arg.substring(12));
+            else if (arg.startsWith("--time-ms=")) timeMillis = Long.parseLong(arg.substring(10));
+            else if (arg.startsWith("--depth=")) depth = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--hash-mb=")) hashMegabytes = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+        }
+
+        var positions = samplePositions(positionCount, new Random(seed));
+        var table = new TranspositionTable(hashMegabytes);
+        System.out.println("==== Lazy SMP 扩展性 (" + positions.size() + " 个局面, CPU 核数 " +
+                Runtime.getRuntime().availableProcessors() + ", 置换表 " + table.getMegabytes() + " MB) ====");
+        System.out.printf("%-6s %14s %10s %16s %10s %8s%n",
+                "线程", "节点/秒", "加速比", "到达深度" + depth + "(ms)", "加速比", "平均深度");
+
+        double baseNps = 0;
+        double baseMillis = 0;
+        for (var threads : threadCounts) {
+            ExecutorService helpers = threads > 1 ? Executors.newFixedThreadPool(threads - 1, r -> {
+                var thread = new Thread(r, "smp-helper");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
+            var search = new LazySmpSearch(table, threads, helpers);
+
+            // 预热一次, 让 JIT 编译搜索代码
+            table.clear();
+            search.search(positions.get(0), new long[0], Math.min(timeMillis, 500), SearchEngine.MAX_PLY);
+
+            long nodes = 0;
+            long nanos = 0;
+            long depthSum = 0;
+            for (var position : positions) {
+                table.clear();
+                var start = System.nanoTime();
+                var result = search.search(position, new long[0], timeMillis, SearchEngine.MAX_PLY);
+                nanos += System.nanoTime() - start;
+                nodes += result.nodes();
+                depthSum += result.depth();
+            }
+            var nps = nodes * 1e9 / nanos;
+
+            long depthNanos = 0;
+            for (var position : positions) {
+                table.clear();
+                var start = System.nanoTime();
+                search.search(position, new long[0], 3_600_000, depth);
+                depthNanos += System.nanoTime() - start;
+            }
+            var millis = depthNanos / 1e6 / positions.size();
+
+            if (baseNps == 0) {
+                baseNps = nps;
+                baseMillis = millis;
+            }
+            System.out.printf("%-6d %14.0f %9.2fx %16.1f %9.2fx %8.1f%n", threads, nps, nps / baseNps,
+                    millis, baseMillis / millis, (double) depthSum / positions.size());
+            if (helpers != null) helpers.shutdownNow();
+        }
+    }
+
+    // 开局局面加上若干随机走子后的中局局面 (跳过被将军和已分胜负的局面)
+    private static List<Position> samplePositions(int count, Random random) {
+        var positions = new ArrayList<Position>();
+        positions.add(new Position());
+        var moves = new int[MoveGenerator.MAX_MOVES];
+        while (positions.size() < count) {
+            var position = new Position();
+            var plies = 10 + random.nextInt(20);
+            var ok = true;
+            for (var ply = 0; ply < plies && ok; ply++) {
+                var n = MoveGenerator.generateLegal(position, moves);
+                if (n == 0) {
+                    ok = false;
+                } else {
+                    var move = moves[random.nextInt(n)];
+                    position.makeMove(MoveGenerator.from(move), MoveGenerator.to(move));
+                }
+            }
+            if (ok && MoveGenerator.hasLegalMove(position)
+                    && !MoveGenerator.isInCheck(position, position.sideToMove())) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,85 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+// 一组残局库: 启动时映射目录下所有 .xtb 文件, 按子力构成 (Position.material) 查表
+// 查表用开放寻址的 long 数组, 每个表同时以原色和颜色互换两种构成登记; probe 全程不分配内存, 可在搜索中调用
+public final class Tablebase {
+    public static final int NOT_FOUND = -1;
+    public static final String EXTENSION = ".xtb";
+
+    private final long[] keys;
+    private final EndgameTable[] tables;
+    private final boolean[] mirrored;
+    private final int mask;
+    private final int maxPieces;
+    private final int count;
+
+    public Tablebase(java.util.List<EndgameTable> list) {
+        var capacity = Integer.highestOneBit(Math.max(1, list.size() * 4)) * 2;
+        this.keys = new long[capacity];
+        this.tables = new EndgameTable[capacity];
+        this.mirrored = new boolean[capacity];
+        this.mask = capacity - 1;
+        var maxPieces = 0;
+        for (var table : list) {
+            insert(table.getMaterial(), table, false);
+            var mirror = EndgameTable.mirrorMaterial(table.getMaterial());
+            if (mirror != table.getMaterial()) insert(mirror, table, true);
+            maxPieces = Math.max(maxPieces, table.pieceCount());
+        }
+        this.maxPieces = maxPieces;
+        this.count = list.size();
+    }
+
+    public static Tablebase open(Path directory) throws IOException {
+        var list = new ArrayList<EndgameTable>();
+        try (var files = Files.list(directory)) {
+            for (var path : files.filter(p -> p.toString().endsWith(EXTENSION)).sorted().toList()) {
+                list.add(EndgameTable.open(path));
+            }
+        }
+        return new Tablebase(list);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // 库中最大的子力总数 (含将帅); 搜索用它快速跳过多子局面
+    public int maxPieces() {
+        return maxPieces;
+    }
+
+    // 从走棋方来看的值 (EndgameTable.DRAW 或 2 + 距离), 没有对应的表或局面不合法时返回 NOT_FOUND
+    public int probe(Position position) {
+        if (position.pieceCount() > maxPieces) return NOT_FOUND;
+        var material = position.material();
+        var slot = slot(material);
+        var table = tables[slot];
+        if (table == null) return NOT_FOUND;
+        var index = table.index(position, mirrored[slot]);
+        if (index < 0) return NOT_FOUND;
+        var code = table.code(index);
+        return code == EndgameTable.INVALID ? NOT_FOUND : code;
+    }
+
+    private void insert(long key, EndgameTable table, boolean mirror) {
+        var i = slot(key);
+        keys[i] = key;
+        tables[i] = table;
+        mirrored[i] = mirror;
+    }
+
+    // 命中返回该槽位, 未命中返回遇到的第一个空槽位
+    private int slot(long key) {
+        var i = (int) (key ^ (key >>> 29) ^ (key >>> 41)) & mask;
+        while (tables[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+}
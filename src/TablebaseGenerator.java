@@ -0,0 +1,200 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+// 离线生成残局库 (格式见 EndgameTable): 每种子力组合一个文件, 吃子后的子力组合先递归生成
+// 逆推分析按轮进行: 第 0 轮标出不合法局面和无子可走 (被将死/困毙) 的局面; 第 n 轮中
+//   有一步走到 "n-1 步后被将死" 的局面即为 "n 步后胜", 所有走法都走到 "至多 n-1 步后胜" 的局面即为 "n 步后负"
+// 不吃子的走法直接由槽位编号算出后继索引, 吃子的走法查已生成的子表; 每轮按索引分块在 ForkJoinPool 上并行
+// 同一轮内新写入的值距离都是 n, 不满足上面两个条件, 因此线程之间读到新旧值都不影响结果, 不需要加锁
+// 用法: java -cp build src.TablebaseGenerator [--signatures=KR-KAA,KR-KBB,KN-KA,KC-KA,KP-KA] [--output=tablebase] [--threads=N] [--force]
+public class TablebaseGenerator {
+    private static final short UNKNOWN = -1;
+    private static final int CHUNK = 1 << 14;
+
+    private final Path directory;
+    private final ForkJoinPool pool;
+    private final boolean force;
+    private final LinkedHashMap<String, EndgameTable> done = new LinkedHashMap<>();
+
+    public TablebaseGenerator(Path directory, int threads, boolean force) {
+        this.directory = directory;
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.force = force;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var signatures = "KR-KAA,KR-KBB,KN-KA,KC-KA,KP-KA";
+        var output = "tablebase";
+        var threads = Runtime.getRuntime().availableProcessors();
+        var force = false;
+        for (var arg : args) {
+            if (arg.startsWith("--signatures=")) signatures = arg.substring(13);
+            else if (arg.startsWith("--output=")) output = arg.substring(9);
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.equals("--force")) force = true;
+        }
+
+        var directory = Path.of(output);
+        Files.createDirectories(directory);
+        var generator = new TablebaseGenerator(directory, threads, force);
+        System.out.println("残局库输出目录: " + directory.toAbsolutePath() + ", 线程数: " + threads);
+        for (var signature : signatures.split(",")) {
+            generator.generate(signature.trim());
+        }
+        generator.pool.shutdown();
+    }
+
+    public EndgameTable generate(String signature) throws IOException, InterruptedException, ExecutionException {
+        var pieces = EndgameTable.parse(signature);
+        var canonical = EndgameTable.normalize(pieces, true);
+        var existing = done.get(canonical);
+        if (existing != null) return existing;
+
+        // 先生成每种被吃一子后的子力组合
+        var subs = new ArrayList<EndgameTable>();
+        for (var i = 0; i < pieces.length; i++) {
+            if (Position.typeOf(pieces[i]) == Position.KING) continue;
+            var rest = new int[pieces.length - 1];
+            for (int j = 0, k = 0; j < pieces.length; j++) {
+                if (j != i) rest[k++] = pieces[j];
+            }
+            subs.add(generate(EndgameTable.normalize(rest, true)));
+        }
+
+        var path = directory.resolve(canonical + Tablebase.EXTENSION);
+        if (!force && Files.exists(path)) {
+            var table = EndgameTable.open(path);
+            done.put(canonical, table);
+            System.out.printf("%-10s 已存在, 跳过%n", canonical);
+            return table;
+        }
+
+        var table = new EndgameTable(canonical);
+        if (table.size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(canonical + " 局面数 " + table.size() + " 超出单个文件的上限");
+        }
+        var start = System.nanoTime();
+        var values = new short[(int) table.size()];
+        Arrays.fill(values, UNKNOWN);
+        var subTables = new Tablebase(new ArrayList<>(done.values()));
+        // 子表中的胜负距离可能比本表更长, 至少要推到那么多轮
+        var maxSubDistance = 0;
+        for (var sub : subs) {
+            for (long i = 0; i < sub.size(); i++) {
+                var code = sub.code(i);
+                if (code >= 2) maxSubDistance = Math.max(maxSubDistance, EndgameTable.distance(code));
+            }
+        }
+
+        runPass(table, values, subTables, 0);
+        var passes = 1;
+        for (var n = 1; ; n++, passes++) {
+            var changed = runPass(table, values, subTables, n);
+            if (changed == 0 && n > maxSubDistance + 1) break;
+        }
+
+        long wins = 0, losses = 0, draws = 0, invalid = 0;
+        var maxDistance = 0;
+        for (var i = 0; i < values.length; i++) {
+            if (values[i] == UNKNOWN) values[i] = EndgameTable.DRAW;
+            var code = values[i];
+            if (code == EndgameTable.INVALID) invalid++;
+            else if (code == EndgameTable.DRAW) draws++;
+            else {
+                if (EndgameTable.isWin(code)) wins++;
+                else losses++;
+                maxDistance = Math.max(maxDistance, EndgameTable.distance(code));
+            }
+        }
+        table.setValues(values);
+        table.write(path);
+        done.put(canonical, table);
+        System.out.printf("%-10s 局面 %,d (胜 %,d 负 %,d 和 %,d 不合法 %,d), 最长 %d 步, %d 轮, %.1f 秒, 文件 %,d 字节%n",
+                canonical, values.length, wins, losses, draws, invalid, maxDistance, passes,
+                (System.nanoTime() - start) / 1e9, Files.size(path));
+        return table;
+    }
+
+    // 返回本轮新确定的局面数
+    private long runPass(EndgameTable table, short[] values, Tablebase subTables, int n)
+            throws InterruptedException, ExecutionException {
+        var changed = new LongAdder();
+        var chunks = (values.length + CHUNK - 1) / CHUNK;
+        pool.submit(() -> LongStream.range(0, chunks).parallel().forEach(chunk -> {
+            var position = new Position();
+            var squares = new int[table.slotCount()];
+            var slotAt = new int[Position.SQUARES];
+            var moves = new int[MoveGenerator.MAX_MOVES];
+            var end = (int) Math.min(values.length, (chunk + 1) * CHUNK);
+            for (var index = (int) chunk * CHUNK; index < end; index++) {
+                if (values[index] != UNKNOWN) continue;
+                var value = n == 0
+                        ? initial(table, index, position, squares)
+                        : evaluate(table, values, subTables, index, n, position, squares, slotAt, moves);
+                if (value != UNKNOWN) {
+                    values[index] = value;
+                    changed.increment();
+                }
+            }
+        })).get();
+        return changed.sum();
+    }
+
+    // 第 0 轮: 不合法 (重叠、轮到走棋的一方可以直接吃将) 或无子可走
+    private static short initial(EndgameTable table, long index, Position position, int[] squares) {
+        if (!table.decode(index, position, squares)) return EndgameTable.INVALID;
+        if (MoveGenerator.isInCheck(position, position.sideToMove() ^ 1)) return EndgameTable.INVALID;
+        if (!MoveGenerator.hasLegalMove(position)) return 2;
+        return UNKNOWN;
+    }
+
+    private static short evaluate(EndgameTable table, short[] values, Tablebase subTables, long index, int n,
+                                  Position position, int[] squares, int[] slotAt, int[] moves) {
+        table.decode(index, position, squares);
+        for (var slot = 0; slot < squares.length; slot++) {
+            slotAt[squares[slot]] = slot;
+        }
+        var side = position.sideToMove();
+        var count = MoveGenerator.generatePseudoLegal(position, moves);
+        var allWins = true;
+        var maxWin = -1;
+        for (var i = 0; i < count; i++) {
+            var from = MoveGenerator.from(moves[i]);
+            var to = MoveGenerator.to(moves[i]);
+            var captured = position.makeMove(from, to);
+            if (MoveGenerator.isInCheck(position, side)) {
+                position.unmakeMove(from, to, captured);
+                continue;
+            }
+            int code;
+            if (captured == Position.EMPTY) {
+                var slot = slotAt[from];
+                var delta = (table.domainIndex(slot, to) - table.domainIndex(slot, from)) * table.radix(slot);
+                code = values[(int) ((((index >>> 1) + delta) << 1) | (side ^ 1))];
+            } else {
+                code = subTables.probe(position);
+            }
+            position.unmakeMove(from, to, captured);
+
+            if (EndgameTable.isLoss(code) && EndgameTable.distance(code) == n - 1) {
+                return (short) (2 + n);
+            }
+            if (EndgameTable.isWin(code)) {
+                maxWin = Math.max(maxWin, EndgameTable.distance(code));
+            } else {
+                allWins = false;
+            }
+        }
+        return allWins && maxWin == n - 1 ? (short) (2 + n) : UNKNOWN;
+    }
+}
@@ -0,0 +1,33 @@
+package src;
+
+// 对局用时规则: 每方有基本时间, 之后按加秒 (Fischer: 每走一步加 increment) 或读秒 (byoyomi: 基本时间用完后
+// 每步须在一个读秒周期内走完, 超出一个周期消耗一次, 周期用完判负) 计时
+// 文本形式用于 --time-control 选项、CLOCKS 消息和 game_records.time_control:
+//   "600+5" 为 600 秒、每步加 5 秒; "600+30x3" 为 600 秒后 3 次 30 秒读秒; "none" 为不计时
+public record TimeControl(long baseMillis, long incrementMillis, long periodMillis, int periods) {
+
+    // "none" 或空串返回 null
+    public static TimeControl parse(String text) {
+        text = text.trim();
+        if (text.isEmpty() || text.equalsIgnoreCase("none")) return null;
+        var plus = text.indexOf('+');
+        var base = Long.parseLong(plus < 0 ? text : text.substring(0, plus)) * 1000;
+        if (plus < 0) return new TimeControl(base, 0, 0, 0);
+        var rest = text.substring(plus + 1);
+        var x = rest.indexOf('x');
+        if (x < 0) return new TimeControl(base, Long.parseLong(rest) * 1000, 0, 0);
+        var periods = Integer.parseInt(rest.substring(x + 1));
+        if (periods <= 0) throw new IllegalArgumentException("读秒次数必须大于 0: " + text);
+        return new TimeControl(base, 0, Long.parseLong(rest.substring(0, x)) * 1000, periods);
+    }
+
+    public boolean isByoyomi() {
+        return periods > 0;
+    }
+
+    @Override
+    public String toString() {
+        var text = baseMillis / 1000 + "+";
+        return isByoyomi() ? text + periodMillis / 1000 + "x" + periods : text + incrementMillis / 1000;
+    }
+}
@@ -0,0 +1,141 @@
+package src;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 所有房间共用的哈希时间轮: 一个线程每 tickMillis 前进一格, 只处理当前格子上挂着的定时器
+// 定时器挂在 (到期格数 mod 格子数) 号格子的双向链表上; 到期时间超过一圈的在经过时留在原处, 下一圈再看
+// 每一格的代价只与挂在这一格的定时器数量成正比, 与房间总数无关; 一圈 (默认 512 × 100ms ≈ 51 秒) 以内到期的定时器只被看一次
+// schedule 和 cancel 可在任意线程调用, 先进入无锁队列, 由时间轮线程在每格开始时处理, 因此链表不需要加锁
+// 到期的任务在时间轮线程上执行, 应只做投递 (如 GameRoom.execute), 不要在其中阻塞
+public final class TimerWheel {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    public static final class Timeout {
+        private final long deadline;  // System.nanoTime
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long tick;
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;  // 尚未挂到格子上时为 -1
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] heads;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running = true;
+    private long tick = 0;  // 只在时间轮线程上读写
+
+    public TimerWheel(long tickMillis, int buckets) {
+        this.tickNanos = tickMillis * 1_000_000;
+        var size = Integer.highestOneBit(Math.max(2, buckets - 1)) << 1;
+        this.heads = new Timeout[size];
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, "timer-wheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // deadline 为 System.nanoTime 时刻; 到期时间不早于 deadline, 最多晚一格
+    public Timeout schedule(long deadline, Runnable task) {
+        var timeout = new Timeout(deadline, task);
+        added.add(timeout);
+        return timeout;
+    }
+
+    // 返回 false 表示已经到期执行过
+    public boolean cancel(Timeout timeout) {
+        if (timeout == null || !timeout.state.compareAndSet(PENDING, CANCELLED)) return false;
+        cancelled.add(timeout);
+        return true;
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            // 按起始时刻对齐每一格, 处理耗时不会累积成漂移
+            var sleep = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue;
+            }
+            tick++;
+            transferAdded();
+            removeCancelled();
+            expire(tick);
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() != PENDING) continue;
+            // 向上取整到格, 已经过期的放到当前格立即处理
+            var due = (timeout.deadline - startNanos + tickNanos - 1) / tickNanos;
+            timeout.tick = Math.max(due, tick);
+            link(timeout, (int) (timeout.tick & mask));
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // 取消时可能还在 added 队列里, 那时 transferAdded 会直接丢弃它
+            if (timeout.bucket >= 0) unlink(timeout);
+        }
+    }
+
+    private void expire(long now) {
+        var timeout = heads[(int) (now & mask)];
+        while (timeout != null) {
+            var next = timeout.next;
+            if (timeout.tick <= now) {
+                unlink(timeout);
+                if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.out.println("定时任务执行失败: " + e.getMessage());
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(Timeout timeout, int bucket) {
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = heads[bucket];
+        if (heads[bucket] != null) heads[bucket].prev = timeout;
+        heads[bucket] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) timeout.prev.next = timeout.next;
+        else heads[timeout.bucket] = timeout.next;
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.bucket = -1;
+    }
+}
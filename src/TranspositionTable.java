@@ -0,0 +1,77 @@
+package src;
+
+import java.util.Arrays;
+
+// 固定大小的置换表, 无锁: 每个槽位两个 long, 存 (key ^ data, data)
+// 多个搜索线程并发读写时, 被撕裂的槽位因 key ^ data 对不上而被当作未命中, 不需要加锁
+// data 布局 (低位到高位): 走法 16 位, 分数 16 位 (有符号), 深度 8 位, 边界类型 2 位, 有效位 1 位, 代数 8 位
+public final class TranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;  // 分数 >= 存储值 (发生截断)
+    public static final int UPPER = 2;  // 分数 <= 存储值 (未超过 alpha)
+
+    private static final long VALID = 1L << 42;
+
+    private final long[] slots;
+    private final int mask;
+    private volatile int generation = 0;
+
+    public TranspositionTable(int megabytes) {
+        // 槽位数取不超过容量的最大 2 的幂, 每槽 16 字节
+        var entries = Long.highestOneBit(Math.max(1L, (long) megabytes << 20) / 16);
+        entries = Math.min(entries, 1L << 27);
+        this.slots = new long[(int) entries * 2];
+        this.mask = (int) entries - 1;
+    }
+
+    public int getMegabytes() {
+        return (int) ((long) slots.length * 8 >> 20);
+    }
+
+    // 每次新的根节点搜索前调用, 旧的表项在替换时优先被覆盖
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0L);
+    }
+
+    // 未命中返回 0
+    public long probe(long key) {
+        var index = ((int) key & mask) << 1;
+        var check = slots[index];
+        var data = slots[index + 1];
+        return (check ^ data) == key && (data & VALID) != 0 ? data : 0L;
+    }
+
+    public void store(long key, int move, int score, int depth, int bound) {
+        var index = ((int) key & mask) << 1;
+        var oldData = slots[index + 1];
+        var oldKey = slots[index] ^ oldData;
+        // 同一局面且已有更深结果时保留; 不同局面时, 旧表项属于本次搜索且更深才保留
+        if ((oldData & VALID) != 0) {
+            var oldDepth = depth(oldData);
+            if (oldKey == key) {
+                if (oldDepth > depth && bound != EXACT) return;
+                if (move == 0) move = move(oldData);
+            } else if (generation(oldData) == generation && oldDepth > depth) {
+                return;
+            }
+        }
+        var data = (move & 0xFFFFL)
+                | ((score & 0xFFFFL) << 16)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) bound << 40)
+                | VALID
+                | ((long) generation << 43);
+        slots[index] = key ^ data;
+        slots[index + 1] = data;
+    }
+
+    public static int move(long data) { return (int) (data & 0xFFFF); }
+    public static int score(long data) { return (short) (data >>> 16); }
+    public static int depth(long data) { return (int) ((data >>> 32) & 0xFF); }
+    public static int bound(long data) { return (int) ((data >>> 40) & 0x3); }
+    private static int generation(long data) { return (int) ((data >>> 43) & 0xFF); }
+}
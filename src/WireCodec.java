@@ -0,0 +1,293 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+// 二进制线路协议, 客户端和服务器共用
+// 帧格式: [长度 varint][操作码 1 字节][负载], 长度包含操作码
+// 业务层仍然使用文本消息 (如 "MOVE:9,1,7,2"), 编解码只负责文本消息与二进制帧之间的转换
+// 协商: 客户端发送 "LOGIN:用户名|binary" 后, 自己的发送改为二进制; 服务器回复文本行 "PROTO:binary" 后, 服务器的发送改为二进制
+public final class WireCodec {
+    public static final String BINARY = "binary";
+    public static final String PROTO_BINARY = "PROTO:" + BINARY;
+
+    public static final byte OP_TEXT = 0;   // 其余文本消息原样携带
+    public static final byte OP_MOVE = 1;   // 起点, 终点 (格子编号 = 行*9+列)
+    public static final byte OP_BOARD = 2;  // 版本号 varint, 回合方, 90 个棋子编码 (同 Position)
+    public static final byte OP_DELTA = 3;  // 版本号 varint, 起点, 终点, 被吃棋子编码, 回合方
+    public static final byte OP_CHAT = 4;   // UTF-8 文本
+    public static final byte OP_TIME = 5;   // 已用秒数 varint
+    public static final byte OP_VOICE = 6;  // 原始 PCM 数据, 不再经过 Base64
+    public static final byte OP_ERROR = 7;  // UTF-8 文本
+    public static final byte OP_CLOCK = 8;  // 已用毫秒 varint, 是否在走 1 字节
+
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private WireCodec() {}
+
+    /* ==================== encode ==================== */
+
+    // 每条广播只编码一次 (结果缓存在 OutboundQueue.Frame 中), 这里仍避免 split 和同步流以减少分配
+    public static byte[] encode(String message) {
+        var body = new Buffer(16);
+        if (message.startsWith("MOVE:")) {
+            var p = message.substring(5).split(",");
+            body.write(OP_MOVE);
+            body.write(Integer.parseInt(p[0]) * 9 + Integer.parseInt(p[1]));
+            body.write(Integer.parseInt(p[2]) * 9 + Integer.parseInt(p[3]));
+        } else if (message.startsWith("BOARD:")) {
+            body = new Buffer(96);
+            body.write(OP_BOARD);
+            var cells = new byte[90];
+            var pos = 6;
+            for (var i = 0; i < 90; i++) {
+                var next = message.indexOf(',', pos);
+                cells[i] = (byte) (next == pos + 1 ? Position.pieceCode(message.charAt(pos)) : 0);
+                pos = next + 1;
+            }
+            var next = message.indexOf(',', pos);
+            var turn = next < 0 ? message.substring(pos) : message.substring(pos, next);
+            body.writeVarint(next < 0 ? 0 : Long.parseLong(message, next + 1, message.length(), 10));
+            body.write(turn.equals("黑") ? 1 : 0);
+            body.writeBytes(cells);
+        } else if (message.startsWith("DELTA:")) {
+            var p = message.substring(6).split(",", -1);
+            body.write(OP_DELTA);
+            body.writeVarint(Long.parseLong(p[0]));
+            body.write(Integer.parseInt(p[1]));
+            body.write(Integer.parseInt(p[2]));
+            body.write(Position.pieceCode(p[3]));
+            body.write(p[4].equals("黑") ? 1 : 0);
+        } else if (message.startsWith("TIME:")) {
+            var colon = message.indexOf(':', 5);
+            body.write(OP_TIME);
+            body.writeVarint(Long.parseLong(message, 5, colon, 10) * 60
+                    + Long.parseLong(message, colon + 1, message.length(), 10));
+        } else if (message.startsWith("CLOCK:")) {
+            var comma = message.indexOf(',', 6);
+            body.write(OP_CLOCK);
+            body.writeVarint(Long.parseLong(message, 6, comma, 10));
+            body.write(message.startsWith("running", comma + 1) ? 1 : 0);
+        } else if (message.startsWith("VOICE:")) {
+            var pcm = Base64.getDecoder().decode(message.substring(6));
+            body = new Buffer(pcm.length + 1);
+            body.write(OP_VOICE);
+            body.writeBytes(pcm);
+        } else if (message.startsWith("CHAT:")) {
+            body.write(OP_CHAT);
+            body.writeBytes(message.substring(5).getBytes(StandardCharsets.UTF_8));
+        } else if (message.startsWith("ERROR:")) {
+            body.write(OP_ERROR);
+            body.writeBytes(message.substring(6).getBytes(StandardCharsets.UTF_8));
+        } else {
+            body.write(OP_TEXT);
+            body.writeBytes(message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        var frame = new Buffer(body.size + 5);
+        frame.writeVarint(body.size);
+        frame.writeBytes(body.data, body.size);
+        return frame.size == frame.data.length ? frame.data : Arrays.copyOf(frame.data, frame.size);
+    }
+
+    /* ==================== decode ==================== */
+
+    // data[off] 为操作码, 之后 len-1 字节为负载
+    // 负载短于该操作码的固定部分或 varint 超出帧尾时抛出 IOException, 调用方据此断开连接;
+    // NIO 的 FrameReader 复用缓冲区, 不检查长度就会读到上一帧残留的字节
+    public static String decode(byte[] data, int off, int len) throws IOException {
+        var opcode = data[off];
+        var pos = off + 1;
+        var end = off + len;
+        switch (opcode) {
+            case OP_MOVE -> {
+                requirePayload(opcode, pos, 2, end);
+                var from = data[pos] & 0xFF;
+                var to = data[pos + 1] & 0xFF;
+                return "MOVE:" + from / 9 + "," + from % 9 + "," + to / 9 + "," + to % 9;
+            }
+            case OP_BOARD -> {
+                var cursor = new int[]{pos};
+                var version = readVarint(data, cursor, end);
+                requirePayload(opcode, cursor[0], 91, end);
+                var turn = data[cursor[0]++] == 1 ? "黑" : "红";
+                var sb = new StringBuilder(6 + 90 * 3 + 16);
+                sb.append("BOARD:");
+                for (var i = 0; i < 90; i++) {
+                    sb.append(Position.pieceName(data[cursor[0]++])).append(',');
+                }
+                return sb.append(turn).append(',').append(version).toString();
+            }
+            case OP_DELTA -> {
+                var cursor = new int[]{pos};
+                var seq = readVarint(data, cursor, end);
+                requirePayload(opcode, cursor[0], 4, end);
+                var from = data[cursor[0]++] & 0xFF;
+                var to = data[cursor[0]++] & 0xFF;
+                var captured = data[cursor[0]++];
+                var turn = data[cursor[0]] == 1 ? "黑" : "红";
+                return "DELTA:" + seq + "," + from + "," + to + "," +
+                        (captured == 0 ? "" : Position.pieceName(captured)) + "," + turn;
+            }
+            case OP_TIME -> {
+                var seconds = readVarint(data, new int[]{pos}, end);
+                var minutes = seconds / 60;
+                var rest = seconds % 60;
+                return "TIME:" + (minutes < 10 ? "0" : "") + minutes + (rest < 10 ? ":0" : ":") + rest;
+            }
+            case OP_CLOCK -> {
+                var cursor = new int[]{pos};
+                var elapsed = readVarint(data, cursor, end);
+                requirePayload(opcode, cursor[0], 1, end);
+                return "CLOCK:" + elapsed + "," + (data[cursor[0]] == 1 ? "running" : "stopped");
+            }
+            case OP_VOICE -> {
+                var raw = new byte[end - pos];
+                System.arraycopy(data, pos, raw, 0, raw.length);
+                return "VOICE:" + Base64.getEncoder().encodeToString(raw);
+            }
+            case OP_CHAT -> {
+                return "CHAT:" + new String(data, pos, end - pos, StandardCharsets.UTF_8);
+            }
+            case OP_ERROR -> {
+                return "ERROR:" + new String(data, pos, end - pos, StandardCharsets.UTF_8);
+            }
+            default -> {
+                return new String(data, pos, end - pos, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /* ==================== stream helpers ==================== */
+
+    // 阻塞读取一帧并解码, 流结束返回 null
+    public static String readFrame(InputStream in) throws IOException {
+        var length = 0;
+        var shift = 0;
+        while (true) {
+            var b = in.read();
+            if (b < 0) {
+                if (shift == 0) return null;
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+            if (shift > 28) throw new IOException("帧长度无效");
+        }
+        if (length <= 0 || length > MAX_FRAME_LENGTH) throw new IOException("帧长度无效: " + length);
+        var data = in.readNBytes(length);
+        if (data.length < length) throw new EOFException();
+        return decode(data, 0, length);
+    }
+
+    // 与 BufferedReader.readLine 相同的分行规则, 但直接读字节流, 便于中途切换到二进制帧
+    public static String readLine(InputStream in, Charset charset) throws IOException {
+        var line = new ByteArrayOutputStream(128);
+        while (true) {
+            var b = in.read();
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(charset);
+            }
+            if (b == '\n') break;
+            line.write(b);
+        }
+        var bytes = line.toByteArray();
+        var length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+        return new String(bytes, 0, length, charset);
+    }
+
+    // 增量解帧, 供 NIO 连接逐字节喂入
+    public static final class FrameReader {
+        private byte[] buffer = new byte[256];
+        private int length = -1;
+        private int lengthShift = 0;
+        private int partialLength = 0;
+        private int filled = 0;
+
+        // 返回解码后的消息; 帧尚未完整时返回 null
+        public String accept(byte b) throws IOException {
+            if (length < 0) {
+                partialLength |= (b & 0x7F) << lengthShift;
+                if ((b & 0x80) != 0) {
+                    lengthShift += 7;
+                    if (lengthShift > 28) throw new IOException("帧长度无效");
+                    return null;
+                }
+                if (partialLength <= 0 || partialLength > MAX_FRAME_LENGTH) {
+                    throw new IOException("帧长度无效: " + partialLength);
+                }
+                length = partialLength;
+                if (buffer.length < length) buffer = new byte[length];
+                filled = 0;
+                return null;
+            }
+            buffer[filled++] = b;
+            if (filled < length) return null;
+            var message = decode(buffer, 0, length);
+            length = -1;
+            lengthShift = 0;
+            partialLength = 0;
+            return message;
+        }
+    }
+
+    // 非同步的可增长字节缓冲, 代替 ByteArrayOutputStream
+    private static final class Buffer {
+        byte[] data;
+        int size;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2 + 16);
+            data[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeBytes(bytes, bytes.length);
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            if (size + length > data.length) data = Arrays.copyOf(data, Math.max(size + length, size * 2));
+            System.arraycopy(bytes, 0, data, size, length);
+            size += length;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+    }
+
+    private static void requirePayload(byte opcode, int pos, int needed, int end) throws IOException {
+        if (end - pos < needed) {
+            throw new IOException("帧负载过短: 操作码 " + opcode + " 还需 " + needed + " 字节, 只有 " + (end - pos));
+        }
+    }
+
+    // 读到 end 仍未结束或超过 64 位的 varint 视为无效帧
+    private static long readVarint(byte[] data, int[] cursor, int end) throws IOException {
+        long value = 0;
+        var shift = 0;
+        while (true) {
+            if (cursor[0] >= end || shift > 63) throw new IOException("varint 无效");
+            var b = data[cursor[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+}